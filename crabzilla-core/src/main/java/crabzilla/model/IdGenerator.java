@@ -0,0 +1,10 @@
+package crabzilla.model;
+
+import java.util.UUID;
+
+@FunctionalInterface
+public interface IdGenerator {
+
+  UUID nextId();
+
+}
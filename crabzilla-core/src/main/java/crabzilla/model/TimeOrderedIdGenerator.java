@@ -0,0 +1,44 @@
+package crabzilla.model;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+// what: UUIDv7 style ids: 48 bits of unix epoch millis, then a 12 bits counter and 62 random bits
+// how: ids sort by creation time, so inserts on unique indexes land on the last pages instead of random ones. The
+// timestamp and counter move together on a single AtomicLong (no locks) and keep ids strictly increasing on this JVM,
+// even within the same millisecond or when the clock goes back. ThreadLocalRandom avoids contention on SecureRandom:
+// these ids must be unique, not unguessable
+
+public class TimeOrderedIdGenerator implements IdGenerator {
+
+  static final TimeOrderedIdGenerator INSTANCE = new TimeOrderedIdGenerator();
+
+  // unix epoch millis << 12 | counter
+  private final AtomicLong lastTimeAndCounter = new AtomicLong();
+
+  public static TimeOrderedIdGenerator instance() {
+    return INSTANCE;
+  }
+
+  @Override
+  public UUID nextId() {
+    final long timeAndCounter = nextTimeAndCounter();
+    final long msb = (timeAndCounter >>> 12) << 16 | 0x7000L | (timeAndCounter & 0xFFFL);
+    final long lsb = ThreadLocalRandom.current().nextLong() & 0x3FFFFFFFFFFFFFFFL | 0x8000000000000000L;
+    return new UUID(msb, lsb);
+  }
+
+  private long nextTimeAndCounter() {
+    while (true) {
+      final long last = lastTimeAndCounter.get();
+      final long now = System.currentTimeMillis() << 12;
+      // a counter overflow just borrows the next millisecond
+      final long next = now > last ? now : last + 1;
+      if (lastTimeAndCounter.compareAndSet(last, next)) {
+        return next;
+      }
+    }
+  }
+
+}
@@ -19,8 +19,15 @@ public class UnitOfWork implements Serializable {
   @NonNull
   final List<Event> events;
 
+  private static volatile IdGenerator idGenerator = TimeOrderedIdGenerator.instance();
+
   public static UnitOfWork unitOfWork(Command command, Version version, List<Event> events) {
-    return new UnitOfWork(UUID.randomUUID(), command, version, events);
+    return new UnitOfWork(idGenerator.nextId(), command, version, events);
+  }
+
+  // time ordered by default, see TimeOrderedIdGenerator
+  public static void useIdGenerator(@NonNull IdGenerator generator) {
+    idGenerator = generator;
   }
 
 
@@ -0,0 +1,77 @@
+package crabzilla.model;
+
+import crabzilla.example1.aggregates.customer.CustomerId;
+import crabzilla.example1.aggregates.customer.commands.CreateCustomerCmd;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DisplayName("A TimeOrderedIdGenerator")
+public class TimeOrderedIdGeneratorTest {
+
+  final TimeOrderedIdGenerator generator = new TimeOrderedIdGenerator();
+
+  @Test
+  void generates_version_7_ids() {
+    final UUID id = generator.nextId();
+    assertThat(id.version()).isEqualTo(7);
+    assertThat(id.variant()).isEqualTo(2);
+  }
+
+  @Test
+  void starts_with_the_current_time() {
+    final long before = System.currentTimeMillis();
+    final UUID id = generator.nextId();
+    final long after = System.currentTimeMillis();
+    assertThat(id.getMostSignificantBits() >>> 16).isBetween(before, after + 1);
+  }
+
+  @Test
+  void ids_are_strictly_increasing_even_within_the_same_millisecond() {
+    String previous = generator.nextId().toString();
+    for (int i = 0; i < 100_000; i++) {
+      final String next = generator.nextId().toString();
+      assertThat(next).isGreaterThan(previous);
+      previous = next;
+    }
+  }
+
+  @Test
+  void ids_are_unique_across_threads() throws Exception {
+
+    final int threads = 8;
+    final int idsPerThread = 50_000;
+    final ExecutorService executor = Executors.newFixedThreadPool(threads);
+    final List<Future<List<UUID>>> futures = new ArrayList<>();
+
+    for (int t = 0; t < threads; t++) {
+      futures.add(executor.submit(() -> {
+        final List<UUID> ids = new ArrayList<>(idsPerThread);
+        for (int i = 0; i < idsPerThread; i++) {
+          ids.add(generator.nextId());
+        }
+        return ids;
+      }));
+    }
+
+    final Set<UUID> all = new HashSet<>();
+    for (Future<List<UUID>> future : futures) {
+      all.addAll(future.get(30, TimeUnit.SECONDS));
+    }
+    executor.shutdown();
+
+    assertThat(all).hasSize(threads * idsPerThread);
+  }
+
+  @Test
+  void is_the_default_for_new_units_of_work() {
+    final CreateCustomerCmd cmd = new CreateCustomerCmd(UUID.randomUUID(), new CustomerId("c1"), "customer");
+    final UnitOfWork uow = UnitOfWork.unitOfWork(cmd, new Version(1), Collections.emptyList());
+    assertThat(uow.getUnitOfWorkId().version()).isEqualTo(7);
+  }
+
+}
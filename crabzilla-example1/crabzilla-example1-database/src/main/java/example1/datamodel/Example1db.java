@@ -8,6 +8,7 @@ import example1.datamodel.tables.CustomerSummary;
 import example1.datamodel.tables.EventsChannels;
 import example1.datamodel.tables.SchemaVersion;
 import example1.datamodel.tables.UnitsOfWork;
+import example1.datamodel.tables.UowEventTypes;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -60,6 +61,11 @@ public class Example1db extends SchemaImpl {
      */
     public final UnitsOfWork UNITS_OF_WORK = example1.datamodel.tables.UnitsOfWork.UNITS_OF_WORK;
 
+    /**
+     * The table <code>example1db.uow_event_types</code>.
+     */
+    public final UowEventTypes UOW_EVENT_TYPES = example1.datamodel.tables.UowEventTypes.UOW_EVENT_TYPES;
+
     /**
      * No further instances allowed
      */
@@ -88,6 +94,7 @@ public class Example1db extends SchemaImpl {
             CustomerSummary.CUSTOMER_SUMMARY,
             EventsChannels.EVENTS_CHANNELS,
             SchemaVersion.SCHEMA_VERSION,
-            UnitsOfWork.UNITS_OF_WORK);
+            UnitsOfWork.UNITS_OF_WORK,
+            UowEventTypes.UOW_EVENT_TYPES);
     }
 }
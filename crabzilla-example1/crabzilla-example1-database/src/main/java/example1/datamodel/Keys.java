@@ -8,10 +8,12 @@ import example1.datamodel.tables.CustomerSummary;
 import example1.datamodel.tables.EventsChannels;
 import example1.datamodel.tables.SchemaVersion;
 import example1.datamodel.tables.UnitsOfWork;
+import example1.datamodel.tables.UowEventTypes;
 import example1.datamodel.tables.records.CustomerSummaryRecord;
 import example1.datamodel.tables.records.EventsChannelsRecord;
 import example1.datamodel.tables.records.SchemaVersionRecord;
 import example1.datamodel.tables.records.UnitsOfWorkRecord;
+import example1.datamodel.tables.records.UowEventTypesRecord;
 
 import javax.annotation.Generated;
 
@@ -50,6 +52,7 @@ public class Keys {
     public static final UniqueKey<UnitsOfWorkRecord> KEY_UNITS_OF_WORK_PRIMARY = UniqueKeys0.KEY_UNITS_OF_WORK_PRIMARY;
     public static final UniqueKey<UnitsOfWorkRecord> KEY_UNITS_OF_WORK_UOW_ID = UniqueKeys0.KEY_UNITS_OF_WORK_UOW_ID;
     public static final UniqueKey<UnitsOfWorkRecord> KEY_UNITS_OF_WORK_CMD_ID = UniqueKeys0.KEY_UNITS_OF_WORK_CMD_ID;
+    public static final UniqueKey<UowEventTypesRecord> KEY_UOW_EVENT_TYPES_PRIMARY = UniqueKeys0.KEY_UOW_EVENT_TYPES_PRIMARY;
 
     // -------------------------------------------------------------------------
     // FOREIGN KEY definitions
@@ -71,5 +74,6 @@ public class Keys {
         public static final UniqueKey<UnitsOfWorkRecord> KEY_UNITS_OF_WORK_PRIMARY = createUniqueKey(UnitsOfWork.UNITS_OF_WORK, "KEY_units_of_work_PRIMARY", UnitsOfWork.UNITS_OF_WORK.UOW_SEQ_NUMBER, UnitsOfWork.UNITS_OF_WORK.AR_NAME);
         public static final UniqueKey<UnitsOfWorkRecord> KEY_UNITS_OF_WORK_UOW_ID = createUniqueKey(UnitsOfWork.UNITS_OF_WORK, "KEY_units_of_work_uow_id", UnitsOfWork.UNITS_OF_WORK.UOW_ID, UnitsOfWork.UNITS_OF_WORK.AR_NAME);
         public static final UniqueKey<UnitsOfWorkRecord> KEY_UNITS_OF_WORK_CMD_ID = createUniqueKey(UnitsOfWork.UNITS_OF_WORK, "KEY_units_of_work_cmd_id", UnitsOfWork.UNITS_OF_WORK.CMD_ID, UnitsOfWork.UNITS_OF_WORK.AR_NAME);
+        public static final UniqueKey<UowEventTypesRecord> KEY_UOW_EVENT_TYPES_PRIMARY = createUniqueKey(UowEventTypes.UOW_EVENT_TYPES, "KEY_uow_event_types_PRIMARY", UowEventTypes.UOW_EVENT_TYPES.EVENT_TYPE, UowEventTypes.UOW_EVENT_TYPES.UOW_SEQ_NUMBER);
     }
 }
@@ -8,6 +8,7 @@ import example1.datamodel.tables.CustomerSummary;
 import example1.datamodel.tables.EventsChannels;
 import example1.datamodel.tables.SchemaVersion;
 import example1.datamodel.tables.UnitsOfWork;
+import example1.datamodel.tables.UowEventTypes;
 
 import javax.annotation.Generated;
 
@@ -44,4 +45,9 @@ public class Tables {
      * The table <code>example1db.units_of_work</code>.
      */
     public static final UnitsOfWork UNITS_OF_WORK = example1.datamodel.tables.UnitsOfWork.UNITS_OF_WORK;
+
+    /**
+     * The table <code>example1db.uow_event_types</code>.
+     */
+    public static final UowEventTypes UOW_EVENT_TYPES = example1.datamodel.tables.UowEventTypes.UOW_EVENT_TYPES;
 }
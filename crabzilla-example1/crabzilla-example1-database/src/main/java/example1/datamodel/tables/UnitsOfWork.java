@@ -59,7 +59,7 @@ public class UnitsOfWork extends TableImpl<UnitsOfWorkRecord> {
     /**
      * The column <code>example1db.units_of_work.uow_id</code>.
      */
-    public final TableField<UnitsOfWorkRecord, String> UOW_ID = createField("uow_id", org.jooq.impl.SQLDataType.VARCHAR.length(36).nullable(false), this, "");
+    public final TableField<UnitsOfWorkRecord, byte[]> UOW_ID = createField("uow_id", org.jooq.impl.SQLDataType.BINARY.length(16).nullable(false), this, "");
 
     /**
      * The column <code>example1db.units_of_work.uow_events</code>.
@@ -69,7 +69,7 @@ public class UnitsOfWork extends TableImpl<UnitsOfWorkRecord> {
     /**
      * The column <code>example1db.units_of_work.cmd_id</code>.
      */
-    public final TableField<UnitsOfWorkRecord, String> CMD_ID = createField("cmd_id", org.jooq.impl.SQLDataType.VARCHAR.length(36).nullable(false), this, "");
+    public final TableField<UnitsOfWorkRecord, byte[]> CMD_ID = createField("cmd_id", org.jooq.impl.SQLDataType.BINARY.length(16).nullable(false), this, "");
 
     /**
      * The column <code>example1db.units_of_work.cmd_data</code>.
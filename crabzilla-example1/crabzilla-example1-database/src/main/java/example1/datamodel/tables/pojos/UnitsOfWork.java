@@ -26,9 +26,9 @@ public class UnitsOfWork implements Serializable {
     private static final long serialVersionUID = -85244632;
 
     private Long      uowSeqNumber;
-    private String    uowId;
+    private byte[]    uowId;
     private Object    uowEvents;
-    private String    cmdId;
+    private byte[]    cmdId;
     private Object    cmdData;
     private String    arName;
     private String    arId;
@@ -51,9 +51,9 @@ public class UnitsOfWork implements Serializable {
 
     public UnitsOfWork(
         Long      uowSeqNumber,
-        String    uowId,
+        byte[]    uowId,
         Object    uowEvents,
-        String    cmdId,
+        byte[]    cmdId,
         Object    cmdData,
         String    arName,
         String    arId,
@@ -80,11 +80,11 @@ public class UnitsOfWork implements Serializable {
         return this;
     }
 
-    public String getUowId() {
+    public byte[] getUowId() {
         return this.uowId;
     }
 
-    public UnitsOfWork setUowId(String uowId) {
+    public UnitsOfWork setUowId(byte[] uowId) {
         this.uowId = uowId;
         return this;
     }
@@ -98,11 +98,11 @@ public class UnitsOfWork implements Serializable {
         return this;
     }
 
-    public String getCmdId() {
+    public byte[] getCmdId() {
         return this.cmdId;
     }
 
-    public UnitsOfWork setCmdId(String cmdId) {
+    public UnitsOfWork setCmdId(byte[] cmdId) {
         this.cmdId = cmdId;
         return this;
     }
@@ -157,9 +157,9 @@ public class UnitsOfWork implements Serializable {
         StringBuilder sb = new StringBuilder("UnitsOfWork (");
 
         sb.append(uowSeqNumber);
-        sb.append(", ").append(uowId);
+        sb.append(", ").append("[binary...]");
         sb.append(", ").append(uowEvents);
-        sb.append(", ").append(cmdId);
+        sb.append(", ").append("[binary...]");
         sb.append(", ").append(cmdData);
         sb.append(", ").append(arName);
         sb.append(", ").append(arId);
@@ -28,7 +28,7 @@ import org.jooq.impl.UpdatableRecordImpl;
     comments = "This class is generated by jOOQ"
 )
 @SuppressWarnings({ "all", "unchecked", "rawtypes" })
-public class UnitsOfWorkRecord extends UpdatableRecordImpl<UnitsOfWorkRecord> implements Record9<Long, String, Object, String, Object, String, String, Long, Timestamp> {
+public class UnitsOfWorkRecord extends UpdatableRecordImpl<UnitsOfWorkRecord> implements Record9<Long, byte[], Object, byte[], Object, String, String, Long, Timestamp> {
 
     private static final long serialVersionUID = -273882549;
 
@@ -50,7 +50,7 @@ public class UnitsOfWorkRecord extends UpdatableRecordImpl<UnitsOfWorkRecord> im
     /**
      * Setter for <code>example1db.units_of_work.uow_id</code>.
      */
-    public UnitsOfWorkRecord setUowId(String value) {
+    public UnitsOfWorkRecord setUowId(byte[] value) {
         set(1, value);
         return this;
     }
@@ -58,8 +58,8 @@ public class UnitsOfWorkRecord extends UpdatableRecordImpl<UnitsOfWorkRecord> im
     /**
      * Getter for <code>example1db.units_of_work.uow_id</code>.
      */
-    public String getUowId() {
-        return (String) get(1);
+    public byte[] getUowId() {
+        return (byte[]) get(1);
     }
 
     /**
@@ -80,7 +80,7 @@ public class UnitsOfWorkRecord extends UpdatableRecordImpl<UnitsOfWorkRecord> im
     /**
      * Setter for <code>example1db.units_of_work.cmd_id</code>.
      */
-    public UnitsOfWorkRecord setCmdId(String value) {
+    public UnitsOfWorkRecord setCmdId(byte[] value) {
         set(3, value);
         return this;
     }
@@ -88,8 +88,8 @@ public class UnitsOfWorkRecord extends UpdatableRecordImpl<UnitsOfWorkRecord> im
     /**
      * Getter for <code>example1db.units_of_work.cmd_id</code>.
      */
-    public String getCmdId() {
-        return (String) get(3);
+    public byte[] getCmdId() {
+        return (byte[]) get(3);
     }
 
     /**
@@ -187,7 +187,7 @@ public class UnitsOfWorkRecord extends UpdatableRecordImpl<UnitsOfWorkRecord> im
      * {@inheritDoc}
      */
     @Override
-    public Row9<Long, String, Object, String, Object, String, String, Long, Timestamp> fieldsRow() {
+    public Row9<Long, byte[], Object, byte[], Object, String, String, Long, Timestamp> fieldsRow() {
         return (Row9) super.fieldsRow();
     }
 
@@ -195,7 +195,7 @@ public class UnitsOfWorkRecord extends UpdatableRecordImpl<UnitsOfWorkRecord> im
      * {@inheritDoc}
      */
     @Override
-    public Row9<Long, String, Object, String, Object, String, String, Long, Timestamp> valuesRow() {
+    public Row9<Long, byte[], Object, byte[], Object, String, String, Long, Timestamp> valuesRow() {
         return (Row9) super.valuesRow();
     }
 
@@ -211,7 +211,7 @@ public class UnitsOfWorkRecord extends UpdatableRecordImpl<UnitsOfWorkRecord> im
      * {@inheritDoc}
      */
     @Override
-    public Field<String> field2() {
+    public Field<byte[]> field2() {
         return UnitsOfWork.UNITS_OF_WORK.UOW_ID;
     }
 
@@ -227,7 +227,7 @@ public class UnitsOfWorkRecord extends UpdatableRecordImpl<UnitsOfWorkRecord> im
      * {@inheritDoc}
      */
     @Override
-    public Field<String> field4() {
+    public Field<byte[]> field4() {
         return UnitsOfWork.UNITS_OF_WORK.CMD_ID;
     }
 
@@ -283,7 +283,7 @@ public class UnitsOfWorkRecord extends UpdatableRecordImpl<UnitsOfWorkRecord> im
      * {@inheritDoc}
      */
     @Override
-    public String value2() {
+    public byte[] value2() {
         return getUowId();
     }
 
@@ -299,7 +299,7 @@ public class UnitsOfWorkRecord extends UpdatableRecordImpl<UnitsOfWorkRecord> im
      * {@inheritDoc}
      */
     @Override
-    public String value4() {
+    public byte[] value4() {
         return getCmdId();
     }
 
@@ -356,7 +356,7 @@ public class UnitsOfWorkRecord extends UpdatableRecordImpl<UnitsOfWorkRecord> im
      * {@inheritDoc}
      */
     @Override
-    public UnitsOfWorkRecord value2(String value) {
+    public UnitsOfWorkRecord value2(byte[] value) {
         setUowId(value);
         return this;
     }
@@ -374,7 +374,7 @@ public class UnitsOfWorkRecord extends UpdatableRecordImpl<UnitsOfWorkRecord> im
      * {@inheritDoc}
      */
     @Override
-    public UnitsOfWorkRecord value4(String value) {
+    public UnitsOfWorkRecord value4(byte[] value) {
         setCmdId(value);
         return this;
     }
@@ -428,7 +428,7 @@ public class UnitsOfWorkRecord extends UpdatableRecordImpl<UnitsOfWorkRecord> im
      * {@inheritDoc}
      */
     @Override
-    public UnitsOfWorkRecord values(Long value1, String value2, Object value3, String value4, Object value5, String value6, String value7, Long value8, Timestamp value9) {
+    public UnitsOfWorkRecord values(Long value1, byte[] value2, Object value3, byte[] value4, Object value5, String value6, String value7, Long value8, Timestamp value9) {
         value1(value1);
         value2(value2);
         value3(value3);
@@ -455,7 +455,7 @@ public class UnitsOfWorkRecord extends UpdatableRecordImpl<UnitsOfWorkRecord> im
     /**
      * Create a detached, initialised UnitsOfWorkRecord
      */
-    public UnitsOfWorkRecord(Long uowSeqNumber, String uowId, Object uowEvents, String cmdId, Object cmdData, String arName, String arId, Long version, Timestamp insertedOn) {
+    public UnitsOfWorkRecord(Long uowSeqNumber, byte[] uowId, Object uowEvents, byte[] cmdId, Object cmdData, String arName, String arId, Long version, Timestamp insertedOn) {
         super(UnitsOfWork.UNITS_OF_WORK);
 
         set(0, uowSeqNumber);
@@ -0,0 +1,19 @@
+
+DROP TABLE if exists uow_event_types ;
+
+-- one row per event type name of an unit of work, written on the same transaction of the unit of work itself
+CREATE TABLE uow_event_types (
+      event_type VARCHAR(64) NOT NULL,
+      uow_seq_number BIGINT NOT NULL,
+      PRIMARY KEY (event_type, uow_seq_number)
+    )
+    ;
+
+-- units of work appended before this migration
+INSERT INTO uow_event_types (event_type, uow_seq_number)
+  WITH RECURSIVE idx (n) AS (SELECT 0 UNION ALL SELECT n + 1 FROM idx WHERE n < 255)
+  SELECT DISTINCT SUBSTRING_INDEX(JSON_UNQUOTE(JSON_EXTRACT(u.uow_events, CONCAT('$[', idx.n, ']."@class"'))), '.', -1),
+         u.uow_seq_number
+    FROM units_of_work u JOIN idx ON idx.n < JSON_LENGTH(u.uow_events)
+   WHERE JSON_EXTRACT(u.uow_events, CONCAT('$[', idx.n, ']."@class"')) IS NOT NULL
+    ;
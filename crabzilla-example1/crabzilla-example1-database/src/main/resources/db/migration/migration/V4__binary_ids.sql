@@ -0,0 +1,19 @@
+
+-- uow_id and cmd_id are always UUIDs: 16 bytes instead of 36 chars on every index having them
+-- ar_id stays as text: its values are whatever the EntityId of each aggregate root has, so it keeps one encoding and
+-- is compared as text, not byte by byte
+
+ALTER TABLE units_of_work
+  MODIFY uow_id VARBINARY(36) NOT NULL,
+  MODIFY cmd_id VARBINARY(36) NOT NULL
+  ;
+
+UPDATE units_of_work
+   SET uow_id = UNHEX(REPLACE(uow_id, '-', '')),
+       cmd_id = UNHEX(REPLACE(cmd_id, '-', ''))
+  ;
+
+ALTER TABLE units_of_work
+  MODIFY uow_id BINARY(16) NOT NULL,
+  MODIFY cmd_id BINARY(16) NOT NULL
+  ;
@@ -0,0 +1,7 @@
+
+-- aggregate loads (ar_name = ? and ar_id = ? and version > ? order by version) and the version check on append
+-- (max(version)) become a range scan in index order and an index only lookup. It makes idx_ar_id redundant
+
+CREATE INDEX idx_uow_ar ON units_of_work (ar_name, ar_id, version);
+
+DROP INDEX idx_ar_id ON units_of_work;
@@ -0,0 +1,41 @@
+
+-- optional, not a migration: units_of_work range partitioned on uow_seq_number instead of PARTITION BY KEY(ar_name),
+-- so the oldest partition can be moved to a segment file by crabzilla.vertx.repositories.UnitOfWorkArchiver and then
+-- dropped, keeping the live table and its buffer pool small.
+-- MySQL wants the partitioning column on every unique key: (uow_id, ar_name) and (cmd_id, ar_name) become plain
+-- indexes. uow_id is generated, but nothing in the database rejects a command sent twice anymore: the version check
+-- doesn't, since a resent command is handled again against the latest version. So this layout needs the command
+-- handlers on CommandHandlerOptions.idempotentCommands = true, which looks cmd_id up before handling a command, with
+-- commandIdFilterExpectedInsertions = 0: a negative of the command id filter skips that lookup and counts on the
+-- unique key to reject a copy appended by another instance or before a rotation. Even then two copies of a command
+-- racing each other may both be appended.
+
+ALTER TABLE units_of_work REMOVE PARTITIONING;
+
+ALTER TABLE units_of_work
+  DROP INDEX uow_id,
+  DROP INDEX cmd_id,
+  ADD INDEX idx_uow_id (uow_id),
+  ADD INDEX idx_cmd_id (cmd_id)
+  ;
+
+ALTER TABLE units_of_work
+  PARTITION BY RANGE (uow_seq_number) (
+    PARTITION p0 VALUES LESS THAN (1000000),
+    PARTITION p_live VALUES LESS THAN MAXVALUE
+  );
+
+-- the next range is split off p_live before it is reached:
+--
+-- ALTER TABLE units_of_work REORGANIZE PARTITION p_live INTO (
+--   PARTITION p1 VALUES LESS THAN (2000000),
+--   PARTITION p_live VALUES LESS THAN MAXVALUE
+-- );
+--
+-- ranges by insertion time need inserted_on on the primary key first:
+--
+-- ALTER TABLE units_of_work DROP PRIMARY KEY, ADD PRIMARY KEY (uow_seq_number, inserted_on);
+-- ALTER TABLE units_of_work PARTITION BY RANGE (UNIX_TIMESTAMP(inserted_on)) (...);
+--
+-- but the archive must still get whole uow_seq_number ranges, oldest first, which only holds while
+-- uow_seq_number and inserted_on grow together.
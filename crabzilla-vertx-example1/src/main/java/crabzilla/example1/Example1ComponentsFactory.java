@@ -3,6 +3,7 @@ package crabzilla.example1;
 import crabzilla.vertx.EventProjector;
 import crabzilla.vertx.ProjectionData;
 import crabzilla.vertx.VertxBoundedContextComponentsFactory;
+import crabzilla.vertx.repositories.UnitOfWorkHotTail;
 import crabzilla.vertx.repositories.VertxProjectionRepository;
 import io.vertx.ext.jdbc.JDBCClient;
 import org.jooq.Configuration;
@@ -15,11 +16,13 @@ class Example1ComponentsFactory implements VertxBoundedContextComponentsFactory
 
   private final Configuration jooq;
   private final JDBCClient jdbcClient;
+  private final UnitOfWorkHotTail hotTail;
 
   @Inject
-  public Example1ComponentsFactory(Configuration jooq, JDBCClient jdbcClient) {
+  public Example1ComponentsFactory(Configuration jooq, JDBCClient jdbcClient, UnitOfWorkHotTail hotTail) {
     this.jooq = jooq;
     this.jdbcClient = jdbcClient;
+    this.hotTail = hotTail;
   }
 
   @Override
@@ -29,7 +32,7 @@ class Example1ComponentsFactory implements VertxBoundedContextComponentsFactory
 
   @Override
   public BiFunction<Long, Integer, List<ProjectionData>> projectionRepository() {
-    return new VertxProjectionRepository(jdbcClient);
+    return new VertxProjectionRepository(jdbcClient, hotTail);
   }
 
 }
@@ -1,18 +1,25 @@
 package crabzilla.example1;
 
 import com.google.inject.Guice;
+import com.google.inject.Provider;
+import com.typesafe.config.ConfigFactory;
 import crabzilla.example1.aggregates.customer.Customer;
 import crabzilla.example1.aggregates.customer.CustomerId;
 import crabzilla.example1.aggregates.customer.commands.ActivateCustomerCmd;
 import crabzilla.example1.aggregates.customer.commands.CreateCustomerCmd;
+import crabzilla.model.TimeOrderedIdGenerator;
 import crabzilla.vertx.CommandExecution;
-import crabzilla.vertx.verticles.EventsProjectionVerticle;
+import crabzilla.vertx.CrabzillaVerticleFactory;
+import crabzilla.vertx.verticles.CommandRestVerticle;
+import crabzilla.vertx.verticles.EventsTailerVerticle;
 import io.vertx.core.AsyncResult;
+import io.vertx.core.DeploymentOptions;
 import io.vertx.core.Verticle;
 import io.vertx.core.Vertx;
 import io.vertx.core.VertxOptions;
 import io.vertx.core.eventbus.DeliveryOptions;
 import io.vertx.core.eventbus.EventBus;
+import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.LoggerFactory;
 import io.vertx.core.logging.SLF4JLogDelegateFactory;
 import io.vertx.spi.cluster.hazelcast.HazelcastClusterManager;
@@ -21,8 +28,8 @@ import lombok.val;
 
 import javax.inject.Inject;
 import java.util.Map;
-import java.util.UUID;
 
+import static crabzilla.vertx.CrabzillaVerticleFactory.verticleName;
 import static crabzilla.vertx.util.StringHelper.commandHandlerId;
 import static io.vertx.core.logging.LoggerFactory.LOGGER_DELEGATE_FACTORY_CLASS_NAME;
 import static java.lang.System.setProperty;
@@ -30,11 +37,12 @@ import static java.lang.System.setProperty;
 @Slf4j
 public class Example1Launcher {
 
+  // a provider per verticle name, so each name can be deployed on many instances
   @Inject
-  Map<String, Verticle> aggregateRootVerticles;
+  Map<String, Provider<Verticle>> aggregateRootVerticles;
 
   @Inject
-  EventsProjectionVerticle projectionVerticle;
+  EventsTailerVerticle tailerVerticle;
 
   @Inject
   Vertx vertx;
@@ -58,11 +66,25 @@ public class Example1Launcher {
 
         Guice.createInjector(new Example1Module(vertx)).injectMembers(launcher);
 
-        for (Map.Entry<String,Verticle> v: launcher.aggregateRootVerticles.entrySet()) {
-          launcher.vertx.deployVerticle(v.getValue(), event -> log.info("Deployed {} ? {}", v.getKey(), event.succeeded()));
+        val config = ConfigFactory.load();
+        val factory = new CrabzillaVerticleFactory();
+        launcher.aggregateRootVerticles.forEach((name, provider) -> factory.register(name, provider::get));
+        launcher.vertx.registerVerticleFactory(factory);
+
+        // example1.<name>.instances verticles of each name, all of them sharing the http port
+        val deploymentConfig = new JsonObject().put(CommandRestVerticle.HTTP_PORT, config.getInt("example1.http.port"))
+                .put(CommandRestVerticle.COMMAND_TIMEOUT_MS, config.getLong("example1.command.timeout.ms"));
+        for (String name : launcher.aggregateRootVerticles.keySet()) {
+          val instancesPath = "example1." + name + ".instances";
+          val deploymentOptions = new DeploymentOptions().setConfig(deploymentConfig)
+                  .setInstances(config.hasPath(instancesPath) ? config.getInt(instancesPath) : 1);
+          launcher.vertx.deployVerticle(verticleName(name), deploymentOptions,
+                  event -> log.info("Deployed {} x {} ? {}", name, deploymentOptions.getInstances(), event.succeeded()));
         }
 
-        launcher.vertx.deployVerticle(launcher.projectionVerticle, event -> log.info("Deployed ? {}", event.succeeded()));
+        // projections of this node are fed by a single tailer, reading units of work from the database: no relay
+        // (EventsRelayVerticle) is deployed, since nothing here consumes its batches
+        launcher.vertx.deployVerticle(launcher.tailerVerticle, event -> log.info("Deployed tailer ? {}", event.succeeded()));
 
         // a test
         launcher.justForTest();
@@ -76,9 +98,11 @@ public class Example1Launcher {
 
   private void justForTest() {
 
-    val customerId = new CustomerId(UUID.randomUUID().toString());
+    // time ordered ids keep the unique indexes on units_of_work appending on their last pages
+    val ids = TimeOrderedIdGenerator.instance();
+    val customerId = new CustomerId(ids.nextId().toString());
 //    val customerId = new CustomerId("customer123");
-    val createCustomerCmd = new CreateCustomerCmd(UUID.randomUUID(), customerId, "a good customer");
+    val createCustomerCmd = new CreateCustomerCmd(ids.nextId(), customerId, "a good customer");
     val options = new DeliveryOptions().setCodecName("Command");
 
     // create customer command
@@ -90,7 +114,7 @@ public class Example1Launcher {
 
         log.info("Result: {}", asyncResult.result().body());
 
-        val activateCustomerCmd = new ActivateCustomerCmd(UUID.randomUUID(), createCustomerCmd.getTargetId(), "because I want it");
+        val activateCustomerCmd = new ActivateCustomerCmd(ids.nextId(), createCustomerCmd.getTargetId(), "because I want it");
 
         // activate customer command
         vertx.eventBus().<CommandExecution>send(commandHandlerId(Customer.class), activateCustomerCmd, options, asyncResult2 -> {
@@ -21,7 +21,13 @@ import crabzilla.model.Event;
 import crabzilla.model.UnitOfWork;
 import crabzilla.vertx.CommandExecution;
 import crabzilla.vertx.EventProjector;
+import crabzilla.vertx.ProjectionBatch;
 import crabzilla.vertx.codecs.JacksonGenericCodec;
+import crabzilla.vertx.repositories.VertxEventsChannelRepository;
+import crabzilla.vertx.repositories.UnitOfWorkHotTail;
+import crabzilla.vertx.repositories.VertxProjectionRepository;
+import crabzilla.vertx.util.PollingBackoff;
+import crabzilla.vertx.verticles.EventsTailerVerticle;
 import io.vertx.circuitbreaker.CircuitBreaker;
 import io.vertx.circuitbreaker.CircuitBreakerOptions;
 import io.vertx.core.Vertx;
@@ -87,6 +93,28 @@ class Example1Module extends AbstractModule {
     return f.eventsProjector() ;
   }
 
+  @Provides
+  @Singleton
+  UnitOfWorkHotTail hotTail(@Named("uow.hot.tail.max.entries") Integer maxEntries,
+                            @Named("uow.hot.tail.max.bytes") Long maxBytes) {
+    return new UnitOfWorkHotTail(maxEntries, maxBytes);
+  }
+
+  @Provides
+  @Singleton
+  EventsTailerVerticle eventsTailer(Vertx vertx, JDBCClient jdbcClient, UnitOfWorkHotTail hotTail,
+                                    EventProjector eventProjector,
+                                    @Named("events.max.db.rows") Integer maxRows,
+                                    @Named("events.backoff.idle.threshold") Integer idleThresholdMs,
+                                    @Named("events.backoff.max.interval.ms") Integer maxIntervalMs,
+                                    @Named("events.backoff.multiplier") Integer multiplier,
+                                    @Named("events.gap.timeout.ms") Long gapTimeoutMs) {
+    return new EventsTailerVerticle(vertx,
+            new VertxProjectionRepository(jdbcClient, hotTail), new VertxEventsChannelRepository(jdbcClient),
+            maxRows, new PollingBackoff(idleThresholdMs, maxIntervalMs, multiplier), gapTimeoutMs)
+            .register(eventProjector);
+  }
+
   @Provides
   @Singleton
   Vertx vertx(ObjectMapper mapper) {
@@ -106,6 +134,9 @@ class Example1Module extends AbstractModule {
     vertx.eventBus().registerDefaultCodec(UnitOfWork.class,
             new JacksonGenericCodec<>(mapper, UnitOfWork.class));
 
+    vertx.eventBus().registerDefaultCodec(ProjectionBatch.class,
+            new JacksonGenericCodec<>(mapper, ProjectionBatch.class));
+
     return vertx;
   }
 
@@ -6,7 +6,9 @@ import crabzilla.example1.aggregates.customer.*;
 import crabzilla.example1.services.SampleService;
 import crabzilla.model.*;
 import crabzilla.vertx.VertxAggregateRootComponentsFactory;
+import crabzilla.vertx.repositories.UnitOfWorkHotTail;
 import crabzilla.vertx.repositories.VertxUnitOfWorkRepository;
+import crabzilla.vertx.verticles.CommandHandlerOptions;
 import crabzilla.vertx.verticles.CommandHandlerVerticle;
 import crabzilla.vertx.verticles.CommandRestVerticle;
 import io.vertx.circuitbreaker.CircuitBreaker;
@@ -27,15 +29,29 @@ import static crabzilla.vertx.util.StringHelper.circuitBreakerId;
 
 public class CustomerFactory implements VertxAggregateRootComponentsFactory<Customer> {
 
+  // customers are split among the cluster nodes: each one caches and handles only the ones it owns
+  static final int PARTITIONS = 271;
+
   private final SampleService service;
   private final Vertx vertx;
   private final JDBCClient jdbcClient;
+  private final UnitOfWorkHotTail hotTail;
+
+  // shared by every handler instance deployed on this node: both are thread safe
+  private final LoadingCache<String, Snapshot<Customer>> cache;
+  private final VertxUnitOfWorkRepository uowRepository;
 
   @Inject
-  public CustomerFactory(SampleService service, Vertx vertx, JDBCClient jdbcClient) {
+  public CustomerFactory(SampleService service, Vertx vertx, JDBCClient jdbcClient, UnitOfWorkHotTail hotTail) {
     this.service = service;
     this.vertx = vertx;
     this.jdbcClient = jdbcClient;
+    this.hotTail = hotTail;
+    this.cache = Caffeine.newBuilder()
+            .maximumSize(10_000)
+            .expireAfterWrite(5, TimeUnit.MINUTES)
+            .build(key -> null); // TODO you can plug your snapshot here!
+    this.uowRepository = new VertxUnitOfWorkRepository(Customer.class, jdbcClient, hotTail);
   }
 
   @Override
@@ -64,19 +80,20 @@ public class CustomerFactory implements VertxAggregateRootComponentsFactory<Cust
     return new Snapshotter<>(supplierFn(), instance -> new StateTransitionsTracker<>(instance, stateTransitionFn(), depInjectionFn()));
   }
 
+  // customer handlers are pure functions: SampleService only reads the clock and makes ids
+  @Override
+  public boolean cmdHandlerNonBlocking() {
+    return true;
+  }
+
   @Override
   public CommandRestVerticle<Customer> restVerticle() {
-    return new CommandRestVerticle<>(vertx, Customer.class);
+    return new CommandRestVerticle<>(vertx, Customer.class, PARTITIONS);
   }
 
   @Override
   public CommandHandlerVerticle<Customer> cmdHandlerVerticle() {
 
-    final LoadingCache<String, Snapshot<Customer>> cache = Caffeine.newBuilder()
-            .maximumSize(10_000)
-            .expireAfterWrite(5, TimeUnit.MINUTES)
-            .build(key -> null); // TODO you can plug your snapshot here!
-
     val circuitBreaker = CircuitBreaker.create(circuitBreakerId(Customer.class), vertx,
             new CircuitBreakerOptions()
                     .setMaxFailures(5) // number SUCCESS failure before opening the circuit
@@ -85,13 +102,20 @@ public class CustomerFactory implements VertxAggregateRootComponentsFactory<Cust
                     .setResetTimeout(10000) // time spent in open state before attempting to re-try
     );
 
+    // slim replies: projections read units of work from the database (EventsTailerVerticle)
+    // client retries of a command already appended get its uowSequence back
+    // on spikes, commands beyond what keeps the latency under 200 ms are replied OVERLOADED (503) right away
+    val options = new CommandHandlerOptions().setReplyWithUnitOfWork(false).setIdempotentCommands(true)
+            .setPartitions(PARTITIONS).setCmdHandlerNonBlocking(cmdHandlerNonBlocking())
+            .setConcurrencyLimit(100);
+
     return new CommandHandlerVerticle<>(Customer.class, cmdHandlerFn(),
-            cmdValidatorFn(), snapshotter(), uowRepository(), cache, vertx, circuitBreaker);
+            cmdValidatorFn(), snapshotter(), uowRepository(), cache, vertx, circuitBreaker, options);
   }
 
   @Override
   public VertxUnitOfWorkRepository uowRepository() {
-    return new VertxUnitOfWorkRepository(Customer.class, jdbcClient);
+    return uowRepository;
   }
 
 }
@@ -2,7 +2,6 @@ package crabzilla.example1.aggregates;
 
 import com.google.inject.AbstractModule;
 import com.google.inject.Provides;
-import com.google.inject.Singleton;
 import com.google.inject.TypeLiteral;
 import com.google.inject.multibindings.MapBinder;
 import crabzilla.example1.aggregates.customer.Customer;
@@ -29,14 +28,13 @@ public class CustomerModule extends AbstractModule {
 
   }
 
+  // not singletons: each instance deployed gets its own verticle
   @Provides
-  @Singleton
   CommandRestVerticle<Customer> restVerticle(CustomerFactory componentsFactory) {
     return componentsFactory.restVerticle();
   }
 
   @Provides
-  @Singleton
   CommandHandlerVerticle<Customer> handler(CustomerFactory componentsFactory) {
     return componentsFactory.cmdHandlerVerticle();
   }
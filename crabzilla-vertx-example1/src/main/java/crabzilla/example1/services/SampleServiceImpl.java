@@ -1,12 +1,14 @@
 package crabzilla.example1.services;
 
+import crabzilla.model.TimeOrderedIdGenerator;
+
 import java.time.Instant;
 import java.util.UUID;
 
 public class SampleServiceImpl implements SampleService {
 
   public UUID uuid() {
-    return UUID.randomUUID();
+    return TimeOrderedIdGenerator.instance().nextId();
   }
 
   public Instant now() {
@@ -27,7 +27,10 @@ public class CommandExecution implements Serializable {
     CONCURRENCY_ERROR,
     UNKNOWN_COMMAND,
     SUCCESS,
-    COMMAND_ALREADY_PROCESSED // TODO
+    COMMAND_ALREADY_PROCESSED,
+    OVERLOADED,
+    RATE_LIMITED,
+    EXPIRED
   }
 
   RESULT result;
@@ -51,11 +54,12 @@ public class CommandExecution implements Serializable {
   }
 
   public Optional<Long> getUowSequence() {
-    return SUCCESS.equals(result) ? Optional.of(uowSequence) : Optional.empty();
+    return SUCCESS.equals(result) || COMMAND_ALREADY_PROCESSED.equals(result) ?
+            Optional.of(uowSequence) : Optional.empty();
   }
 
   public Optional<UnitOfWork> getUnitOfWork() {
-    return SUCCESS.equals(result) ? Optional.of(unitOfWork) : Optional.empty();
+    return SUCCESS.equals(result) ? Optional.ofNullable(unitOfWork) : Optional.empty();
   }
 
   public static CommandExecution VALIDATION_ERROR(@NonNull List<String> constraints) {
@@ -86,4 +90,28 @@ public class CommandExecution implements Serializable {
   public static CommandExecution SUCCESS(@NonNull UnitOfWork uow, @NonNull Long uowSequence) {
     return new CommandExecution(SUCCESS, uow.getCommand().getCommandId(), emptyList(), uowSequence, uow);
   }
+
+  public static CommandExecution SUCCESS(@NonNull UUID commandId, @NonNull Long uowSequence) {
+    return new CommandExecution(SUCCESS, commandId, emptyList(), uowSequence, null);
+  }
+
+  // the uowSequence its first execution got
+  public static CommandExecution COMMAND_ALREADY_PROCESSED(@NonNull UUID commandId, @NonNull Long uowSequence) {
+    return new CommandExecution(COMMAND_ALREADY_PROCESSED, commandId, emptyList(), uowSequence, null);
+  }
+
+  // shed before being handled: it can be sent again later
+  public static CommandExecution OVERLOADED(@NonNull UUID commandId) {
+    return new CommandExecution(OVERLOADED, commandId, emptyList(), 0L, null);
+  }
+
+  // over the rate of its bucket: it can be sent again later
+  public static CommandExecution RATE_LIMITED(@NonNull UUID commandId) {
+    return new CommandExecution(RATE_LIMITED, commandId, emptyList(), 0L, null);
+  }
+
+  // dropped, not appended, as its deadline passed: its sender had already given up
+  public static CommandExecution EXPIRED(@NonNull UUID commandId) {
+    return new CommandExecution(EXPIRED, commandId, emptyList(), 0L, null);
+  }
 }
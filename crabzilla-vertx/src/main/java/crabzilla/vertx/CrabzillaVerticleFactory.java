@@ -0,0 +1,46 @@
+package crabzilla.vertx;
+
+import io.vertx.core.Verticle;
+import io.vertx.core.spi.VerticleFactory;
+import lombok.NonNull;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+// what: lets verticles built by the aggregate root factories be deployed by name, so DeploymentOptions.setInstances(n)
+// can deploy n of them: vertx.deployVerticle("crabzilla:customer.handler", new DeploymentOptions().setInstances(4))
+// how: a supplier per name, called once per instance. Whatever the instances share (snapshot cache, repositories)
+// is up to the supplier and must be thread safe, as each instance runs on its own event loop
+
+public class CrabzillaVerticleFactory implements VerticleFactory {
+
+  public static final String PREFIX = "crabzilla";
+
+  private final Map<String, Supplier<? extends Verticle>> suppliers = new ConcurrentHashMap<>();
+
+  public CrabzillaVerticleFactory register(@NonNull String name, @NonNull Supplier<? extends Verticle> supplier) {
+    suppliers.put(name, supplier);
+    return this;
+  }
+
+  public static String verticleName(@NonNull String name) {
+    return PREFIX + ":" + name;
+  }
+
+  @Override
+  public String prefix() {
+    return PREFIX;
+  }
+
+  @Override
+  public Verticle createVerticle(String verticleName, ClassLoader classLoader) throws Exception {
+    final String name = VerticleFactory.removePrefix(verticleName);
+    final Supplier<? extends Verticle> supplier = suppliers.get(name);
+    if (supplier == null) {
+      throw new IllegalArgumentException("no verticle registered as " + name + ": " + suppliers.keySet());
+    }
+    return supplier.get();
+  }
+
+}
@@ -1,6 +1,8 @@
 package crabzilla.vertx;
 
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 
 public interface EventProjector {
 
@@ -10,4 +12,9 @@ public interface EventProjector {
 
   void handle(List<ProjectionData> uowList);
 
+  // simple class names of the events it cares about: units of work without any of them are not read. Empty means all
+  default Set<String> getEventTypes() {
+    return Collections.emptySet();
+  }
+
 }
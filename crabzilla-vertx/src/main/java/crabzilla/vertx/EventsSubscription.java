@@ -0,0 +1,260 @@
+package crabzilla.vertx;
+
+import crabzilla.model.UnitOfWork;
+import crabzilla.vertx.repositories.GapAwareProjectionReader;
+import crabzilla.vertx.repositories.VertxProjectionRepository;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.json.JsonObject;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+import static crabzilla.vertx.util.StringHelper.eventsBatchPublishedId;
+import static crabzilla.vertx.util.StringHelper.eventsHandlerId;
+import static java.util.Collections.singletonList;
+
+// what: "all units of work after sequence N, then keep streaming the new ones" for projections, sagas and exporters
+// how: live consumers are registered before the catch-up read, so nothing published meanwhile is lost: it waits on
+// a pending buffer, drained once the database has nothing more. From then on database rows and live ones go through
+// the same GapAwareProjectionReader: de-duplicated by uow_seq_number, delivered in order and a gap is read again from
+// the database until it is filled or expires.
+// Must be started from a Vert.x context: handlers are always called on it.
+
+@Slf4j
+public class EventsSubscription {
+
+  static final long GAP_RETRY_MS = 50;
+
+  final Vertx vertx;
+  final String eventsChannelId;
+  final VertxProjectionRepository projectionRepository;
+  final int maxRows;
+  final long gapTimeoutMs;
+  final long idlePollMs;
+  final int maxPending;
+
+  final TreeMap<Long, ProjectionData> pending = new TreeMap<>();
+
+  Handler<List<ProjectionData>> handler;
+  Handler<Throwable> exceptionHandler = t -> log.error("subscription failed", t);
+
+  GapAwareProjectionReader reader;
+  MessageConsumer<UnitOfWork> uowConsumer;
+  MessageConsumer<ProjectionBatch> batchConsumer;
+  Future<Void> startFuture;
+
+  boolean live;
+  boolean reading;
+  boolean closed;
+  long timerId = -1;
+
+  long delivered;
+  long dbReads;
+
+  // idlePollMs = 0 means the subscription only reads the database when it is catching up or filling a gap
+  public EventsSubscription(@NonNull Vertx vertx, @NonNull String eventsChannelId,
+                            @NonNull VertxProjectionRepository projectionRepository,
+                            int maxRows, long gapTimeoutMs, long idlePollMs) {
+    this.vertx = vertx;
+    this.eventsChannelId = eventsChannelId;
+    this.projectionRepository = projectionRepository;
+    this.maxRows = maxRows;
+    this.gapTimeoutMs = gapTimeoutMs;
+    this.idlePollMs = idlePollMs;
+    this.maxPending = maxRows * 10;
+  }
+
+  public EventsSubscription handler(@NonNull Handler<List<ProjectionData>> handler) {
+    this.handler = handler;
+    return this;
+  }
+
+  public EventsSubscription exceptionHandler(@NonNull Handler<Throwable> exceptionHandler) {
+    this.exceptionHandler = exceptionHandler;
+    return this;
+  }
+
+  // completes once the catch-up is done and the subscription is live
+  public void start(@NonNull Long afterUowSequence, @NonNull Future<Void> startFuture) {
+
+    if (handler == null) {
+      throw new IllegalStateException("a handler must be set before starting the subscription");
+    }
+
+    this.reader = new GapAwareProjectionReader(projectionRepository, afterUowSequence, maxRows, gapTimeoutMs);
+    this.startFuture = startFuture;
+
+    uowConsumer = vertx.eventBus().consumer(eventsHandlerId(eventsChannelId), this::onUnitOfWork);
+    batchConsumer = vertx.eventBus().consumer(eventsBatchPublishedId(eventsChannelId), this::onBatch);
+
+    log.info("subscription to channel {} catching up after uowSequence {}", eventsChannelId, afterUowSequence);
+
+    read();
+
+  }
+
+  public void close() {
+    closed = true;
+    vertx.cancelTimer(timerId);
+    if (uowConsumer != null) uowConsumer.unregister();
+    if (batchConsumer != null) batchConsumer.unregister();
+    pending.clear();
+  }
+
+  // every unit of work up to it was delivered (or expired as a gap)
+  public long lastUowSequence() {
+    return reader == null ? 0L : reader.checkpoint();
+  }
+
+  public boolean isLive() {
+    return live;
+  }
+
+  public JsonObject metrics() {
+    return new JsonObject()
+            .put("lastUowSequence", lastUowSequence())
+            .put("live", live)
+            .put("pending", pending.size())
+            .put("delivered", delivered)
+            .put("dbReads", dbReads)
+            .put("gaps", reader == null ? new JsonObject() : reader.metrics());
+  }
+
+  void onUnitOfWork(Message<UnitOfWork> msg) {
+    val uowSequence = msg.headers().get("uowSequence");
+    if (uowSequence == null) {
+      // can't be ordered, so just take it as a hint that there is something new on the database
+      if (live) read();
+      return;
+    }
+    val uow = msg.body();
+    onLive(new ProjectionData(uow.getUnitOfWorkId().toString(), Long.valueOf(uowSequence),
+            uow.targetId().getStringValue(), uow.getEvents()));
+  }
+
+  void onBatch(Message<ProjectionBatch> msg) {
+    msg.body().getProjectionData().forEach(this::onLive);
+  }
+
+  void onLive(ProjectionData projectionData) {
+
+    if (closed) {
+      return;
+    }
+
+    if (!live) {
+      if (pending.size() >= maxPending) {
+        // too far behind to keep buffering: the database will give us all of them anyway
+        log.warn("subscription to channel {} dropping {} pending units of work", eventsChannelId, pending.size());
+        pending.clear();
+      }
+      pending.putIfAbsent(projectionData.getUowSequence(), projectionData);
+      return;
+    }
+
+    if (projectionData.getUowSequence() > reader.highestSeen() + maxRows) {
+      // too far ahead: better read what is in between from the database
+      read();
+      return;
+    }
+
+    deliver(reader.offer(singletonList(projectionData)));
+
+    if (reader.hasOpenGaps()) {
+      read();
+    }
+
+  }
+
+  void read() {
+
+    if (closed || reading) {
+      return;
+    }
+
+    vertx.cancelTimer(timerId);
+
+    reading = true;
+    dbReads++;
+
+    Future<List<ProjectionData>> readFuture = Future.future();
+
+    reader.read(readFuture);
+
+    readFuture.setHandler(readAsyncResult -> {
+
+      reading = false;
+
+      if (closed) {
+        return;
+      }
+
+      if (readAsyncResult.failed()) {
+        if (!live) {
+          close();
+          startFuture.fail(readAsyncResult.cause());
+          return;
+        }
+        exceptionHandler.handle(readAsyncResult.cause());
+        schedule(GAP_RETRY_MS);
+        return;
+      }
+
+      deliver(readAsyncResult.result());
+
+      if (reader.lastReadWasFull()) {
+        read();
+        return;
+      }
+
+      if (!live) {
+        live = true;
+        log.info("subscription to channel {} is live after uowSequence {}", eventsChannelId, reader.checkpoint());
+        startFuture.complete();
+        deliver(reader.offer(new ArrayList<>(pending.values())));
+        pending.clear();
+      }
+
+      if (reader.hasOpenGaps()) {
+        schedule(GAP_RETRY_MS);
+      } else if (idlePollMs > 0) {
+        schedule(idlePollMs);
+      }
+
+    });
+
+  }
+
+  void deliver(List<ProjectionData> uowList) {
+
+    if (uowList.isEmpty()) {
+      return;
+    }
+
+    delivered += uowList.size();
+
+    try {
+      handler.handle(uowList);
+    } catch (Exception e) {
+      exceptionHandler.handle(e);
+    }
+
+  }
+
+  void schedule(long delayMs) {
+    if (closed) {
+      return;
+    }
+    vertx.cancelTimer(timerId);
+    timerId = vertx.setTimer(delayMs, id -> read());
+  }
+
+}
@@ -0,0 +1,17 @@
+package crabzilla.vertx;
+
+import lombok.Value;
+
+import java.io.Serializable;
+import java.util.List;
+
+@Value
+public class ProjectionBatch implements Serializable {
+
+  List<ProjectionData> projectionData;
+
+  public Long lastUowSequence() {
+    return projectionData.isEmpty() ? null : projectionData.get(projectionData.size() - 1).getUowSequence();
+  }
+
+}
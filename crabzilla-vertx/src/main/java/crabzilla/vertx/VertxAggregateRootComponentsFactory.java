@@ -2,7 +2,7 @@ package crabzilla.vertx;
 
 import crabzilla.model.AggregateRoot;
 import crabzilla.stack.AggregateRootFunctionsFactory;
-import crabzilla.vertx.repositories.VertxUnitOfWorkRepository;
+import crabzilla.vertx.repositories.UnitOfWorkRepository;
 import crabzilla.vertx.verticles.CommandHandlerVerticle;
 import crabzilla.vertx.verticles.CommandRestVerticle;
 
@@ -14,6 +14,12 @@ public interface VertxAggregateRootComponentsFactory<A extends AggregateRoot>
 
   CommandHandlerVerticle<A> cmdHandlerVerticle();
 
-  VertxUnitOfWorkRepository uowRepository();
+  UnitOfWorkRepository uowRepository();
+
+  // true when the command handler never blocks (pure functions, no I/O): it then runs right on the event loop,
+  // saving the hop to a worker and back (see CommandHandlerOptions.cmdHandlerNonBlocking)
+  default boolean cmdHandlerNonBlocking() {
+    return false;
+  }
 
 }
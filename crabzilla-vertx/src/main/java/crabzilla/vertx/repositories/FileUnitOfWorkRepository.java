@@ -0,0 +1,590 @@
+package crabzilla.vertx.repositories;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import crabzilla.model.*;
+import crabzilla.vertx.util.DbConcurrencyException;
+import crabzilla.vertx.util.DuplicateCommandException;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonObject;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+// what: an embedded, append only store of units of work on local files, for edge deployments and for benchmarks
+// without MySQL, behind the same UnitOfWorkRepository contract as VertxUnitOfWorkRepository
+// how: records go to fixed size segment files, preallocated and memory mapped. Each record points back to the previous
+// one of its aggregate, so an off-heap index from ar_id to the latest record is all it takes to walk its history;
+// two more go from uow_id and from the command id to its record. A single writer thread appends, checks versions and fsyncs: whatever was
+// appended while a sync was running goes on the next one (group commit) and futures are completed on the caller
+// context only once their records are durable. Readers don't see records not synced yet.
+// On open the segments are scanned to rebuild both indexes, and a torn tail (bad length or crc) is zeroed.
+// record: length, crc32, uow_seq_number, version, previous position of its aggregate, uow_id, ar_id, command, events
+// position: segment << 32 | offset. A zero length ends a segment
+
+@Slf4j
+public class FileUnitOfWorkRepository implements UnitOfWorkRepository {
+
+  public static final int DEFAULT_SEGMENT_BYTES = 64 * 1024 * 1024;
+
+  static final String SUFFIX = ".log";
+  static final int HEADER_BYTES = 4 + 4 + 8 + 8 + 8 + 8 + 8 + 2;
+
+  private final Vertx vertx;
+  private final Path directory;
+  private final int segmentBytes;
+
+  private final TypeReference<List<Event>> eventsListTpe =  new TypeReference<List<Event>>() {};
+
+  private final ExecutorService writer;
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+  // guarded by lock
+  private final List<MappedByteBuffer> segments = new ArrayList<>();
+  private final OffHeapHashIndex byAggregate = new OffHeapHashIndex(1024);
+  private final OffHeapHashIndex byUowId = new OffHeapHashIndex(1024);
+  private final OffHeapHashIndex byCommandId = new OffHeapHashIndex(1024);
+
+  // writer thread only
+  private long nextUowSequence = 1;
+  private int writeSegment;
+  private int writeOffset;
+  private long lastWritten = -1;
+  private boolean syncQueued;
+  private List<Pending> pending = new ArrayList<>();
+  private final Set<Integer> dirtySegments = new HashSet<>();
+
+  private volatile long durableUpTo = -1;
+  private volatile boolean closed;
+  // records written after durableUpTo are indexed already and may or may not be on disk: after a failed sync nothing
+  // more is appended, until the store is opened again and its segments scanned
+  private volatile Exception syncFailure;
+
+  private final AtomicLong appends = new AtomicLong();
+  private final AtomicLong syncs = new AtomicLong();
+
+  private FileUnitOfWorkRepository(Vertx vertx, Path directory, int segmentBytes) {
+    this.vertx = vertx;
+    this.directory = directory;
+    this.segmentBytes = segmentBytes;
+    this.writer = Executors.newSingleThreadExecutor(runnable -> {
+      final Thread thread = new Thread(runnable, "uow-file-writer-" + directory.getFileName());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  // blocking: scans what is already there. Each aggregate root gets its own sub directory
+  public static FileUnitOfWorkRepository open(@NonNull Class<? extends AggregateRoot> aggregateRootClass,
+                                              @NonNull Vertx vertx, @NonNull Path baseDirectory,
+                                              int segmentBytes) throws IOException {
+    if (segmentBytes < 1024) {
+      throw new IllegalArgumentException("segmentBytes must be >= 1024");
+    }
+    val directory = baseDirectory.resolve(aggregateRootClass.getSimpleName());
+    Files.createDirectories(directory);
+    val repository = new FileUnitOfWorkRepository(vertx, directory, segmentBytes);
+    repository.recover();
+    return repository;
+  }
+
+  @Override
+  public void get(@NonNull UUID uowId, @NonNull Future<Optional<UnitOfWork>> getFuture) {
+
+    vertx.<Optional<UnitOfWork>>executeBlocking(f -> {
+
+      lock.readLock().lock();
+      try {
+        final long position = byUowId.get(uuidHash(uowId), p -> uowIdAt(p).equals(uowId));
+        if (position < 0 || position > durableUpTo) {
+          f.complete(Optional.empty());
+          return;
+        }
+        final ByteBuffer record = recordAt(position);
+        final byte[] command = new byte[record.getInt(HEADER_BYTES + record.getShort(48))];
+        record.position(HEADER_BYTES + record.getShort(48) + 4);
+        record.get(command);
+        final byte[] events = new byte[record.remaining()];
+        record.get(events);
+        f.complete(Optional.of(new UnitOfWork(uowId, Json.mapper.readerFor(Command.class).readValue(command),
+                new Version(record.getLong(16)), readEvents(events))));
+      } catch (IOException e) {
+        f.fail(e);
+      } finally {
+        lock.readLock().unlock();
+      }
+
+    }, false, getFuture.completer());
+
+  }
+
+  @Override
+  public void getUowSequence(@NonNull UUID commandId, @NonNull Future<Optional<Long>> getUowSequenceFuture) {
+
+    vertx.<Optional<Long>>executeBlocking(f -> {
+
+      lock.readLock().lock();
+      try {
+        final long position = byCommandId.get(uuidHash(commandId), p -> commandIdAt(p).equals(commandId));
+        f.complete(position < 0 || position > durableUpTo ? Optional.empty() :
+                Optional.of(recordAt(position).getLong(8)));
+      } finally {
+        lock.readLock().unlock();
+      }
+
+    }, false, getUowSequenceFuture.completer());
+
+  }
+
+  // records only link to the previous one of their aggregate: segments are walked forward, from the newest one back
+  // until there are enough of them
+  @Override
+  public void selectRecentCommandIds(int maxResultSize, @NonNull Future<List<UUID>> selectFuture) {
+
+    vertx.<List<UUID>>executeBlocking(f -> {
+
+      final List<UUID> result = new ArrayList<>();
+
+      lock.readLock().lock();
+      try {
+        for (int i = segments.size() - 1; i >= 0 && result.size() < maxResultSize; i--) {
+          final ByteBuffer segment = segments.get(i);
+          final List<Long> positions = new ArrayList<>();
+          int offset = 0;
+          while (offset + 4 <= segmentBytes && segment.getInt(offset) != 0) {
+            final long position = position(i, offset);
+            if (position > durableUpTo) {
+              break;
+            }
+            positions.add(position);
+            offset += segment.getInt(offset);
+          }
+          for (int j = positions.size() - 1; j >= 0 && result.size() < maxResultSize; j--) {
+            result.add(commandIdAt(positions.get(j)));
+          }
+        }
+      } finally {
+        lock.readLock().unlock();
+      }
+
+      f.complete(result);
+
+    }, false, selectFuture.completer());
+
+  }
+
+  @Override
+  public void selectAfterVersion(@NonNull String id, @NonNull Version version,
+                                 @NonNull Future<SnapshotData> selectAfterVersionFuture) {
+
+    vertx.<SnapshotData>executeBlocking(f -> {
+
+      final Deque<ByteBuffer> records = new ArrayDeque<>();
+
+      lock.readLock().lock();
+      try {
+        long position = byAggregate.get(OffHeapHashIndex.hash(id), p -> arIdAt(p).equals(id));
+        while (position >= 0) {
+          final ByteBuffer record = recordAt(position);
+          if (record.getLong(16) <= version.getValueAsLong()) {
+            break;
+          }
+          if (position <= durableUpTo) {
+            records.addFirst(record);
+          }
+          position = record.getLong(24);
+        }
+      } finally {
+        lock.readLock().unlock();
+      }
+
+      long lastVersion = 0;
+      final List<Event> events = new ArrayList<>();
+      for (ByteBuffer record : records) {
+        record.position(HEADER_BYTES + record.getShort(48));
+        record.position(record.position() + 4 + record.getInt(record.position()));
+        final byte[] eventsBytes = new byte[record.remaining()];
+        record.get(eventsBytes);
+        events.addAll(readEvents(eventsBytes));
+        lastVersion = record.getLong(16);
+      }
+
+      f.complete(new SnapshotData(new Version(lastVersion), events));
+
+    }, false, selectAfterVersionFuture.completer());
+
+  }
+
+  @Override
+  public void append(@NonNull UnitOfWork unitOfWork, @NonNull Future<Either<Throwable, Long>> appendFuture) {
+
+    final Context context = vertx.getOrCreateContext();
+
+    if (closed) {
+      appendFuture.fail(closedException());
+      return;
+    }
+
+    final byte[] command;
+    final byte[] events;
+    try {
+      command = Json.mapper.writerFor(Command.class).writeValueAsBytes(unitOfWork.getCommand());
+      events = Json.mapper.writerFor(eventsListTpe).writeValueAsBytes(unitOfWork.getEvents());
+    } catch (IOException e) {
+      appendFuture.fail(new RuntimeException("When writing to JSON", e));
+      return;
+    }
+
+    try {
+      writer.execute(() -> write(unitOfWork, command, events, new Pending(context, appendFuture)));
+    } catch (RejectedExecutionException e) {
+      appendFuture.fail(closedException());
+    }
+
+  }
+
+  public JsonObject metrics() {
+    lock.readLock().lock();
+    try {
+      return new JsonObject()
+              .put("segments", segments.size())
+              .put("aggregates", byAggregate.size())
+              .put("unitsOfWork", byUowId.size())
+              .put("indexOffHeapBytes", byAggregate.offHeapBytes() + byUowId.offHeapBytes()
+                      + byCommandId.offHeapBytes())
+              .put("appends", appends.get())
+              .put("syncs", syncs.get());
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  // syncs whatever is pending and stops the writer
+  public void close(@NonNull Future<Void> closeFuture) {
+    final Context context = vertx.getOrCreateContext();
+    closed = true;
+    writer.execute(() -> {
+      sync();
+      context.runOnContext(v -> closeFuture.complete());
+    });
+    writer.shutdown();
+  }
+
+  // writer thread
+
+  private void write(UnitOfWork unitOfWork, byte[] command, byte[] events, Pending pendingAppend) {
+
+    final String arId = unitOfWork.targetId().getStringValue();
+    final byte[] arIdBytes = arId.getBytes(StandardCharsets.UTF_8);
+    final int length = HEADER_BYTES + arIdBytes.length + 4 + command.length + events.length;
+
+    if (syncFailure != null) {
+      pendingAppend.context.runOnContext(v -> pendingAppend.future.fail(closedException()));
+      return;
+    }
+
+    lock.writeLock().lock();
+    try {
+
+      // as the (cmd_id, ar_name) unique key does
+      final UUID commandId = unitOfWork.getCommand().getCommandId();
+      if (byCommandId.get(uuidHash(commandId), p -> commandIdAt(p).equals(commandId)) >= 0) {
+        pendingAppend.result = Eithers.left(new DuplicateCommandException(
+                String.format("cmd_id = [%s]", commandId)));
+        pending.add(pendingAppend);
+        return;
+      }
+
+      final long latest = byAggregate.get(OffHeapHashIndex.hash(arId), p -> arIdAt(p).equals(arId));
+      final long currentVersion = latest < 0 ? 0L : recordAt(latest).getLong(16);
+
+      if (currentVersion != unitOfWork.getVersion().getValueAsLong() - 1) {
+        // it may rely on records not durable yet: answered with them
+        pendingAppend.result = Eithers.left(new DbConcurrencyException(
+                String.format("ar_id = [%s], current_version = %d, new_version = %d",
+                        arId, currentVersion, unitOfWork.getVersion().getValueAsLong())));
+        pending.add(pendingAppend);
+        return;
+      }
+
+      if (length > segmentBytes) {
+        pendingAppend.context.runOnContext(v -> pendingAppend.future.fail(
+                new IllegalArgumentException("unit of work of " + length + " bytes is over the segment size")));
+        return;
+      }
+
+      if (writeOffset + length > segmentBytes) {
+        roll();
+      }
+
+      final long uowSequence = nextUowSequence;
+      final long position = position(writeSegment, writeOffset);
+
+      final ByteBuffer record = ByteBuffer.allocate(length);
+      record.putInt(length)
+            .putInt(0)
+            .putLong(uowSequence)
+            .putLong(unitOfWork.getVersion().getValueAsLong())
+            .putLong(latest)
+            .putLong(unitOfWork.getUnitOfWorkId().getMostSignificantBits())
+            .putLong(unitOfWork.getUnitOfWorkId().getLeastSignificantBits())
+            .putShort((short) arIdBytes.length)
+            .put(arIdBytes)
+            .putInt(command.length)
+            .put(command)
+            .put(events);
+      record.putInt(4, crc(record.array(), length));
+
+      final ByteBuffer segment = segments.get(writeSegment).duplicate();
+      segment.position(writeOffset);
+      segment.put(record.array());
+
+      byAggregate.put(OffHeapHashIndex.hash(arId), p -> arIdAt(p).equals(arId), position);
+      byUowId.put(uuidHash(unitOfWork.getUnitOfWorkId()), p -> uowIdAt(p).equals(unitOfWork.getUnitOfWorkId()),
+              position);
+      byCommandId.put(uuidHash(commandId), p -> commandIdAt(p).equals(commandId), position);
+
+      nextUowSequence++;
+      writeOffset += length;
+      lastWritten = position;
+      dirtySegments.add(writeSegment);
+      appends.incrementAndGet();
+
+      pendingAppend.result = Eithers.right(uowSequence);
+      pending.add(pendingAppend);
+
+    } catch (Exception e) {
+      pendingAppend.context.runOnContext(v -> pendingAppend.future.fail(e));
+    } finally {
+      lock.writeLock().unlock();
+      if (!syncQueued && !pending.isEmpty()) {
+        syncQueued = true;
+        writer.execute(this::sync);
+      }
+    }
+
+  }
+
+  private void sync() {
+
+    syncQueued = false;
+
+    if (pending.isEmpty() && dirtySegments.isEmpty() || syncFailure != null) {
+      return;
+    }
+
+    final List<Pending> batch = pending;
+    pending = new ArrayList<>();
+
+    try {
+      for (Integer segment : dirtySegments) {
+        segments.get(segment).force();
+      }
+      dirtySegments.clear();
+      durableUpTo = lastWritten;
+      syncs.incrementAndGet();
+    } catch (Exception e) {
+      log.error("when syncing " + directory + ": closing it", e);
+      syncFailure = e;
+      closed = true;
+      batch.forEach(p -> p.context.runOnContext(v -> p.future.fail(e)));
+      return;
+    }
+
+    batch.forEach(p -> p.context.runOnContext(v -> p.future.complete(p.result)));
+
+  }
+
+  private IllegalStateException closedException() {
+    return syncFailure == null ? new IllegalStateException("repository is closed") :
+            new IllegalStateException("repository is closed after a failed sync", syncFailure);
+  }
+
+  private void roll() throws IOException {
+    segments.add(map(writeSegment + 1));
+    writeSegment++;
+    writeOffset = 0;
+    log.info("rolled to segment {} on {}", writeSegment, directory);
+  }
+
+  private MappedByteBuffer map(int segment) throws IOException {
+    val file = directory.resolve(String.format("%020d%s", segment, SUFFIX));
+    try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+      if (raf.length() != segmentBytes) {
+        if (raf.length() > 0) {
+          throw new IOException(file + " has " + raf.length() + " bytes instead of " + segmentBytes);
+        }
+        raf.setLength(segmentBytes);
+      }
+      // the mapping stays valid after the channel is closed
+      return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+    }
+  }
+
+  // on open, before the writer gets anything
+
+  private void recover() throws IOException {
+
+    final List<Path> files = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+      stream.forEach(files::add);
+    }
+    Collections.sort(files);
+
+    for (int i = 0; i < files.size(); i++) {
+      if (!files.get(i).getFileName().toString().equals(String.format("%020d%s", i, SUFFIX))) {
+        throw new IOException("missing segment " + i + " on " + directory);
+      }
+      segments.add(map(i));
+    }
+
+    if (segments.isEmpty()) {
+      segments.add(map(0));
+    }
+
+    for (int i = 0; i < segments.size(); i++) {
+      final MappedByteBuffer segment = segments.get(i);
+      int offset = 0;
+      while (offset + 4 <= segmentBytes) {
+        final int length = segment.getInt(offset);
+        if (length == 0) {
+          break;
+        }
+        if (!isValid(segment, offset, length)) {
+          if (i < segments.size() - 1) {
+            throw new IOException("corrupted record at offset " + offset + " of segment " + i + " on " + directory);
+          }
+          log.warn("zeroing a torn tail from offset {} of segment {} on {}", offset, i, directory);
+          for (int j = offset; j < segmentBytes; j++) {
+            segment.put(j, (byte) 0);
+          }
+          segment.force();
+          break;
+        }
+        index(position(i, offset));
+        offset += length;
+      }
+      writeSegment = i;
+      writeOffset = offset;
+    }
+
+    durableUpTo = lastWritten;
+
+    log.info("opened {} with {} segments and {} units of work", directory, segments.size(), byUowId.size());
+
+  }
+
+  private boolean isValid(ByteBuffer segment, int offset, int length) {
+    if (length < HEADER_BYTES || (long) offset + length > segmentBytes) {
+      return false;
+    }
+    final byte[] bytes = new byte[length];
+    final ByteBuffer in = segment.duplicate();
+    in.position(offset);
+    in.get(bytes);
+    return ByteBuffer.wrap(bytes).getInt(4) == crc(bytes, length);
+  }
+
+  private void index(long position) {
+    final ByteBuffer record = recordAt(position);
+    final String arId = arIdAt(position);
+    final UUID uowId = uowIdAt(position);
+    byAggregate.put(OffHeapHashIndex.hash(arId), p -> arIdAt(p).equals(arId), position);
+    byUowId.put(uuidHash(uowId), p -> uowIdAt(p).equals(uowId), position);
+    final UUID commandId = commandIdAt(position);
+    byCommandId.put(uuidHash(commandId), p -> commandIdAt(p).equals(commandId), position);
+    nextUowSequence = Math.max(nextUowSequence, record.getLong(8) + 1);
+    lastWritten = position;
+  }
+
+  // any thread, holding the lock
+
+  private ByteBuffer recordAt(long position) {
+    final ByteBuffer segment = segments.get((int) (position >>> 32)).duplicate();
+    final int offset = (int) position;
+    segment.position(offset).limit(offset + segment.getInt(offset));
+    return segment.slice();
+  }
+
+  private String arIdAt(long position) {
+    final ByteBuffer record = recordAt(position);
+    final byte[] arId = new byte[record.getShort(48)];
+    record.position(HEADER_BYTES);
+    record.get(arId);
+    return new String(arId, StandardCharsets.UTF_8);
+  }
+
+  private UUID uowIdAt(long position) {
+    final ByteBuffer record = recordAt(position);
+    return new UUID(record.getLong(32), record.getLong(40));
+  }
+
+  // the command id is only inside the command JSON: read on recovery and on hash matches
+  private UUID commandIdAt(long position) {
+    final ByteBuffer record = recordAt(position);
+    final int commandOffset = HEADER_BYTES + record.getShort(48);
+    final byte[] command = new byte[record.getInt(commandOffset)];
+    record.position(commandOffset + 4);
+    record.get(command);
+    try {
+      return Json.mapper.readerFor(Command.class).<Command>readValue(command).getCommandId();
+    } catch (IOException e) {
+      throw new RuntimeException("When reading command from JSON", e);
+    }
+  }
+
+  private List<Event> readEvents(byte[] eventsAsJson) {
+    try {
+      return Json.mapper.readerFor(eventsListTpe).readValue(eventsAsJson);
+    } catch (IOException e) {
+      throw new RuntimeException("When reading events list from JSON", e);
+    }
+  }
+
+  static long position(int segment, int offset) {
+    return (long) segment << 32 | offset;
+  }
+
+  static long uuidHash(UUID uuid) {
+    return uuid.getMostSignificantBits() ^ uuid.getLeastSignificantBits();
+  }
+
+  static int crc(byte[] record, int length) {
+    final CRC32 crc = new CRC32();
+    crc.update(record, 8, length - 8);
+    return (int) crc.getValue();
+  }
+
+  static class Pending {
+
+    final Context context;
+    final Future<Either<Throwable, Long>> future;
+    Either<Throwable, Long> result;
+
+    Pending(Context context, Future<Either<Throwable, Long>> future) {
+      this.context = context;
+      this.future = future;
+    }
+
+  }
+
+}
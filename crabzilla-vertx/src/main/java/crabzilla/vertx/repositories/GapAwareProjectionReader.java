@@ -0,0 +1,98 @@
+package crabzilla.vertx.repositories;
+
+import crabzilla.vertx.ProjectionData;
+import crabzilla.vertx.util.SequenceGapTracker;
+import io.vertx.core.Future;
+import io.vertx.core.json.JsonObject;
+import lombok.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// what: reads units_of_work by uow_seq_number without skipping the ones whose transaction commits late
+// how: new rows are read after the highest sequence seen. While there are gaps, the window above the checkpoint is
+// read again, so a late commit is picked up and only what is still invisible can expire
+
+public class GapAwareProjectionReader {
+
+  static final int WINDOW_FACTOR = 10;
+
+  final VertxProjectionRepository projectionRepository;
+  final SequenceGapTracker<ProjectionData> tracker;
+  final int maxRows;
+
+  boolean lastReadWasFull;
+
+  public GapAwareProjectionReader(@NonNull VertxProjectionRepository projectionRepository, long afterUowSequence,
+                                  int maxRows, long gapTimeoutMs) {
+    this.projectionRepository = projectionRepository;
+    this.maxRows = maxRows;
+    this.tracker = new SequenceGapTracker<>(afterUowSequence, gapTimeoutMs, maxRows * WINDOW_FACTOR,
+            ProjectionData::getUowSequence);
+  }
+
+  // completes with the rows that can be delivered, in sequence order and never twice
+  public void read(@NonNull Future<List<ProjectionData>> releasedFuture) {
+
+    final List<ProjectionData> released = new ArrayList<>();
+
+    Future<List<ProjectionData>> newRowsFuture = Future.future();
+
+    if (tracker.isWindowFull()) {
+      newRowsFuture.complete(Collections.emptyList());
+    } else {
+      projectionRepository.selectAfterUowSequence(tracker.highestSeen(), maxRows, newRowsFuture);
+    }
+
+    newRowsFuture.compose(newRows -> {
+
+      lastReadWasFull = newRows.size() == maxRows;
+      released.addAll(tracker.offer(newRows, System.currentTimeMillis()));
+
+      Future<List<ProjectionData>> fillFuture = Future.future();
+
+      if (tracker.hasOpenGaps()) {
+        projectionRepository.selectAfterUowSequence(tracker.checkpoint(), tracker.window(), fillFuture);
+      } else {
+        fillFuture.complete(Collections.emptyList());
+      }
+
+      return fillFuture;
+
+    }).map(filled -> {
+
+      released.addAll(tracker.offer(filled, System.currentTimeMillis()));
+      released.addAll(tracker.expireGaps(System.currentTimeMillis()));
+      return (List<ProjectionData>) released;
+
+    }).setHandler(releasedFuture.completer());
+
+  }
+
+  // rows received from elsewhere (the event bus): returns the ones that can be delivered
+  public List<ProjectionData> offer(@NonNull List<ProjectionData> rows) {
+    return tracker.offer(rows, System.currentTimeMillis());
+  }
+
+  public long checkpoint() {
+    return tracker.checkpoint();
+  }
+
+  public long highestSeen() {
+    return tracker.highestSeen();
+  }
+
+  public boolean hasOpenGaps() {
+    return tracker.hasOpenGaps();
+  }
+
+  public boolean lastReadWasFull() {
+    return lastReadWasFull;
+  }
+
+  public JsonObject metrics() {
+    return tracker.metrics();
+  }
+
+}
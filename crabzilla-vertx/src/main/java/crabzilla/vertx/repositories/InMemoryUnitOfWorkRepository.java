@@ -0,0 +1,167 @@
+package crabzilla.vertx.repositories;
+
+import crabzilla.model.*;
+import crabzilla.vertx.ProjectionData;
+import crabzilla.vertx.util.DbConcurrencyException;
+import crabzilla.vertx.util.DuplicateCommandException;
+import io.vertx.core.Future;
+import lombok.NonNull;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// what: units of work kept on the heap, for tests and for measuring the command pipeline without a database
+// how: same contract as VertxUnitOfWorkRepository: versions are checked on append and uowSequence is global, and
+// selectAfterUowSequence reads like VertxProjectionRepository does. Appends to the same aggregate are serialized by one
+// of a fixed set of locks picked by its id; appends to different aggregates only share the sequence counter. As on
+// the database, a uowSequence may become visible after a higher one. Futures are completed on the calling thread
+
+public class InMemoryUnitOfWorkRepository implements UnitOfWorkRepository {
+
+  static final int DEFAULT_STRIPES = 64;
+
+  private final Object[] stripes;
+  private final Map<String, List<Entry>> byAggregate = new ConcurrentHashMap<>();
+  private final Map<UUID, Entry> byUowId = new ConcurrentHashMap<>();
+  private final Map<UUID, Entry> byCommandId = new ConcurrentHashMap<>();
+  private final ConcurrentSkipListMap<Long, Entry> bySequence = new ConcurrentSkipListMap<>();
+  private final AtomicLong lastUowSequence = new AtomicLong();
+
+  public InMemoryUnitOfWorkRepository() {
+    this(DEFAULT_STRIPES);
+  }
+
+  public InMemoryUnitOfWorkRepository(int stripes) {
+    if (stripes < 1) throw new IllegalArgumentException("stripes must be >= 1");
+    this.stripes = new Object[stripes];
+    for (int i = 0; i < stripes; i++) {
+      this.stripes[i] = new Object();
+    }
+  }
+
+  @Override
+  public void get(@NonNull UUID uowId, @NonNull Future<Optional<UnitOfWork>> getFuture) {
+    final Entry entry = byUowId.get(uowId);
+    getFuture.complete(entry == null ? Optional.empty() : Optional.of(entry.unitOfWork));
+  }
+
+  @Override
+  public void selectAfterVersion(@NonNull String id, @NonNull Version version,
+                                 @NonNull Future<SnapshotData> selectAfterVersionFuture) {
+
+    final List<Event> events = new ArrayList<>();
+    long lastVersion = 0;
+
+    synchronized (stripeFor(id)) {
+      final List<Entry> versions = byAggregate.get(id);
+      // versions are contiguous from 1, so version n is at n - 1
+      if (versions != null && versions.size() > version.getValueAsLong()) {
+        for (Entry entry : versions.subList((int) version.getValueAsLong(), versions.size())) {
+          events.addAll(entry.unitOfWork.getEvents());
+        }
+        lastVersion = versions.size();
+      }
+    }
+
+    selectAfterVersionFuture.complete(new SnapshotData(new Version(lastVersion), events));
+
+  }
+
+  @Override
+  public void append(@NonNull UnitOfWork unitOfWork, @NonNull Future<Either<Throwable, Long>> appendFuture) {
+
+    final String id = unitOfWork.targetId().getStringValue();
+    final Entry entry;
+
+    synchronized (stripeFor(id)) {
+
+      // as the (cmd_id, ar_name) unique key does
+      if (byCommandId.containsKey(unitOfWork.getCommand().getCommandId())) {
+        appendFuture.complete(Eithers.left(new DuplicateCommandException(
+                String.format("cmd_id = [%s]", unitOfWork.getCommand().getCommandId()))));
+        return;
+      }
+
+      final List<Entry> versions = byAggregate.computeIfAbsent(id, k -> new ArrayList<>());
+
+      if (versions.size() != unitOfWork.getVersion().getValueAsLong() - 1) {
+        appendFuture.complete(Eithers.left(new DbConcurrencyException(
+                String.format("ar_id = [%s], current_version = %d, new_version = %d",
+                        id, versions.size(), unitOfWork.getVersion().getValueAsLong()))));
+        return;
+      }
+
+      entry = new Entry(lastUowSequence.incrementAndGet(), unitOfWork);
+      versions.add(entry);
+      byUowId.put(unitOfWork.getUnitOfWorkId(), entry);
+      byCommandId.put(unitOfWork.getCommand().getCommandId(), entry);
+      bySequence.put(entry.uowSequence, entry);
+
+    }
+
+    appendFuture.complete(Eithers.right(entry.uowSequence));
+
+  }
+
+  @Override
+  public void getUowSequence(@NonNull UUID commandId, @NonNull Future<Optional<Long>> getUowSequenceFuture) {
+    final Entry entry = byCommandId.get(commandId);
+    getUowSequenceFuture.complete(entry == null ? Optional.empty() : Optional.of(entry.uowSequence));
+  }
+
+  @Override
+  public void selectRecentCommandIds(int maxResultSize, @NonNull Future<List<UUID>> selectFuture) {
+    final List<UUID> result = new ArrayList<>(Math.min(maxResultSize, 1024));
+    for (Entry entry : bySequence.descendingMap().values()) {
+      if (result.size() >= maxResultSize) {
+        break;
+      }
+      result.add(entry.unitOfWork.getCommand().getCommandId());
+    }
+    selectFuture.complete(result);
+  }
+
+  public void selectAfterUowSequence(@NonNull Long sinceUowSequence, @NonNull Integer maxResultSize,
+                                     @NonNull Future<List<ProjectionData>> selectFuture) {
+
+    final List<ProjectionData> result = new ArrayList<>(Math.min(maxResultSize, 1024));
+
+    for (Entry entry : bySequence.tailMap(sinceUowSequence, false).values()) {
+      if (result.size() == maxResultSize) {
+        break;
+      }
+      result.add(new ProjectionData(entry.unitOfWork.getUnitOfWorkId().toString(), entry.uowSequence,
+              entry.unitOfWork.targetId().getStringValue(), entry.unitOfWork.getEvents()));
+    }
+
+    selectFuture.complete(result);
+
+  }
+
+  public long lastUowSequence() {
+    return lastUowSequence.get();
+  }
+
+  public int size() {
+    return bySequence.size();
+  }
+
+  private Object stripeFor(String id) {
+    return stripes[(id.hashCode() & 0x7fffffff) % stripes.length];
+  }
+
+  static class Entry {
+
+    final long uowSequence;
+    final UnitOfWork unitOfWork;
+
+    Entry(long uowSequence, UnitOfWork unitOfWork) {
+      this.uowSequence = uowSequence;
+      this.unitOfWork = unitOfWork;
+    }
+
+  }
+
+}
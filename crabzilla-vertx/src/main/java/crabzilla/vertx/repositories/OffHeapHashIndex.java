@@ -0,0 +1,117 @@
+package crabzilla.vertx.repositories;
+
+import java.nio.ByteBuffer;
+import java.util.function.LongPredicate;
+
+// what: key -> position map on a direct buffer, so millions of aggregates cost no heap and no GC
+// how: open addressing with linear probing over 16 bytes slots (64 bits hash, position + 1; 0 means empty). The key
+// itself is not kept: whoever calls gives a predicate telling whether the record at a position has the key, which
+// resolves hash collisions. Grows at half full. Not thread safe.
+
+final class OffHeapHashIndex {
+
+  static final int SLOT_BYTES = 16;
+
+  private ByteBuffer slots;
+  private int capacity;
+  private int size;
+
+  OffHeapHashIndex(int initialCapacity) {
+    this.capacity = Integer.highestOneBit(Math.max(16, initialCapacity) - 1) << 1;
+    this.slots = ByteBuffer.allocateDirect(capacity * SLOT_BYTES);
+  }
+
+  int size() {
+    return size;
+  }
+
+  long offHeapBytes() {
+    return (long) capacity * SLOT_BYTES;
+  }
+
+  // -1 when absent
+  long get(long hash, LongPredicate hasKey) {
+    final int slot = find(hash, hasKey);
+    return slot < 0 ? -1L : slots.getLong(slot * SLOT_BYTES + 8) - 1;
+  }
+
+  void put(long hash, LongPredicate hasKey, long position) {
+    if (position < 0) {
+      throw new IllegalArgumentException("position must be >= 0");
+    }
+    final int slot = find(hash, hasKey);
+    if (slot >= 0) {
+      slots.putLong(slot * SLOT_BYTES + 8, position + 1);
+      return;
+    }
+    if ((size + 1) * 2 > capacity) {
+      grow();
+    }
+    insert(slots, capacity, hash, position + 1);
+    size++;
+  }
+
+  private int find(long hash, LongPredicate hasKey) {
+    int slot = indexFor(hash, capacity);
+    while (true) {
+      final long stored = slots.getLong(slot * SLOT_BYTES + 8);
+      if (stored == 0) {
+        return -1;
+      }
+      if (slots.getLong(slot * SLOT_BYTES) == hash && hasKey.test(stored - 1)) {
+        return slot;
+      }
+      slot = (slot + 1) & (capacity - 1);
+    }
+  }
+
+  private void grow() {
+    final int newCapacity = capacity << 1;
+    if (newCapacity > Integer.MAX_VALUE / SLOT_BYTES) {
+      throw new IllegalStateException("index is full");
+    }
+    final ByteBuffer newSlots = ByteBuffer.allocateDirect(newCapacity * SLOT_BYTES);
+    for (int slot = 0; slot < capacity; slot++) {
+      final long stored = slots.getLong(slot * SLOT_BYTES + 8);
+      if (stored != 0) {
+        insert(newSlots, newCapacity, slots.getLong(slot * SLOT_BYTES), stored);
+      }
+    }
+    slots = newSlots;
+    capacity = newCapacity;
+  }
+
+  private static void insert(ByteBuffer slots, int capacity, long hash, long stored) {
+    int slot = indexFor(hash, capacity);
+    while (slots.getLong(slot * SLOT_BYTES + 8) != 0) {
+      slot = (slot + 1) & (capacity - 1);
+    }
+    slots.putLong(slot * SLOT_BYTES, hash);
+    slots.putLong(slot * SLOT_BYTES + 8, stored);
+  }
+
+  private static int indexFor(long hash, int capacity) {
+    return (int) (mix(hash) & (capacity - 1));
+  }
+
+  // murmur3 finalizer: callers may give hashes with poor low bits
+  static long mix(long h) {
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  // 64 bits FNV-1a over the chars of a key
+  static long hash(String key) {
+    long h = 0xcbf29ce484222325L;
+    for (int i = 0; i < key.length(); i++) {
+      h ^= key.charAt(i);
+      h *= 0x100000001b3L;
+    }
+    return h;
+  }
+
+}
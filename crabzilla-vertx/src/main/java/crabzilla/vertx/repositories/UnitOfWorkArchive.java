@@ -0,0 +1,189 @@
+package crabzilla.vertx.repositories;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import crabzilla.model.Event;
+import crabzilla.model.SnapshotData;
+import crabzilla.model.Version;
+import crabzilla.vertx.ProjectionData;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonObject;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static crabzilla.vertx.repositories.UnitOfWorkSegment.SUFFIX;
+
+// what: the cold tier of units_of_work: read only segment files on a local directory, each one a former partition
+// how: segments are kept in uow_seq_number order and cover everything up to lastUowSequence(), so readers take from
+// here what is at or below it and from the database what is above it. Finding out whether and up to which version an
+// aggregate has archived units of work needs no IO; reading them does (page faults and inflating), so it runs on
+// executeBlocking and completes the given futures
+
+@Slf4j
+public class UnitOfWorkArchive {
+
+  final Vertx vertx;
+  final Path directory;
+
+  private final TypeReference<List<Event>> eventsListTpe =  new TypeReference<List<Event>>() {};
+
+  volatile List<UnitOfWorkSegment> segments;
+
+  final AtomicLong reads = new AtomicLong();
+
+  UnitOfWorkArchive(Vertx vertx, Path directory, List<UnitOfWorkSegment> segments) {
+    this.vertx = vertx;
+    this.directory = directory;
+    this.segments = segments;
+  }
+
+  public static UnitOfWorkArchive open(@NonNull Vertx vertx, @NonNull Path directory) throws IOException {
+
+    Files.createDirectories(directory);
+
+    final List<UnitOfWorkSegment> segments = new ArrayList<>();
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+      for (Path file : files) {
+        segments.add(UnitOfWorkSegment.open(file));
+      }
+    }
+    segments.sort(Comparator.comparingLong(UnitOfWorkSegment::firstUowSequence));
+
+    for (int i = 1; i < segments.size(); i++) {
+      if (segments.get(i).firstUowSequence() <= segments.get(i - 1).lastUowSequence()) {
+        throw new IOException("overlapping segments: " + segments.get(i - 1).path + " and " + segments.get(i).path);
+      }
+    }
+
+    log.info("units of work archive on {} with {} segments", directory, segments.size());
+
+    return new UnitOfWorkArchive(vertx, directory, Collections.unmodifiableList(segments));
+  }
+
+  // 0 when nothing was archived yet
+  public long lastUowSequence() {
+    val current = segments;
+    return current.isEmpty() ? 0L : current.get(current.size() - 1).lastUowSequence();
+  }
+
+  // 0 when the aggregate has nothing archived
+  public long lastVersion(@NonNull String aggregateRootName, @NonNull String id) {
+    long lastVersion = 0L;
+    for (UnitOfWorkSegment segment : segments) {
+      lastVersion = Math.max(lastVersion, segment.lastVersion(aggregateRootName, id));
+    }
+    return lastVersion;
+  }
+
+  // same contract as UnitOfWorkRepository.selectAfterVersion: version 0 when there is nothing after it
+  public void selectAfterVersion(@NonNull String aggregateRootName, @NonNull String id, @NonNull Version version,
+                                 @NonNull Future<SnapshotData> future) {
+
+    val current = segments;
+
+    vertx.<SnapshotData>executeBlocking(f -> {
+
+      reads.incrementAndGet();
+
+      long lastVersion = 0L;
+      final List<Event> events = new ArrayList<>();
+
+      for (UnitOfWorkSegment segment : current) {
+        for (UnitOfWorkSegment.Record record :
+                segment.selectAfterVersion(aggregateRootName, id, version.getValueAsLong())) {
+          events.addAll(readEvents(record.getEventsAsJson()));
+          lastVersion = record.getVersion();
+        }
+      }
+
+      f.complete(new SnapshotData(new Version(lastVersion), events));
+
+    }, false, future.completer());
+
+  }
+
+  // eventTypes (simple class names) may be empty, meaning all of them
+  public void selectAfterUowSequence(long sinceUowSequence, int maxResultSize, @NonNull Set<String> eventTypes,
+                                     @NonNull Future<List<ProjectionData>> future) {
+
+    val current = segments;
+
+    vertx.<List<ProjectionData>>executeBlocking(f -> {
+
+      reads.incrementAndGet();
+
+      final List<ProjectionData> result = new ArrayList<>();
+      long since = sinceUowSequence;
+
+      for (UnitOfWorkSegment segment : current) {
+        while (segment.lastUowSequence() > since && result.size() < maxResultSize) {
+          for (UnitOfWorkSegment.Record record :
+                  segment.selectAfterUowSequence(since, maxResultSize - result.size(), r -> true)) {
+            final List<Event> events = readEvents(record.getEventsAsJson());
+            if (eventTypes.isEmpty() ||
+                    events.stream().anyMatch(e -> eventTypes.contains(e.getClass().getSimpleName()))) {
+              result.add(new ProjectionData(record.getUowId(), record.getUowSequence(), record.getAggregateRootId(),
+                      events));
+            }
+            since = record.getUowSequence();
+          }
+        }
+      }
+
+      f.complete(result);
+
+    }, false, future.completer());
+
+  }
+
+  public JsonObject metrics() {
+    val current = segments;
+    return new JsonObject()
+            .put("segments", current.size())
+            .put("unitsOfWork", current.stream().mapToLong(UnitOfWorkSegment::size).sum())
+            .put("lastUowSequence", lastUowSequence())
+            .put("reads", reads.get());
+  }
+
+  public synchronized void close() {
+    segments.forEach(segment -> {
+      try {
+        segment.close();
+      } catch (IOException e) {
+        log.warn("when closing " + segment.path, e);
+      }
+    });
+    segments = Collections.emptyList();
+  }
+
+  // the new segment must come after every one already archived
+  synchronized void add(@NonNull Path file) throws IOException {
+    val segment = UnitOfWorkSegment.open(file);
+    if (segment.firstUowSequence() <= lastUowSequence()) {
+      segment.close();
+      throw new IOException("segment " + file + " overlaps the archive up to uowSequence " + lastUowSequence());
+    }
+    val newSegments = new ArrayList<UnitOfWorkSegment>(segments);
+    newSegments.add(segment);
+    segments = Collections.unmodifiableList(newSegments);
+    log.info("archived uowSequence {} to {} on {}", segment.firstUowSequence(), segment.lastUowSequence(), file);
+  }
+
+  private List<Event> readEvents(String eventsAsJson) {
+    try {
+      return Json.mapper.readerFor(eventsListTpe).readValue(eventsAsJson);
+    } catch (IOException e) {
+      throw new RuntimeException("When reading events list from JSON", e);
+    }
+  }
+
+}
@@ -0,0 +1,284 @@
+package crabzilla.vertx.repositories;
+
+import crabzilla.vertx.util.SequenceGapTracker;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.ext.jdbc.JDBCClient;
+import io.vertx.ext.sql.ResultSet;
+import io.vertx.ext.sql.SQLConnection;
+import io.vertx.ext.sql.SQLRowStream;
+import io.vertx.ext.sql.UpdateResult;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static crabzilla.vertx.repositories.UuidCodec.canonicalFromHex;
+import static crabzilla.vertx.repositories.VertxSqlHelper.*;
+
+// what: moves the oldest partition of a range partitioned units_of_work (see db/optional) to a segment file of the
+// archive, then drops it with its uow_event_types rows
+// how: rows are streamed in uow_seq_number order and written on executeBlocking in batches, with the stream paused
+// meanwhile. The segment is fsynced and renamed into the archive directory before anything is deleted: a failure in
+// between leaves the rows on both tiers, which is harmless since readers take from the archive only what is at or
+// below its last uowSequence, and the next run just drops them. Only a closed partition is archived: not the one
+// holding MAXVALUE, and only once a unit of work above its bound was inserted more than gapTimeoutMs ago, so the
+// auto increment is past it and no uow_seq_number below it can still commit (as SequenceGapTracker assumes).
+// That layout has no unique key on cmd_id: its command handlers need CommandHandlerOptions.idempotentCommands, with
+// no command id filter
+
+@Slf4j
+public class UnitOfWorkArchiver {
+
+  static final int BATCH_SIZE = 500;
+
+  private static final String SELECT_OLDEST_PARTITION = "select partition_name, partition_method, " +
+          "partition_description from information_schema.partitions " +
+          " where table_schema = database() and table_name = 'units_of_work' " +
+          " order by partition_ordinal_position limit 1";
+
+  // the oldest units of work above the bound come first on the primary key, so it stops right away once it was
+  // crossed. inserted_on has a precision of seconds, hence a second more than the gap timeout
+  private static final String SELECT_CROSSED_BOUND = "select exists(select 1 from units_of_work " +
+          " where uow_seq_number >= ? and inserted_on < now() - interval ? second)";
+
+  private final Vertx vertx;
+  private final JDBCClient client;
+  private final UnitOfWorkArchive archive;
+  private final long gapTimeoutMs;
+
+  public UnitOfWorkArchiver(@NonNull Vertx vertx, @NonNull JDBCClient client, @NonNull UnitOfWorkArchive archive) {
+    this(vertx, client, archive, SequenceGapTracker.DEFAULT_GAP_TIMEOUT_MS);
+  }
+
+  public UnitOfWorkArchiver(@NonNull Vertx vertx, @NonNull JDBCClient client, @NonNull UnitOfWorkArchive archive,
+                            long gapTimeoutMs) {
+    this.vertx = vertx;
+    this.client = client;
+    this.archive = archive;
+    this.gapTimeoutMs = gapTimeoutMs;
+  }
+
+  // completes with how many units of work were archived
+  public void archiveOldestPartition(@NonNull Future<Long> archiveFuture) {
+
+    client.getConnection(getConn -> {
+
+      if (getConn.failed()) {
+        archiveFuture.fail(getConn.cause());
+        return;
+      }
+
+      val sqlConn = getConn.result();
+
+      Future<Long> future = Future.future();
+
+      future.setHandler(ar -> {
+        sqlConn.close();
+        archiveFuture.handle(ar);
+      });
+
+      Future<ResultSet> partitionFuture = Future.future();
+
+      queryWithParams(sqlConn, SELECT_OLDEST_PARTITION, new JsonArray(), partitionFuture);
+
+      partitionFuture.setHandler(partitionAsyncResult -> {
+
+        if (partitionAsyncResult.failed()) {
+          future.fail(partitionAsyncResult.cause());
+          return;
+        }
+
+        val rows = partitionAsyncResult.result().getResults();
+
+        if (rows.isEmpty() || !"RANGE".equals(rows.get(0).getString(1))) {
+          future.fail(new IllegalStateException("units_of_work is not range partitioned"));
+          return;
+        }
+
+        val partitionName = rows.get(0).getString(0);
+
+        if ("MAXVALUE".equals(rows.get(0).getString(2))) {
+          future.fail(new IllegalStateException("partition " + partitionName + " is still open"));
+          return;
+        }
+
+        val bound = Long.valueOf(rows.get(0).getString(2));
+
+        Future<ResultSet> crossedFuture = Future.future();
+
+        queryWithParams(sqlConn, SELECT_CROSSED_BOUND,
+                new JsonArray().add(bound).add(TimeUnit.MILLISECONDS.toSeconds(gapTimeoutMs) + 1), crossedFuture);
+
+        crossedFuture.setHandler(crossedAsyncResult -> {
+
+          if (crossedAsyncResult.failed()) {
+            future.fail(crossedAsyncResult.cause());
+            return;
+          }
+
+          // inserts still go to it, or some below its bound may not have committed yet
+          if (crossedAsyncResult.result().getResults().get(0).getLong(0) == 0) {
+            future.fail(new IllegalStateException("partition " + partitionName + " is still open"));
+            return;
+          }
+
+          archive(sqlConn, partitionName, future);
+
+        });
+
+      });
+
+    });
+
+  }
+
+  void archive(SQLConnection sqlConn, String partitionName, Future<Long> future) {
+
+    log.info("will archive partition {} of units_of_work", partitionName);
+
+    // the name comes from information_schema, not from a caller
+    val SELECT_PARTITION = "select HEX(uow_id), uow_seq_number, ar_name, ar_id, version, uow_events " +
+            "from units_of_work partition (" + partitionName + ") order by uow_seq_number";
+
+    vertx.<UnitOfWorkSegment.Writer>executeBlocking(f -> {
+      try {
+        f.complete(new UnitOfWorkSegment.Writer(archive.directory));
+      } catch (Exception e) {
+        f.fail(e);
+      }
+    }, writerAsyncResult -> {
+
+      if (writerAsyncResult.failed()) {
+        future.fail(writerAsyncResult.cause());
+        return;
+      }
+
+      val writer = writerAsyncResult.result();
+
+      Future<Long> writeFuture = Future.future();
+
+      writeFuture.setHandler(writeAsyncResult -> {
+        if (writeAsyncResult.failed()) {
+          vertx.executeBlocking(f -> {
+            try {
+              writer.close();
+            } catch (Exception e) {
+              log.warn("when discarding a segment", e);
+            }
+            f.complete();
+          }, ignored -> future.fail(writeAsyncResult.cause()));
+          return;
+        }
+        drop(sqlConn, partitionName, writeAsyncResult.result(), future);
+      });
+
+      Future<SQLRowStream> streamFuture = Future.future();
+
+      queryStreamWithParams(sqlConn, SELECT_PARTITION, new JsonArray(), streamFuture);
+
+      streamFuture.setHandler(streamAsyncResult -> {
+
+        if (streamAsyncResult.failed()) {
+          writeFuture.fail(streamAsyncResult.cause());
+          return;
+        }
+
+        val stream = streamAsyncResult.result();
+        val batch = new ArrayList<UnitOfWorkSegment.Record>(BATCH_SIZE);
+
+        stream
+          .resultSetClosedHandler(v -> stream.moreResults())
+          .exceptionHandler(writeFuture::tryFail)
+          .handler(row -> {
+
+            // uow_id, uow_seq_number, ar_name, ar_id, version, uow_events
+            batch.add(new UnitOfWorkSegment.Record(row.getLong(1), canonicalFromHex(row.getString(0)),
+                    row.getString(2), row.getString(3), row.getLong(4), row.getString(5)));
+
+            if (batch.size() == BATCH_SIZE) {
+              stream.pause();
+              val records = new ArrayList<UnitOfWorkSegment.Record>(batch);
+              batch.clear();
+              write(writer, records, false, ar -> {
+                if (ar.failed()) {
+                  writeFuture.tryFail(ar.cause());
+                  stream.close();
+                  return;
+                }
+                stream.resume();
+              });
+            }
+
+          }).endHandler(end -> write(writer, new ArrayList<>(batch), true, ar -> {
+            if (ar.failed()) {
+              writeFuture.tryFail(ar.cause());
+              return;
+            }
+            writeFuture.tryComplete((long) writer.size());
+          }));
+
+      });
+
+    });
+
+  }
+
+  // blocking writes are ordered, so the last batch and finish() come after every other one
+  void write(UnitOfWorkSegment.Writer writer, List<UnitOfWorkSegment.Record> records, boolean last,
+             Handler<AsyncResult<Void>> handler) {
+
+    vertx.<Void>executeBlocking(f -> {
+      try {
+        for (UnitOfWorkSegment.Record record : records) {
+          // already there when a previous run failed before dropping the partition
+          if (record.getUowSequence() > archive.lastUowSequence()) {
+            writer.append(record);
+          }
+        }
+        if (last && writer.size() > 0) {
+          final Path file = writer.finish();
+          archive.add(file);
+        } else if (last) {
+          writer.close();
+        }
+        f.complete();
+      } catch (Exception e) {
+        f.fail(e);
+      }
+    }, handler);
+
+  }
+
+  // on autocommit: the drop commits on its own anyway, and a delete failing after it is done by the next run
+  void drop(SQLConnection sqlConn, String partitionName, Long archived, Future<Long> future) {
+
+    Future<Void> dropFuture = Future.future();
+
+    execute(sqlConn, "alter table units_of_work drop partition " + partitionName, dropFuture);
+
+    dropFuture.compose(v -> {
+      // every uow_seq_number left on units_of_work is above the archived ones
+      Future<UpdateResult> deleteFuture = Future.future();
+      updateWithParams(sqlConn, "delete from uow_event_types where uow_seq_number <= ?",
+              new JsonArray().add(archive.lastUowSequence()), deleteFuture);
+      return deleteFuture;
+    }).setHandler(ar -> {
+      if (ar.failed()) {
+        future.fail(ar.cause());
+        return;
+      }
+      log.info("archived {} units of work from partition {}", archived, partitionName);
+      future.complete(archived);
+    });
+
+  }
+
+}
@@ -0,0 +1,183 @@
+package crabzilla.vertx.repositories;
+
+import crabzilla.model.Event;
+import crabzilla.model.SnapshotData;
+import crabzilla.model.UnitOfWork;
+import crabzilla.model.Version;
+import crabzilla.vertx.ProjectionData;
+import io.vertx.core.json.JsonObject;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+
+import java.util.*;
+
+// what: the most recent units of work appended by this node, bounded by number of entries and by an estimated size
+// in bytes, indexed by uow_seq_number and by (ar_name, ar_id)
+// how: a read is served from memory only when the whole requested range is resident: a contiguous run of sequences
+// for catch-up readers and a contiguous run of versions for aggregate loads. Since other nodes append too, an
+// aggregate load is served only up to the last version the caller vouches for, and only when that is the last one
+// resident. Anything else goes to the database
+
+@Slf4j
+public class UnitOfWorkHotTail {
+
+  static final int ENTRY_OVERHEAD_BYTES = 256;
+
+  final int maxEntries;
+  final long maxBytes;
+
+  final TreeMap<Long, Entry> bySequence = new TreeMap<>();
+  final Map<String, TreeMap<Long, Entry>> byAggregate = new HashMap<>();
+
+  long totalBytes;
+  long hits;
+  long misses;
+  long evictions;
+
+  public UnitOfWorkHotTail(int maxEntries, long maxBytes) {
+    if (maxEntries < 1) throw new IllegalArgumentException("maxEntries must be >= 1");
+    if (maxBytes < 1) throw new IllegalArgumentException("maxBytes must be >= 1");
+    this.maxEntries = maxEntries;
+    this.maxBytes = maxBytes;
+  }
+
+  public synchronized void add(@NonNull Long uowSequence, @NonNull String aggregateRootName,
+                               @NonNull UnitOfWork unitOfWork, int estimatedBytes) {
+
+    val entry = new Entry(uowSequence, aggregateRootName, unitOfWork, estimatedBytes + ENTRY_OVERHEAD_BYTES);
+
+    if (bySequence.put(uowSequence, entry) != null) {
+      return;
+    }
+
+    byAggregate.computeIfAbsent(aggregateKey(aggregateRootName, unitOfWork.targetId().getStringValue()),
+            k -> new TreeMap<>()).put(unitOfWork.getVersion().getValueAsLong(), entry);
+
+    totalBytes += entry.estimatedBytes;
+
+    while (bySequence.size() > maxEntries || totalBytes > maxBytes) {
+      remove(bySequence.firstEntry().getValue());
+      evictions++;
+    }
+
+  }
+
+  // forgets an aggregate, typically after a concurrency error shows another node wrote to it
+  public synchronized void invalidate(@NonNull String aggregateRootName, @NonNull String id) {
+    val versions = byAggregate.get(aggregateKey(aggregateRootName, id));
+    if (versions == null) {
+      return;
+    }
+    new ArrayList<>(versions.values()).forEach(this::remove);
+  }
+
+  public synchronized Optional<List<ProjectionData>> selectAfterUowSequence(long sinceUowSequence, int maxResultSize) {
+
+    val result = new ArrayList<ProjectionData>();
+    long expected = sinceUowSequence + 1;
+
+    for (Entry entry : bySequence.tailMap(expected, true).values()) {
+      if (entry.uowSequence != expected || result.size() == maxResultSize) {
+        break;
+      }
+      result.add(entry.projectionData());
+      expected++;
+    }
+
+    if (result.isEmpty()) {
+      misses++;
+      return Optional.empty();
+    }
+
+    hits++;
+    return Optional.of(result);
+  }
+
+  // lastVersion: the last version of the aggregate as far as the caller knows, since it owns it or heard of it
+  public synchronized Optional<SnapshotData> selectAfterVersion(@NonNull String aggregateRootName,
+                                                                @NonNull String id, @NonNull Version version,
+                                                                long lastVersion) {
+
+    val versions = byAggregate.get(aggregateKey(aggregateRootName, id));
+    val afterVersion = version.getValueAsLong();
+
+    if (versions == null || versions.lastKey() != lastVersion || versions.lastKey() < afterVersion) {
+      misses++;
+      return Optional.empty();
+    }
+
+    if (versions.lastKey() == afterVersion) {
+      hits++;
+      return Optional.of(new SnapshotData(new Version(0), Collections.emptyList()));
+    }
+
+    if (!versions.containsKey(afterVersion + 1)) {
+      misses++;
+      return Optional.empty();
+    }
+
+    final List<Event> events = new ArrayList<>();
+    long expected = afterVersion + 1;
+
+    for (Map.Entry<Long, Entry> e : versions.tailMap(expected, true).entrySet()) {
+      if (e.getKey() != expected) {
+        misses++;
+        return Optional.empty();
+      }
+      events.addAll(e.getValue().unitOfWork.getEvents());
+      expected++;
+    }
+
+    hits++;
+    return Optional.of(new SnapshotData(new Version(expected - 1), events));
+  }
+
+  public synchronized JsonObject metrics() {
+    return new JsonObject()
+            .put("entries", bySequence.size())
+            .put("estimatedBytes", totalBytes)
+            .put("hits", hits)
+            .put("misses", misses)
+            .put("evictions", evictions);
+  }
+
+  private void remove(Entry entry) {
+    bySequence.remove(entry.uowSequence);
+    totalBytes -= entry.estimatedBytes;
+    val key = aggregateKey(entry.aggregateRootName, entry.unitOfWork.targetId().getStringValue());
+    val versions = byAggregate.get(key);
+    if (versions != null) {
+      versions.remove(entry.unitOfWork.getVersion().getValueAsLong());
+      if (versions.isEmpty()) {
+        byAggregate.remove(key);
+      }
+    }
+  }
+
+  private static String aggregateKey(String aggregateRootName, String id) {
+    return aggregateRootName + "/" + id;
+  }
+
+  static class Entry {
+
+    final long uowSequence;
+    final String aggregateRootName;
+    final UnitOfWork unitOfWork;
+    final int estimatedBytes;
+
+    Entry(long uowSequence, String aggregateRootName, UnitOfWork unitOfWork, int estimatedBytes) {
+      this.uowSequence = uowSequence;
+      this.aggregateRootName = aggregateRootName;
+      this.unitOfWork = unitOfWork;
+      this.estimatedBytes = estimatedBytes;
+    }
+
+    ProjectionData projectionData() {
+      return new ProjectionData(unitOfWork.getUnitOfWorkId().toString(), uowSequence,
+              unitOfWork.targetId().getStringValue(), unitOfWork.getEvents());
+    }
+
+  }
+
+}
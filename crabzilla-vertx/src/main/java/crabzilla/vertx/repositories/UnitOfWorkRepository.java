@@ -0,0 +1,40 @@
+package crabzilla.vertx.repositories;
+
+import crabzilla.model.Either;
+import crabzilla.model.SnapshotData;
+import crabzilla.model.UnitOfWork;
+import crabzilla.model.Version;
+import io.vertx.core.Future;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+// what: the write model of one aggregate root as seen by CommandHandlerVerticle
+// how: VertxUnitOfWorkRepository on units_of_work or FileUnitOfWorkRepository on local files. append completes with
+// the uowSequence or, when the aggregate is not on unitOfWork.version - 1 anymore, with a DbConcurrencyException on
+// the left, and with a DuplicateCommandException when a unique key on the command id tells it was appended already;
+// selectAfterVersion completes with version 0 when there is nothing after the given one. getUowSequence tells whether
+// a command was already appended, and with which uowSequence; selectRecentCommandIds gives the command ids of the
+// last units of work appended, newest first
+
+public interface UnitOfWorkRepository {
+
+  void get(UUID uowId, Future<Optional<UnitOfWork>> getFuture);
+
+  void selectAfterVersion(String id, Version version, Future<SnapshotData> selectAfterVersionFuture);
+
+  // for callers sure lastVersion is the last version of id (they own it or heard of it): repositories keeping their
+  // own recent appends in memory may answer from them. The others just query
+  default void selectAfterVersion(String id, Version version, long lastVersion,
+                                  Future<SnapshotData> selectAfterVersionFuture) {
+    selectAfterVersion(id, version, selectAfterVersionFuture);
+  }
+
+  void append(UnitOfWork unitOfWork, Future<Either<Throwable, Long>> appendFuture);
+
+  void getUowSequence(UUID commandId, Future<Optional<Long>> getUowSequenceFuture);
+
+  void selectRecentCommandIds(int maxResultSize, Future<List<UUID>> selectFuture);
+
+}
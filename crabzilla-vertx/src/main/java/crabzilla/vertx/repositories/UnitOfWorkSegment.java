@@ -0,0 +1,379 @@
+package crabzilla.vertx.repositories;
+
+import lombok.Value;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// what: an immutable file with the units of work of a closed uow_seq_number range, as archived from units_of_work
+// how: the file is memory mapped and each record is deflated on its own, so a read only inflates what it returns.
+// Two indexes are loaded on the heap when the file is opened: record offsets in uow_seq_number order and, per
+// (ar_name, ar_id), the positions of its records, which are in version order too.
+// layout: records | sequence index | aggregate index | trailer (sequence index offset, aggregate index offset, magic)
+// record: uow_seq_number, version, raw length, deflated length, deflated (uow_id, ar_name, ar_id, uow_events)
+
+final class UnitOfWorkSegment implements Closeable {
+
+  static final int MAGIC = 0x435a5331;
+  static final int TRAILER_BYTES = 8 + 8 + 4;
+  static final int RECORD_HEADER_BYTES = 8 + 8 + 4 + 4;
+  static final String SUFFIX = ".seg";
+
+  final Path path;
+  final FileChannel channel;
+  final MappedByteBuffer buffer;
+  final long[] sequences;
+  final int[] offsets;
+  final Map<String, AggregateIndex> byAggregate;
+
+  private UnitOfWorkSegment(Path path, FileChannel channel, MappedByteBuffer buffer, long[] sequences, int[] offsets,
+                            Map<String, AggregateIndex> byAggregate) {
+    this.path = path;
+    this.channel = channel;
+    this.buffer = buffer;
+    this.sequences = sequences;
+    this.offsets = offsets;
+    this.byAggregate = byAggregate;
+  }
+
+  static UnitOfWorkSegment open(Path path) throws IOException {
+
+    final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+
+    try {
+      final long size = channel.size();
+      if (size < TRAILER_BYTES || size > Integer.MAX_VALUE) {
+        throw new IOException("not an units of work segment: " + path);
+      }
+
+      final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+      final int trailer = (int) size - TRAILER_BYTES;
+      final int sequenceIndexOffset = (int) buffer.getLong(trailer);
+      final int aggregateIndexOffset = (int) buffer.getLong(trailer + 8);
+      if (buffer.getInt(trailer + 16) != MAGIC) {
+        throw new IOException("not an units of work segment: " + path);
+      }
+
+      final ByteBuffer in = buffer.duplicate();
+
+      in.position(sequenceIndexOffset);
+      final int count = in.getInt();
+      final long[] sequences = new long[count];
+      final int[] offsets = new int[count];
+      for (int i = 0; i < count; i++) {
+        sequences[i] = in.getLong();
+        offsets[i] = in.getInt();
+      }
+
+      in.position(aggregateIndexOffset);
+      final int aggregates = in.getInt();
+      final Map<String, AggregateIndex> byAggregate = new HashMap<>(aggregates * 2);
+      for (int i = 0; i < aggregates; i++) {
+        final byte[] key = new byte[in.getShort() & 0xFFFF];
+        in.get(key);
+        final int[] positions = new int[in.getInt()];
+        for (int j = 0; j < positions.length; j++) {
+          positions[j] = in.getInt();
+        }
+        final long lastVersion = buffer.getLong(offsets[positions[positions.length - 1]] + 8);
+        byAggregate.put(new String(key, StandardCharsets.UTF_8), new AggregateIndex(positions, lastVersion));
+      }
+
+      return new UnitOfWorkSegment(path, channel, buffer, sequences, offsets, byAggregate);
+
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e instanceof IOException ? (IOException) e : new IOException("corrupted segment: " + path, e);
+    }
+
+  }
+
+  static String fileName(long firstUowSequence, long lastUowSequence) {
+    return String.format("%020d-%020d%s", firstUowSequence, lastUowSequence, SUFFIX);
+  }
+
+  long firstUowSequence() {
+    return sequences[0];
+  }
+
+  long lastUowSequence() {
+    return sequences[sequences.length - 1];
+  }
+
+  int size() {
+    return sequences.length;
+  }
+
+  // 0 when the aggregate has nothing here
+  long lastVersion(String aggregateRootName, String id) {
+    final AggregateIndex index = byAggregate.get(aggregateKey(aggregateRootName, id));
+    return index == null ? 0L : index.lastVersion;
+  }
+
+  List<Record> selectAfterVersion(String aggregateRootName, String id, long afterVersion) {
+
+    final AggregateIndex index = byAggregate.get(aggregateKey(aggregateRootName, id));
+
+    if (index == null || index.lastVersion <= afterVersion) {
+      return Collections.emptyList();
+    }
+
+    final List<Record> result = new ArrayList<>();
+    for (int position : index.positions) {
+      // the version is on the record header: no need to inflate the ones before it
+      if (buffer.getLong(offsets[position] + 8) > afterVersion) {
+        result.add(read(position));
+      }
+    }
+    return result;
+  }
+
+  // up to maxResultSize records accepted by the filter, scanning from the first one after sinceUowSequence
+  List<Record> selectAfterUowSequence(long sinceUowSequence, int maxResultSize, Predicate<Record> filter) {
+
+    int position = Arrays.binarySearch(sequences, sinceUowSequence);
+    position = position >= 0 ? position + 1 : -position - 1;
+
+    final List<Record> result = new ArrayList<>();
+    for (; position < sequences.length && result.size() < maxResultSize; position++) {
+      final Record record = read(position);
+      if (filter.test(record)) {
+        result.add(record);
+      }
+    }
+    return result;
+  }
+
+  Record read(int position) {
+
+    final ByteBuffer in = buffer.duplicate();
+    in.position(offsets[position]);
+
+    final long uowSequence = in.getLong();
+    final long version = in.getLong();
+    final byte[] raw = new byte[in.getInt()];
+    final byte[] deflated = new byte[in.getInt()];
+    in.get(deflated);
+
+    final Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(deflated);
+      if (inflater.inflate(raw) != raw.length) {
+        throw new IllegalStateException("corrupted record " + uowSequence + " on " + path);
+      }
+    } catch (DataFormatException e) {
+      throw new IllegalStateException("corrupted record " + uowSequence + " on " + path, e);
+    } finally {
+      inflater.end();
+    }
+
+    try (DataInputStream data = new DataInputStream(new ByteArrayInputStream(raw))) {
+      final String uowId = data.readUTF();
+      final String aggregateRootName = data.readUTF();
+      final String aggregateRootId = data.readUTF();
+      final byte[] events = new byte[data.readInt()];
+      data.readFully(events);
+      return new Record(uowSequence, uowId, aggregateRootName, aggregateRootId, version,
+              new String(events, StandardCharsets.UTF_8));
+    } catch (IOException e) {
+      throw new IllegalStateException("corrupted record " + uowSequence + " on " + path, e);
+    }
+
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  static String aggregateKey(String aggregateRootName, String id) {
+    return aggregateRootName + "/" + id;
+  }
+
+  @Value
+  static class Record {
+
+    long uowSequence;
+    String uowId;
+    String aggregateRootName;
+    String aggregateRootId;
+    long version;
+    String eventsAsJson;
+
+  }
+
+  static class AggregateIndex {
+
+    final int[] positions;
+    final long lastVersion;
+
+    AggregateIndex(int[] positions, long lastVersion) {
+      this.positions = positions;
+      this.lastVersion = lastVersion;
+    }
+
+  }
+
+  // records must come in uow_seq_number order. Nothing is visible under the final name before finish()
+  static class Writer implements Closeable {
+
+    final Path directory;
+    final Path tmpPath;
+    final FileChannel channel;
+    final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    final ByteArrayOutputStream rawBytes = new ByteArrayOutputStream();
+    final List<long[]> sequenceIndex = new ArrayList<>();
+    final Map<String, List<Integer>> aggregateIndex = new LinkedHashMap<>();
+
+    byte[] deflateBuffer = new byte[8192];
+    long position;
+    boolean finished;
+
+    Writer(Path directory) throws IOException {
+      this.directory = directory;
+      this.tmpPath = Files.createTempFile(directory, "segment-", SUFFIX + ".tmp");
+      this.channel = FileChannel.open(tmpPath, StandardOpenOption.WRITE);
+    }
+
+    int size() {
+      return sequenceIndex.size();
+    }
+
+    long lastUowSequence() {
+      return sequenceIndex.isEmpty() ? 0L : sequenceIndex.get(sequenceIndex.size() - 1)[0];
+    }
+
+    void append(Record record) throws IOException {
+
+      if (!sequenceIndex.isEmpty() && record.getUowSequence() <= lastUowSequence()) {
+        throw new IllegalArgumentException("uowSequence " + record.getUowSequence() + " after " + lastUowSequence());
+      }
+
+      rawBytes.reset();
+      try (DataOutputStream data = new DataOutputStream(rawBytes)) {
+        data.writeUTF(record.getUowId());
+        data.writeUTF(record.getAggregateRootName());
+        data.writeUTF(record.getAggregateRootId());
+        final byte[] events = record.getEventsAsJson().getBytes(StandardCharsets.UTF_8);
+        data.writeInt(events.length);
+        data.write(events);
+      }
+      final byte[] raw = rawBytes.toByteArray();
+
+      deflater.reset();
+      deflater.setInput(raw);
+      deflater.finish();
+      int deflatedLength = 0;
+      while (!deflater.finished()) {
+        if (deflatedLength == deflateBuffer.length) {
+          deflateBuffer = Arrays.copyOf(deflateBuffer, deflateBuffer.length * 2);
+        }
+        deflatedLength += deflater.deflate(deflateBuffer, deflatedLength, deflateBuffer.length - deflatedLength);
+      }
+
+      final ByteBuffer out = ByteBuffer.allocate(RECORD_HEADER_BYTES + deflatedLength);
+      out.putLong(record.getUowSequence())
+         .putLong(record.getVersion())
+         .putInt(raw.length)
+         .putInt(deflatedLength)
+         .put(deflateBuffer, 0, deflatedLength);
+      out.flip();
+
+      checkSize(out.remaining());
+
+      aggregateIndex.computeIfAbsent(aggregateKey(record.getAggregateRootName(), record.getAggregateRootId()),
+              k -> new ArrayList<>()).add(sequenceIndex.size());
+      sequenceIndex.add(new long[] {record.getUowSequence(), position});
+
+      position += writeFully(out);
+
+    }
+
+    // writes both indexes and the trailer, fsyncs and renames it to its final name on the directory
+    Path finish() throws IOException {
+
+      if (sequenceIndex.isEmpty()) {
+        throw new IllegalStateException("an units of work segment can't be empty");
+      }
+
+      final long sequenceIndexOffset = position;
+      final ByteBuffer sequences = ByteBuffer.allocate(4 + sequenceIndex.size() * 12);
+      sequences.putInt(sequenceIndex.size());
+      sequenceIndex.forEach(entry -> sequences.putLong(entry[0]).putInt((int) entry[1]));
+      sequences.flip();
+      checkSize(sequences.remaining());
+      position += writeFully(sequences);
+
+      final long aggregateIndexOffset = position;
+      final ByteArrayOutputStream aggregatesBytes = new ByteArrayOutputStream();
+      try (DataOutputStream data = new DataOutputStream(aggregatesBytes)) {
+        data.writeInt(aggregateIndex.size());
+        for (Map.Entry<String, List<Integer>> entry : aggregateIndex.entrySet()) {
+          final byte[] key = entry.getKey().getBytes(StandardCharsets.UTF_8);
+          data.writeShort(key.length);
+          data.write(key);
+          data.writeInt(entry.getValue().size());
+          for (Integer recordPosition : entry.getValue()) {
+            data.writeInt(recordPosition);
+          }
+        }
+      }
+      final ByteBuffer aggregates = ByteBuffer.wrap(aggregatesBytes.toByteArray());
+      checkSize(aggregates.remaining() + TRAILER_BYTES);
+      position += writeFully(aggregates);
+
+      final ByteBuffer trailer = ByteBuffer.allocate(TRAILER_BYTES);
+      trailer.putLong(sequenceIndexOffset).putLong(aggregateIndexOffset).putInt(MAGIC);
+      trailer.flip();
+      position += writeFully(trailer);
+
+      channel.force(true);
+      channel.close();
+      deflater.end();
+      finished = true;
+
+      final Path path = directory.resolve(fileName(sequenceIndex.get(0)[0], lastUowSequence()));
+      return Files.move(tmpPath, path, StandardCopyOption.ATOMIC_MOVE);
+
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (!finished) {
+        channel.close();
+        deflater.end();
+        Files.deleteIfExists(tmpPath);
+      }
+    }
+
+    private void checkSize(int bytes) {
+      // offsets are ints and the whole file is mapped at once
+      if (position + bytes > Integer.MAX_VALUE) {
+        throw new IllegalStateException("units of work segment over 2GB: archive smaller partitions");
+      }
+    }
+
+    private int writeFully(ByteBuffer bytes) throws IOException {
+      final int size = bytes.remaining();
+      while (bytes.hasRemaining()) {
+        channel.write(bytes);
+      }
+      return size;
+    }
+
+  }
+
+}
@@ -0,0 +1,64 @@
+package crabzilla.vertx.repositories;
+
+import java.util.UUID;
+
+// what: UUIDs as 32 hex chars, to be stored on BINARY(16) columns with UNHEX(?) and read back with HEX(column)
+// how: straight from and to the two longs of the UUID, with a single char array and no regex or split
+
+final class UuidCodec {
+
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+  private UuidCodec() {
+  }
+
+  static String toHex(UUID uuid) {
+    final char[] out = new char[32];
+    writeHex(uuid.getMostSignificantBits(), out, 0);
+    writeHex(uuid.getLeastSignificantBits(), out, 16);
+    return new String(out);
+  }
+
+  static UUID fromHex(String hex) {
+    if (hex.length() != 32) {
+      throw new IllegalArgumentException("not an UUID in hex: " + hex);
+    }
+    return new UUID(readHex(hex, 0), readHex(hex, 16));
+  }
+
+  // 8-4-4-4-12 form, as UUID.toString() does
+  static String canonicalFromHex(String hex) {
+    if (hex.length() != 32) {
+      throw new IllegalArgumentException("not an UUID in hex: " + hex);
+    }
+    final char[] out = new char[36];
+    int j = 0;
+    for (int i = 0; i < 32; i++) {
+      if (i == 8 || i == 12 || i == 16 || i == 20) {
+        out[j++] = '-';
+      }
+      out[j++] = Character.toLowerCase(hex.charAt(i));
+    }
+    return new String(out);
+  }
+
+  private static void writeHex(long bits, char[] out, int offset) {
+    for (int i = 15; i >= 0; i--) {
+      out[offset + i] = HEX_DIGITS[(int) (bits & 0xF)];
+      bits >>>= 4;
+    }
+  }
+
+  private static long readHex(String hex, int offset) {
+    long bits = 0;
+    for (int i = offset; i < offset + 16; i++) {
+      final int digit = Character.digit(hex.charAt(i), 16);
+      if (digit < 0) {
+        throw new IllegalArgumentException("not an UUID in hex: " + hex);
+      }
+      bits = bits << 4 | digit;
+    }
+    return bits;
+  }
+
+}
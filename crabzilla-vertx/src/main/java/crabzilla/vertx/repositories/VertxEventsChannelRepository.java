@@ -0,0 +1,116 @@
+package crabzilla.vertx.repositories;
+
+import io.vertx.core.Future;
+import io.vertx.core.json.JsonArray;
+import io.vertx.ext.jdbc.JDBCClient;
+import io.vertx.ext.sql.ResultSet;
+import io.vertx.ext.sql.UpdateResult;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+
+import static crabzilla.vertx.repositories.VertxSqlHelper.*;
+
+// keeps the last uow_seq_number delivered to each events channel (relays and projections)
+
+@Slf4j
+public class VertxEventsChannelRepository {
+
+  private final JDBCClient client;
+
+  public VertxEventsChannelRepository(@NonNull JDBCClient client) {
+    this.client = client;
+  }
+
+  public void getLastUowSeq(@NonNull final String channelName, @NonNull final Future<Long> getFuture) {
+
+    val SELECT_LAST_SEQ = "select uow_last_seq from events_channels where channel_name = ? ";
+    val params = new JsonArray().add(channelName);
+
+    client.getConnection(getConn -> {
+
+      if (getConn.failed()) {
+        getFuture.fail(getConn.cause());
+        return;
+      }
+
+      val sqlConn = getConn.result();
+
+      Future<ResultSet> resultSetFuture = Future.future();
+
+      queryWithParams(sqlConn, SELECT_LAST_SEQ, params, resultSetFuture);
+
+      resultSetFuture.setHandler(resultSetAsyncResult -> {
+        if (resultSetAsyncResult.failed()) {
+          getFuture.fail(resultSetAsyncResult.cause());
+          sqlConn.close();
+          return;
+        }
+
+        val rows = resultSetAsyncResult.result().getRows();
+        val lastSeq = rows.isEmpty() ? null : rows.get(0).getLong("uow_last_seq");
+
+        getFuture.complete(lastSeq == null ? 0L : lastSeq);
+
+        sqlConn.close(done -> {
+          if (done.failed()) {
+            throw new RuntimeException(done.cause());
+          }
+        });
+
+      });
+
+    });
+
+  }
+
+  public void updateLastUowSeq(@NonNull final String channelName, @NonNull final Long lastUowSeq,
+                               @NonNull final Future<Void> updateFuture) {
+
+    val UPSERT_LAST_SEQ = "insert into events_channels (channel_name, uow_last_seq) values (?, ?) " +
+            "on duplicate key update uow_last_seq = greatest(coalesce(uow_last_seq, 0), values(uow_last_seq))";
+
+    val params = new JsonArray().add(channelName).add(lastUowSeq);
+
+    client.getConnection(getConn -> {
+
+      if (getConn.failed()) {
+        updateFuture.fail(getConn.cause());
+        return;
+      }
+
+      val sqlConn = getConn.result();
+
+      Future<Void> startTxFuture = Future.future();
+
+      startTx(sqlConn, startTxFuture);
+
+      startTxFuture.compose(v -> {
+
+        Future<UpdateResult> updateResultFuture = Future.future();
+        updateWithParams(sqlConn, UPSERT_LAST_SEQ, params, updateResultFuture);
+        return updateResultFuture;
+
+      }).compose(updateResult -> {
+
+        Future<Void> commitFuture = Future.future();
+        commitTx(sqlConn, commitFuture);
+        return commitFuture;
+
+      }).setHandler(done -> {
+
+        if (done.failed()) {
+          updateFuture.fail(done.cause());
+        } else {
+          updateFuture.complete();
+        }
+
+        sqlConn.close();
+
+      });
+
+    });
+
+  }
+
+}
@@ -3,27 +3,52 @@ package crabzilla.vertx.repositories;
 import com.fasterxml.jackson.core.type.TypeReference;
 import crabzilla.model.Event;
 import crabzilla.vertx.ProjectionData;
+import io.vertx.core.Future;
 import io.vertx.core.json.Json;
 import io.vertx.core.json.JsonArray;
 import io.vertx.ext.jdbc.JDBCClient;
+import io.vertx.ext.sql.SQLRowStream;
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 import java.util.function.BiFunction;
 
+import static crabzilla.vertx.repositories.UuidCodec.canonicalFromHex;
+import static crabzilla.vertx.repositories.VertxSqlHelper.queryStreamWithParams;
+
 @Slf4j
 public class VertxProjectionRepository implements BiFunction<Long, Integer, List<ProjectionData>> {
 
+  // uow_id is BINARY(16): read as hex
+  private static final String PROJECTION_COLUMNS = "HEX(u.uow_id), u.uow_seq_number, u.ar_id, u.uow_events ";
+
   private final JDBCClient client;
+  private final UnitOfWorkHotTail hotTail;
+  private final UnitOfWorkArchive archive;
 
   private final TypeReference<List<Event>> eventsListTpe =  new TypeReference<List<Event>>() {};
 
   public VertxProjectionRepository(@NonNull JDBCClient client) {
+    this(client, null);
+  }
+
+  // when a hot tail is given, selectAfterUowSequence is served from it when the next sequences are resident
+  public VertxProjectionRepository(@NonNull JDBCClient client, UnitOfWorkHotTail hotTail) {
+    this(client, hotTail, null);
+  }
+
+  // when an archive is given, whatever is at or below its last uowSequence is read from it
+  public VertxProjectionRepository(@NonNull JDBCClient client, UnitOfWorkHotTail hotTail,
+                                   UnitOfWorkArchive archive) {
     this.client = client;
+    this.hotTail = hotTail;
+    this.archive = archive;
   }
 
   @Override
@@ -31,8 +56,8 @@ public class VertxProjectionRepository implements BiFunction<Long, Integer, List
 
     log.info("will load a maximum of {} units unitOfWork work since sequence {}", maxResultSize, sinceUowSequence);
 
-    val SELECT_SINCE_UOW_SEQ = "select uow_id, uow_seq_number, ar_id, uow_events " +
-            "from units_of_work where uow_seq_number > ? order by uow_seq_number limit %d";
+    val SELECT_SINCE_UOW_SEQ = "select " + PROJECTION_COLUMNS +
+            "from units_of_work u where u.uow_seq_number > ? order by u.uow_seq_number limit %d";
     val result = new ArrayList<ProjectionData>();
     val params = new JsonArray().add(sinceUowSequence);
 
@@ -48,7 +73,7 @@ public class VertxProjectionRepository implements BiFunction<Long, Integer, List
             stream.result().handler(row -> {
               // uow_id, uow_seq_number, ar_id, uow_events
               val events = readEvents(row.getString(3));
-              val projectionData = new ProjectionData(row.getString(0), row.getLong(1),
+              val projectionData = new ProjectionData(canonicalFromHex(row.getString(0)), row.getLong(1),
                       row.getString(2), events);
               result.add(projectionData);
             });
@@ -71,6 +96,156 @@ public class VertxProjectionRepository implements BiFunction<Long, Integer, List
 
   }
 
+  public void selectAfterUowSequence(@NonNull final Long sinceUowSequence, @NonNull final Integer maxResultSize,
+                                     @NonNull final Future<List<ProjectionData>> selectFuture) {
+
+    log.debug("will load a maximum of {} units of work since sequence {}", maxResultSize, sinceUowSequence);
+
+    if (hotTail != null) {
+      val resident = hotTail.selectAfterUowSequence(sinceUowSequence, maxResultSize);
+      if (resident.isPresent()) {
+        selectFuture.complete(resident.get());
+        return;
+      }
+    }
+
+    if (archive != null && sinceUowSequence < archive.lastUowSequence()) {
+      selectArchivedFirst(sinceUowSequence, maxResultSize, Collections.emptySet(), selectFuture);
+      return;
+    }
+
+    val SELECT_SINCE_UOW_SEQ = "select " + PROJECTION_COLUMNS +
+            "from units_of_work u where u.uow_seq_number > ? order by u.uow_seq_number limit ?";
+
+    val params = new JsonArray().add(sinceUowSequence).add(maxResultSize);
+
+    select(SELECT_SINCE_UOW_SEQ, params, maxResultSize, selectFuture);
+
+  }
+
+  // only units of work having at least one event of the given types (simple class names): the filter is on SQL
+  public void selectAfterUowSequence(@NonNull final Long sinceUowSequence, @NonNull final Integer maxResultSize,
+                                     @NonNull final Set<String> eventTypes,
+                                     @NonNull final Future<List<ProjectionData>> selectFuture) {
+
+    if (eventTypes.isEmpty()) {
+      selectAfterUowSequence(sinceUowSequence, maxResultSize, selectFuture);
+      return;
+    }
+
+    log.debug("will load a maximum of {} units of work with events {} since sequence {}",
+            maxResultSize, eventTypes, sinceUowSequence);
+
+    if (archive != null && sinceUowSequence < archive.lastUowSequence()) {
+      selectArchivedFirst(sinceUowSequence, maxResultSize, eventTypes, selectFuture);
+      return;
+    }
+
+    val SELECT_SINCE_UOW_SEQ_BY_EVENT_TYPES = "select " + PROJECTION_COLUMNS +
+            "from (select distinct uow_seq_number from uow_event_types " +
+            "       where event_type in (" + String.join(", ", Collections.nCopies(eventTypes.size(), "?")) + ") " +
+            "         and uow_seq_number > ? order by uow_seq_number limit ?) t " +
+            "join units_of_work u on u.uow_seq_number = t.uow_seq_number " +
+            "order by u.uow_seq_number";
+
+    val params = new JsonArray();
+    eventTypes.forEach(params::add);
+    params.add(sinceUowSequence).add(maxResultSize);
+
+    select(SELECT_SINCE_UOW_SEQ_BY_EVENT_TYPES, params, maxResultSize, selectFuture);
+
+  }
+
+  // the archive has everything up to its last uowSequence, so the database is only read for what is above it
+  private void selectArchivedFirst(Long sinceUowSequence, Integer maxResultSize, Set<String> eventTypes,
+                                   Future<List<ProjectionData>> selectFuture) {
+
+    val archivedUpTo = archive.lastUowSequence();
+
+    Future<List<ProjectionData>> archivedFuture = Future.future();
+
+    archive.selectAfterUowSequence(sinceUowSequence, maxResultSize, eventTypes, archivedFuture);
+
+    archivedFuture.<List<ProjectionData>>compose(archived -> {
+
+      if (archived.size() == maxResultSize) {
+        return Future.succeededFuture(archived);
+      }
+
+      // a segment may have been added meanwhile: the archive was then read up to its end
+      val after = archived.isEmpty() ? archivedUpTo :
+              Math.max(archivedUpTo, archived.get(archived.size() - 1).getUowSequence());
+
+      Future<List<ProjectionData>> liveFuture = Future.future();
+
+      selectAfterUowSequence(after, maxResultSize - archived.size(), eventTypes, liveFuture);
+
+      return liveFuture.map(live -> {
+        final List<ProjectionData> result = new ArrayList<>(archived);
+        result.addAll(live);
+        return result;
+      });
+
+    }).setHandler(selectFuture.completer());
+
+  }
+
+  private void select(String sql, JsonArray params, Integer maxResultSize,
+                      Future<List<ProjectionData>> selectFuture) {
+
+    client.getConnection(getConn -> {
+
+      if (getConn.failed()) {
+        selectFuture.fail(getConn.cause());
+        return;
+      }
+
+      val sqlConn = getConn.result();
+
+      Future<SQLRowStream> streamFuture = Future.future();
+
+      queryStreamWithParams(sqlConn, sql, params, streamFuture);
+
+      streamFuture.setHandler(ar -> {
+        if (ar.failed()) {
+          selectFuture.fail(ar.cause());
+          sqlConn.close();
+          return;
+        }
+
+        SQLRowStream stream = ar.result();
+
+        val result = new ArrayList<ProjectionData>(maxResultSize);
+
+        stream
+          .resultSetClosedHandler(v -> stream.moreResults())
+          .handler(row -> {
+
+            // uow_id, uow_seq_number, ar_id, uow_events
+            val events = readEvents(row.getString(3));
+            result.add(new ProjectionData(canonicalFromHex(row.getString(0)), row.getLong(1), row.getString(2),
+                    events));
+
+          }).endHandler(event -> {
+
+            log.debug("found {} units of work", result.size());
+
+            selectFuture.complete(result);
+
+            sqlConn.close(done -> {
+              if (done.failed()) {
+                throw new RuntimeException(done.cause());
+              }
+            });
+
+          });
+
+      });
+
+    });
+
+  }
+
   private List<Event> readEvents(String eventsAsJson) {
     try {
       return Json.mapper.readerFor(eventsListTpe).readValue(eventsAsJson);
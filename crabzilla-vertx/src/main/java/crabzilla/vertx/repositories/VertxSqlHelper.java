@@ -76,6 +76,17 @@ class VertxSqlHelper {
     });
   }
 
+  static void rollbackTx(SQLConnection conn, Future<Void> future) {
+    conn.rollback(res -> {
+      if (res.failed()) {
+        future.fail(res.cause());
+        return;
+      }
+
+      future.complete(null);
+    });
+  }
+
   static void commitTx(SQLConnection conn, Future<Void> future) {
     conn.commit(res -> {
       if (res.failed()) {
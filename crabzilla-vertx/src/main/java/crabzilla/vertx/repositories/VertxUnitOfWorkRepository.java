@@ -12,12 +12,15 @@ import crabzilla.model.SnapshotData;
 import crabzilla.model.UnitOfWork;
 import crabzilla.model.Version;
 import crabzilla.vertx.util.DbConcurrencyException;
+import crabzilla.vertx.util.DuplicateCommandException;
 import io.vertx.core.Future;
+import io.vertx.core.Handler;
 import io.vertx.core.json.Json;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.jdbc.JDBCClient;
 import io.vertx.ext.sql.ResultSet;
+import io.vertx.ext.sql.SQLConnection;
 import io.vertx.ext.sql.SQLRowStream;
 import io.vertx.ext.sql.UpdateResult;
 import lombok.NonNull;
@@ -25,36 +28,59 @@ import lombok.extern.slf4j.Slf4j;
 import lombok.val;
 
 import java.io.IOException;
+import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.stream.Collectors;
 
+import static crabzilla.vertx.repositories.UuidCodec.*;
 import static crabzilla.vertx.repositories.VertxSqlHelper.*;
 
 @Slf4j
-public class VertxUnitOfWorkRepository {
+public class VertxUnitOfWorkRepository implements UnitOfWorkRepository {
 
   private static final String UOW_ID = "uow_id";
   private static final String UOW_EVENTS = "uow_events";
   private static final String CMD_DATA = "cmd_data";
   private static final String VERSION = "version";
+  private static final int ER_DUP_ENTRY = 1062;
 
   private final String aggregateRootName;
   private final JDBCClient client;
+  private final UnitOfWorkHotTail hotTail;
+  private final UnitOfWorkArchive archive;
 
   private final TypeReference<List<Event>> eventsListTpe =  new TypeReference<List<Event>>() {};
 
   public VertxUnitOfWorkRepository(@NonNull Class<? extends AggregateRoot> aggregateRootName, @NonNull JDBCClient client) {
+    this(aggregateRootName, client, null);
+  }
+
+  // when a hot tail is given, appends populate it and selectAfterVersion is served from it when fully resident and
+  // the caller vouches for the last version: it only holds the appends of this node
+  public VertxUnitOfWorkRepository(@NonNull Class<? extends AggregateRoot> aggregateRootName, @NonNull JDBCClient client,
+                                   UnitOfWorkHotTail hotTail) {
+    this(aggregateRootName, client, hotTail, null);
+  }
+
+  // when an archive is given, aggregates having units of work on it are loaded from both tiers
+  public VertxUnitOfWorkRepository(@NonNull Class<? extends AggregateRoot> aggregateRootName, @NonNull JDBCClient client,
+                                   UnitOfWorkHotTail hotTail, UnitOfWorkArchive archive) {
     this.aggregateRootName = aggregateRootName.getSimpleName();
     this.client = client;
+    this.hotTail = hotTail;
+    this.archive = archive;
   }
 
+  @Override
   public void get(@NonNull final UUID uowId, @NonNull final Future<Optional<UnitOfWork>> getFuture) {
 
-    val SELECT_UOW_BY_ID = "select * from units_of_work where uow_id =? ";
-    val params = new JsonArray().add(uowId.toString());
+    val SELECT_UOW_BY_ID = "select HEX(uow_id) as uow_id, uow_events, cmd_data, version " +
+            "from units_of_work where uow_id = UNHEX(?) ";
+    val params = new JsonArray().add(toHex(uowId));
 
     client.getConnection(getConn -> {
 
@@ -85,7 +111,7 @@ public class VertxUnitOfWorkRepository {
           for (JsonObject row : rows) {
             val command = Json.decodeValue(row.getString(CMD_DATA), Command.class);
             final List<Event> events = readEvents(row.getString(UOW_EVENTS));
-            val uow = new UnitOfWork(UUID.fromString(row.getString(UOW_ID)), command,
+            val uow = new UnitOfWork(fromHex(row.getString(UOW_ID)), command,
                     new Version(row.getLong(VERSION)), events);
             getFuture.complete(Optional.of(uow));
           }
@@ -103,18 +129,143 @@ public class VertxUnitOfWorkRepository {
 
   }
 
+  // on the (cmd_id, ar_name) unique key
+  @Override
+  public void getUowSequence(@NonNull final UUID commandId, @NonNull final Future<Optional<Long>> getUowSequenceFuture) {
+
+    val SELECT_UOW_SEQUENCE_BY_CMD_ID = "select uow_seq_number from units_of_work " +
+            "where cmd_id = UNHEX(?) and ar_name = ? ";
+    val params = new JsonArray().add(toHex(commandId)).add(aggregateRootName);
+
+    client.getConnection(getConn -> {
+
+      if (getConn.failed()) {
+        getUowSequenceFuture.fail(getConn.cause());
+        return;
+      }
+
+      val sqlConn = getConn.result();
+
+      Future<ResultSet> resultSetFuture = Future.future();
+
+      queryWithParams(sqlConn, SELECT_UOW_SEQUENCE_BY_CMD_ID, params, resultSetFuture);
+
+      resultSetFuture.setHandler(resultSetAsyncResult -> {
+        if (resultSetAsyncResult.failed()) {
+          getUowSequenceFuture.fail(resultSetAsyncResult.cause());
+        } else {
+          val rows = resultSetAsyncResult.result().getRows();
+          getUowSequenceFuture.complete(rows.isEmpty() ? Optional.empty() :
+                  Optional.of(rows.get(0).getLong("uow_seq_number")));
+        }
+
+        sqlConn.close(done -> {
+          if (done.failed()) {
+            throw new RuntimeException(done.cause());
+          }
+        });
+
+      });
+
+    });
+
+  }
+
+  // backwards on the primary key, within the ar_name partition
+  @Override
+  public void selectRecentCommandIds(int maxResultSize, @NonNull final Future<List<UUID>> selectFuture) {
+
+    val SELECT_RECENT_CMD_IDS = "select HEX(cmd_id) as cmd_id from units_of_work " +
+            "where ar_name = ? order by uow_seq_number desc limit ? ";
+    val params = new JsonArray().add(aggregateRootName).add(maxResultSize);
+
+    client.getConnection(getConn -> {
+
+      if (getConn.failed()) {
+        selectFuture.fail(getConn.cause());
+        return;
+      }
+
+      val sqlConn = getConn.result();
+
+      Future<ResultSet> resultSetFuture = Future.future();
+
+      queryWithParams(sqlConn, SELECT_RECENT_CMD_IDS, params, resultSetFuture);
+
+      resultSetFuture.setHandler(resultSetAsyncResult -> {
+        if (resultSetAsyncResult.failed()) {
+          selectFuture.fail(resultSetAsyncResult.cause());
+        } else {
+          selectFuture.complete(resultSetAsyncResult.result().getRows().stream()
+                  .map(row -> fromHex(row.getString("cmd_id")))
+                  .collect(Collectors.toList()));
+        }
+
+        sqlConn.close(done -> {
+          if (done.failed()) {
+            throw new RuntimeException(done.cause());
+          }
+        });
+
+      });
+
+    });
+
+  }
+
+  @Override
   public void selectAfterVersion(@NonNull final String id, @NonNull final Version version,
                                  @NonNull final Future<SnapshotData> selectAfterVersionFuture) {
 
     log.info("will load id [{}] after version [{}]", id, version.getValueAsLong());
 
-    val SELECT_AFTER_VERSION = "select uow_events, version from units_of_work " +
-            " where ar_id = ? " +
-            "   and ar_name = ? " +
-            "   and version > ? " +
-            " order by version ";
+    if (archive != null && archive.lastVersion(aggregateRootName, id) > version.getValueAsLong()) {
+
+      Future<SnapshotData> archivedFuture = Future.future();
+
+      archive.selectAfterVersion(aggregateRootName, id, version, archivedFuture);
+
+      archivedFuture.compose(archived -> {
+        Future<SnapshotData> liveFuture = Future.future();
+        selectAfterVersionFromDb(id, archived.getVersion(), liveFuture);
+        return liveFuture.map(live -> {
+          if (live.getVersion().getValueAsLong() == 0) {
+            return archived;
+          }
+          final List<Event> events = new ArrayList<>(archived.getEvents());
+          events.addAll(live.getEvents());
+          return new SnapshotData(live.getVersion(), events);
+        });
+      }).setHandler(selectAfterVersionFuture.completer());
+
+      return;
+    }
+
+    selectAfterVersionFromDb(id, version, selectAfterVersionFuture);
+
+  }
+
+  @Override
+  public void selectAfterVersion(@NonNull final String id, @NonNull final Version version, final long lastVersion,
+                                 @NonNull final Future<SnapshotData> selectAfterVersionFuture) {
+
+    if (hotTail != null) {
+      val resident = hotTail.selectAfterVersion(aggregateRootName, id, version, lastVersion);
+      if (resident.isPresent()) {
+        selectAfterVersionFuture.complete(resident.get());
+        return;
+      }
+    }
+
+    selectAfterVersion(id, version, selectAfterVersionFuture);
+
+  }
+
+  private void selectAfterVersionFromDb(String id, Version version, Future<SnapshotData> selectAfterVersionFuture) {
+
+    val SELECT_AFTER_VERSION = selectAfterVersionSql();
 
-    val params = new JsonArray().add(id).add(aggregateRootName).add(version.getValueAsLong());
+    val params = new JsonArray().add(aggregateRootName).add(id).add(version.getValueAsLong());
 
     client.getConnection(getConn -> {
 
@@ -179,20 +330,23 @@ public class VertxUnitOfWorkRepository {
     });
   }
 
+  @Override
   public void append(@NonNull final UnitOfWork unitOfWork, Future<Either<Throwable, Long>> appendFuture) {
 
-    val SELECT_CURRENT_VERSION =
-            "select max(version) as last_version from units_of_work where ar_id = ? and ar_name = ? ";
+    val arId = unitOfWork.targetId().getStringValue();
+
+    val SELECT_CURRENT_VERSION = selectCurrentVersionSql();
 
     val INSERT_UOW = "insert into units_of_work " +
             "(uow_id, uow_events, cmd_id, cmd_data, ar_id, ar_name, version) " +
-            "values (?, ?, ?, ?, ?, ?, ?)";
+            "values (UNHEX(?), ?, UNHEX(?), ?, ?, ?, ?)";
 
 
     client.getConnection(conn -> {
 
       if (conn.failed()) {
         appendFuture.fail(conn.cause());
+        return;
       }
 
       val sqlConn = conn.result();
@@ -204,15 +358,13 @@ public class VertxUnitOfWorkRepository {
 
       startTxFuture.setHandler(startTxAsyncResult -> {
         if (startTxAsyncResult.failed()) {
-          appendFuture.fail(startTxAsyncResult.cause());
+          rollbackAndClose(sqlConn, v -> appendFuture.fail(startTxAsyncResult.cause()));
           return;
         }
 
-        // check current version  // TODO also check if command was not already processed given the commandId
+        // check current version. A command appended already is told apart by CommandHandlerVerticle (getUowSequence)
 
-        val params1 = new JsonArray()
-                .add(unitOfWork.targetId().getStringValue())
-                .add(aggregateRootName);
+        val params1 = new JsonArray().add(aggregateRootName).add(arId);
 
         Future<ResultSet> resultSetFuture = Future.future();
 
@@ -220,7 +372,7 @@ public class VertxUnitOfWorkRepository {
 
         resultSetFuture.setHandler(asyncResultResultSet -> {
           if (asyncResultResultSet.failed()) {
-            appendFuture.fail(asyncResultResultSet.cause());
+            rollbackAndClose(sqlConn, v -> appendFuture.fail(asyncResultResultSet.cause()));
             return;
           }
 
@@ -229,6 +381,11 @@ public class VertxUnitOfWorkRepository {
 
           currentVersion = currentVersion == null ? 0L : currentVersion;
 
+          if (archive != null) {
+            // all of its units of work may be archived already
+            currentVersion = Math.max(currentVersion, archive.lastVersion(aggregateRootName, arId));
+          }
+
           log.info("Found version  {}", currentVersion);
 
           if (currentVersion != unitOfWork.getVersion().getValueAsLong() - 1) {
@@ -238,14 +395,12 @@ public class VertxUnitOfWorkRepository {
                             unitOfWork.targetId().getStringValue(),
                             currentVersion, unitOfWork.getVersion().getValueAsLong())) ;
 
-            appendFuture.complete(Eithers.left(error));
+            // another writer got there first, so whatever this node has in memory for it is stale
+            if (hotTail != null) {
+              hotTail.invalidate(aggregateRootName, unitOfWork.targetId().getStringValue());
+            }
 
-            // and close the connection
-            sqlConn.close(done -> {
-              if (done.failed()) {
-                throw new RuntimeException(done.cause());
-              }
-            });
+            rollbackAndClose(sqlConn, v -> appendFuture.complete(Eithers.left(error)));
 
             return ;
           }
@@ -256,11 +411,11 @@ public class VertxUnitOfWorkRepository {
           val eventsAsJson = writeValueAsString(Json.mapper.writerFor(eventsListTpe), unitOfWork.getEvents());
 
           val params2 = new JsonArray()
-                  .add(unitOfWork.getUnitOfWorkId().toString())
+                  .add(toHex(unitOfWork.getUnitOfWorkId()))
                   .add(eventsAsJson)
-                  .add(unitOfWork.getCommand().getCommandId().toString())
+                  .add(toHex(unitOfWork.getCommand().getCommandId()))
                   .add(cmdAsJson)
-                  .add(unitOfWork.targetId().getStringValue())
+                  .add(arId)
                   .add(aggregateRootName)
                   .add(unitOfWork.getVersion().getValueAsLong());
 
@@ -270,24 +425,51 @@ public class VertxUnitOfWorkRepository {
 
           updateResultFuture.setHandler(asyncResultUpdateResult -> {
             if (asyncResultUpdateResult.failed()) {
-              appendFuture.fail(asyncResultUpdateResult.cause());
+              val cause = asyncResultUpdateResult.cause();
+              rollbackAndClose(sqlConn, v -> {
+                if (isDuplicateCommand(cause)) {
+                  // the same command, appended meanwhile by another handler: told apart by CommandHandlerVerticle
+                  appendFuture.complete(Eithers.left(new DuplicateCommandException(
+                          String.format("cmd_id = [%s], ar_name = [%s]", unitOfWork.getCommand().getCommandId(),
+                                  aggregateRootName))));
+                  return;
+                }
+                appendFuture.fail(cause);
+              });
               return;
             }
 
             UpdateResult updateResult = asyncResultUpdateResult.result();
 
+            val uowSequence = updateResult.getKeys().getLong(0);
+
+            Future<UpdateResult> eventTypesFuture = Future.future();
+
+            // event type names on their own indexed table, so projections can filter on the database
+            insertEventTypes(sqlConn, uowSequence, unitOfWork, eventTypesFuture);
+
             Future<Void> commitFuture = Future.future();
 
-            // commit data
-            commitTx(sqlConn, commitFuture);
+            eventTypesFuture.setHandler(eventTypesAsyncResult -> {
+              if (eventTypesAsyncResult.failed()) {
+                rollbackAndClose(sqlConn, v -> appendFuture.fail(eventTypesAsyncResult.cause()));
+                return;
+              }
+              // commit data
+              commitTx(sqlConn, commitFuture);
+            });
 
             commitFuture.setHandler(commitAsyncResult -> {
               if (commitAsyncResult.failed()) {
-                appendFuture.fail(commitAsyncResult.cause());
+                rollbackAndClose(sqlConn, v -> appendFuture.fail(commitAsyncResult.cause()));
                 return;
               }
 
-              appendFuture.complete(Eithers.right(updateResult.getKeys().getLong(0)));
+              if (hotTail != null) {
+                hotTail.add(uowSequence, aggregateRootName, unitOfWork, cmdAsJson.length() + eventsAsJson.length());
+              }
+
+              appendFuture.complete(Eithers.right(uowSequence));
 
               // and close the connection
               sqlConn.close(done -> {
@@ -313,6 +495,81 @@ public class VertxUnitOfWorkRepository {
 
   }
 
+  // undoes whatever the transaction did and gives the connection back, then goes on even if either failed
+  static void rollbackAndClose(SQLConnection sqlConn, Handler<Void> then) {
+
+    Future<Void> rollbackFuture = Future.future();
+
+    rollbackTx(sqlConn, rollbackFuture);
+
+    rollbackFuture.setHandler(rollbackAsyncResult -> {
+      if (rollbackAsyncResult.failed()) {
+        log.warn("rollback failed", rollbackAsyncResult.cause());
+      }
+      sqlConn.close(done -> {
+        if (done.failed()) {
+          log.warn("close failed", done.cause());
+        }
+        then.handle(null);
+      });
+    });
+
+  }
+
+  // MySQL's ER_DUP_ENTRY on the (cmd_id, ar_name) unique key. uow_id is generated, so it is never the one hit
+  static boolean isDuplicateCommand(Throwable error) {
+    for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+      if (cause instanceof SQLException && ((SQLException) cause).getErrorCode() == ER_DUP_ENTRY
+              && String.valueOf(cause.getMessage()).contains("cmd_id")) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  void insertEventTypes(SQLConnection sqlConn, Long uowSequence, UnitOfWork unitOfWork,
+                        Future<UpdateResult> future) {
+
+    final List<String> eventTypes = eventTypes(unitOfWork);
+
+    if (eventTypes.isEmpty()) {
+      future.complete(new UpdateResult());
+      return;
+    }
+
+    val INSERT_EVENT_TYPES = "insert into uow_event_types (event_type, uow_seq_number) values " +
+            String.join(", ", Collections.nCopies(eventTypes.size(), "(?, ?)"));
+
+    val params = new JsonArray();
+    eventTypes.forEach(eventType -> params.add(eventType).add(uowSequence));
+
+    updateWithParams(sqlConn, INSERT_EVENT_TYPES, params, future);
+
+  }
+
+  // both on idx_uow_ar (ar_name, ar_id, version): a range scan already in version order
+  static String selectAfterVersionSql() {
+    return "select uow_events, version from units_of_work " +
+            " where ar_name = ? " +
+            "   and ar_id = ? " +
+            "   and version > ? " +
+            " order by version ";
+  }
+
+  // index only
+  static String selectCurrentVersionSql() {
+    return "select max(version) as last_version from units_of_work " +
+            " where ar_name = ? " +
+            "   and ar_id = ? ";
+  }
+
+  static List<String> eventTypes(UnitOfWork unitOfWork) {
+    return unitOfWork.getEvents().stream()
+            .map(event -> event.getClass().getSimpleName())
+            .distinct()
+            .collect(Collectors.toList());
+  }
+
   String writeValueAsString(ObjectWriter writer, Object obj) {
     try {
       return writer.writeValueAsString(obj);
@@ -0,0 +1,96 @@
+package crabzilla.vertx.util;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// what: where blocking code (command handlers, projectors) runs: on the Vert.x worker pool or on a virtual thread
+// per call, so handlers waiting on slow services don't hold the ~20 workers of the pool
+// how: virtual threads are looked up by reflection (Java 21+), falling back to the worker pool on older runtimes. The
+// result handler is called back on the context of the caller, as executeBlocking does. Ordered calls of an executor
+// run one after the other, also like executeBlocking on a context
+
+@Slf4j
+public class BlockingExecutor {
+
+  final Vertx vertx;
+  final ExecutorService virtualThreads;
+
+  CompletableFuture<Void> orderedTail = CompletableFuture.completedFuture(null);
+
+  BlockingExecutor(@NonNull Vertx vertx, ExecutorService virtualThreads) {
+    this.vertx = vertx;
+    this.virtualThreads = virtualThreads;
+  }
+
+  public static BlockingExecutor workerPool(@NonNull Vertx vertx) {
+    return new BlockingExecutor(vertx, null);
+  }
+
+  public static BlockingExecutor virtualThreads(@NonNull Vertx vertx) {
+    final ExecutorService executor = newVirtualThreadPerTaskExecutor();
+    if (executor == null) {
+      log.warn("virtual threads are not available on Java {}: using the worker pool",
+              System.getProperty("java.version"));
+    }
+    return new BlockingExecutor(vertx, executor);
+  }
+
+  public boolean usesVirtualThreads() {
+    return virtualThreads != null;
+  }
+
+  public <T> void execute(@NonNull Handler<Future<T>> blockingCode, boolean ordered,
+                          @NonNull Handler<AsyncResult<T>> resultHandler) {
+
+    if (virtualThreads == null) {
+      vertx.executeBlocking(blockingCode, ordered, resultHandler);
+      return;
+    }
+
+    final Context context = vertx.getOrCreateContext();
+
+    final Runnable task = () -> {
+      final Future<T> future = Future.future();
+      future.setHandler(result -> context.runOnContext(v -> resultHandler.handle(result)));
+      try {
+        blockingCode.handle(future);
+      } catch (Throwable e) {
+        future.tryFail(e);
+      }
+    };
+
+    if (!ordered) {
+      virtualThreads.execute(task);
+      return;
+    }
+
+    synchronized (this) {
+      orderedTail = orderedTail.thenRunAsync(task, virtualThreads);
+    }
+  }
+
+  public void close() {
+    if (virtualThreads != null) {
+      virtualThreads.shutdown();
+    }
+  }
+
+  static ExecutorService newVirtualThreadPerTaskExecutor() {
+    try {
+      return (ExecutorService) Executors.class
+              .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException e) {
+      return null;
+    }
+  }
+
+}
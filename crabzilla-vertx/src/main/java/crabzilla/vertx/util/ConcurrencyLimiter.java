@@ -0,0 +1,90 @@
+package crabzilla.vertx.util;
+
+import io.vertx.core.json.JsonObject;
+
+import java.util.concurrent.TimeUnit;
+
+// what: how many requests may be in flight at once, adapting to the latency seen, so load beyond it is shed right away
+// instead of queueing up until it times out
+// how: AIMD, as TCP congestion control: a request slower than latencyThresholdMs (or failed) multiplies the limit by
+// backoffRatio, once per round of limit requests so a burst of slow ones doesn't collapse it. A fast one adds 1 when
+// at least half of the limit was in use, that is, while the limit is what holds the load back. Only requests that
+// got to the protected resource are samples: the others just give their slot back
+
+public class ConcurrencyLimiter {
+
+  final int minLimit;
+  final int maxLimit;
+  final long latencyThresholdNanos;
+  final double backoffRatio;
+
+  double limit;
+  int inFlight;
+  // samples to take before the limit may go down again
+  long samplesUntilDecrease;
+
+  long rejected;
+
+  public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, long latencyThresholdMs, double backoffRatio) {
+    if (minLimit < 1) throw new IllegalArgumentException("minLimit must be >= 1");
+    if (maxLimit < minLimit) throw new IllegalArgumentException("maxLimit must be >= minLimit");
+    if (initialLimit < minLimit || initialLimit > maxLimit) {
+      throw new IllegalArgumentException("initialLimit must be between minLimit and maxLimit");
+    }
+    if (latencyThresholdMs < 1) throw new IllegalArgumentException("latencyThresholdMs must be >= 1");
+    if (backoffRatio <= 0 || backoffRatio >= 1) throw new IllegalArgumentException("backoffRatio must be > 0 and < 1");
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+    this.latencyThresholdNanos = TimeUnit.MILLISECONDS.toNanos(latencyThresholdMs);
+    this.backoffRatio = backoffRatio;
+    this.limit = initialLimit;
+  }
+
+  public synchronized boolean tryAcquire() {
+    if (inFlight >= (int) limit) {
+      rejected++;
+      return false;
+    }
+    inFlight++;
+    return true;
+  }
+
+  // failed: the request failed for reasons that may be load (timeouts, errors of the protected resource)
+  public synchronized void release(long latencyNanos, boolean failed) {
+    sample(latencyNanos, failed);
+    release();
+  }
+
+  // with no sample: the request never got to the protected resource
+  public synchronized void release() {
+    inFlight--;
+  }
+
+  // a request holding its slot got to the protected resource. It may do so more than once before it is released
+  public synchronized void sample(long latencyNanos, boolean failed) {
+    final boolean saturated = inFlight * 2 >= (int) limit;
+    if (samplesUntilDecrease > 0) {
+      samplesUntilDecrease--;
+    }
+    if (failed || latencyNanos > latencyThresholdNanos) {
+      if (samplesUntilDecrease == 0) {
+        limit = Math.max(minLimit, limit * backoffRatio);
+        samplesUntilDecrease = (long) limit;
+      }
+    } else if (saturated) {
+      limit = Math.min(maxLimit, limit + 1);
+    }
+  }
+
+  public synchronized int limit() {
+    return (int) limit;
+  }
+
+  public synchronized JsonObject metrics() {
+    return new JsonObject()
+            .put("limit", (int) limit)
+            .put("inFlight", inFlight)
+            .put("rejected", rejected);
+  }
+
+}
@@ -0,0 +1,85 @@
+package crabzilla.vertx.util;
+
+import lombok.NonNull;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+// what: which cluster node owns each of a fixed number of partitions of the aggregate ids
+// how: an id always goes to the same partition (hash mod partitions), whatever the nodes are, so senders only need
+// the partition count. Partitions go to nodes on a ring of virtualNodes points per node: each partition is owned by
+// the first point at or after its own hash. A node joining or leaving only moves about 1 / nodes of the partitions.
+// Immutable: a new ring for each membership
+
+public class ConsistentHashRing {
+
+  public static final int DEFAULT_VIRTUAL_NODES = 64;
+
+  final int partitions;
+  final Set<String> nodes;
+  final String[] owners;
+
+  public ConsistentHashRing(int partitions, int virtualNodes, @NonNull Collection<String> nodes) {
+    if (partitions < 1) throw new IllegalArgumentException("partitions must be >= 1");
+    if (virtualNodes < 1) throw new IllegalArgumentException("virtualNodes must be >= 1");
+    if (nodes.isEmpty()) throw new IllegalArgumentException("there must be at least one node");
+
+    this.partitions = partitions;
+    this.nodes = Collections.unmodifiableSet(new TreeSet<>(nodes));
+
+    final TreeMap<Long, String> ring = new TreeMap<>();
+    for (String node : this.nodes) {
+      for (int i = 0; i < virtualNodes; i++) {
+        // on a collision the smallest node id keeps the point, on every node alike
+        ring.putIfAbsent(hash(node + "#" + i), node);
+      }
+    }
+
+    this.owners = new String[partitions];
+    for (int partition = 0; partition < partitions; partition++) {
+      final Map.Entry<Long, String> point = ring.ceilingEntry(hash("partition#" + partition));
+      owners[partition] = point == null ? ring.firstEntry().getValue() : point.getValue();
+    }
+  }
+
+  public static int partitionOf(@NonNull String id, int partitions) {
+    return (int) ((hash(id) & Long.MAX_VALUE) % partitions);
+  }
+
+  public int partitionOf(@NonNull String id) {
+    return partitionOf(id, partitions);
+  }
+
+  public String ownerOf(int partition) {
+    return owners[partition];
+  }
+
+  public Set<Integer> partitionsOf(@NonNull String node) {
+    final Set<Integer> owned = new TreeSet<>();
+    for (int partition = 0; partition < partitions; partition++) {
+      if (owners[partition].equals(node)) {
+        owned.add(partition);
+      }
+    }
+    return owned;
+  }
+
+  public Set<String> nodes() {
+    return nodes;
+  }
+
+  public int partitions() {
+    return partitions;
+  }
+
+  // FNV-1a over the UTF-8 bytes, then mixed: ids differing on their last chars still land far apart
+  static long hash(String key) {
+    long h = 0xcbf29ce484222325L;
+    for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+      h ^= b & 0xff;
+      h *= 0x100000001b3L;
+    }
+    return RotatingBloomFilter.mix(h);
+  }
+
+}
@@ -0,0 +1,9 @@
+package crabzilla.vertx.util;
+
+public class DuplicateCommandException extends RuntimeException {
+
+  public DuplicateCommandException(String s) {
+    super(s);
+  }
+
+}
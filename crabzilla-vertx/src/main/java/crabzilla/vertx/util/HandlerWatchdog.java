@@ -0,0 +1,104 @@
+package crabzilla.vertx.util;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+// what: reports handlers running on an event loop for longer than a time budget, while they are still running
+// how: each thread marks when its handler begins and ends. A daemon thread checks every checkIntervalMs and logs the
+// stack of the threads over budget, once per handler call; a call found over budget only when it ends is logged then.
+// Much like the Vert.x blocked thread checker, but with a budget fit for a handler instead of seconds
+
+@Slf4j
+public class HandlerWatchdog {
+
+  final String name;
+  final long budgetNanos;
+  final Map<Thread, Running> running = new ConcurrentHashMap<>();
+  final LongAdder overBudget = new LongAdder();
+  final ScheduledExecutorService checker;
+
+  public HandlerWatchdog(@NonNull String name, long budgetMs, long checkIntervalMs) {
+    if (budgetMs < 1) throw new IllegalArgumentException("budgetMs must be >= 1");
+    if (checkIntervalMs < 1) throw new IllegalArgumentException("checkIntervalMs must be >= 1");
+    this.name = name;
+    this.budgetNanos = TimeUnit.MILLISECONDS.toNanos(budgetMs);
+    this.checker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      final Thread thread = new Thread(runnable, name + "-watchdog");
+      thread.setDaemon(true);
+      return thread;
+    });
+    checker.scheduleAtFixedRate(this::check, checkIntervalMs, checkIntervalMs, TimeUnit.MILLISECONDS);
+  }
+
+  public void begin(@NonNull Object what) {
+    running.put(Thread.currentThread(), new Running(what, System.nanoTime()));
+  }
+
+  // how long the handler of this thread took, in nanos
+  public long end() {
+    final Running call = running.remove(Thread.currentThread());
+    if (call == null) {
+      return 0;
+    }
+    final long elapsedNanos = System.nanoTime() - call.startNanos;
+    if (elapsedNanos > budgetNanos && call.report()) {
+      log.warn("{}: {} took {} ms, over its budget of {} ms", name, call.what,
+              TimeUnit.NANOSECONDS.toMillis(elapsedNanos), TimeUnit.NANOSECONDS.toMillis(budgetNanos));
+    }
+    return elapsedNanos;
+  }
+
+  public long overBudget() {
+    return overBudget.sum();
+  }
+
+  public void close() {
+    checker.shutdownNow();
+  }
+
+  void check() {
+    final long now = System.nanoTime();
+    running.forEach((thread, call) -> {
+      final long elapsedNanos = now - call.startNanos;
+      if (elapsedNanos > budgetNanos && call.report()) {
+        log.warn("{}: {} running for {} ms on {}, over its budget of {} ms\n\tat {}", name, call.what,
+                TimeUnit.NANOSECONDS.toMillis(elapsedNanos), thread.getName(),
+                TimeUnit.NANOSECONDS.toMillis(budgetNanos),
+                Arrays.stream(thread.getStackTrace()).map(String::valueOf).collect(Collectors.joining("\n\tat ")));
+      }
+    });
+  }
+
+  class Running {
+
+    final Object what;
+    final long startNanos;
+    boolean reported;
+
+    Running(Object what, long startNanos) {
+      this.what = what;
+      this.startNanos = startNanos;
+    }
+
+    // true for the first one to find this call over budget, the checker or the thread itself
+    synchronized boolean report() {
+      if (reported) {
+        return false;
+      }
+      reported = true;
+      overBudget.increment();
+      return true;
+    }
+
+  }
+
+}
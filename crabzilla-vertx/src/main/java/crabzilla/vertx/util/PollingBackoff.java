@@ -0,0 +1,49 @@
+package crabzilla.vertx.util;
+
+import lombok.Getter;
+import lombok.val;
+
+// polls again right away while reads come back full, goes back to the idle interval when they are partial
+// and multiplies the interval (up to a max) while there is nothing to read
+
+public class PollingBackoff {
+
+  final long idleIntervalMs;
+  final long maxIntervalMs;
+  final int multiplier;
+
+  @Getter
+  long currentIntervalMs;
+
+  public PollingBackoff(long idleIntervalMs, long maxIntervalMs, int multiplier) {
+    if (idleIntervalMs < 1) throw new IllegalArgumentException("idleIntervalMs must be >= 1");
+    if (maxIntervalMs < idleIntervalMs) throw new IllegalArgumentException("maxIntervalMs must be >= idleIntervalMs");
+    if (multiplier < 1) throw new IllegalArgumentException("multiplier must be >= 1");
+    this.idleIntervalMs = idleIntervalMs;
+    this.maxIntervalMs = maxIntervalMs;
+    this.multiplier = multiplier;
+    this.currentIntervalMs = idleIntervalMs;
+  }
+
+  public long nextIntervalMs(int rowsRead, int maxRows) {
+
+    if (rowsRead >= maxRows) {
+      currentIntervalMs = idleIntervalMs;
+      return 1; // vertx timers must be >= 1 ms
+    }
+
+    if (rowsRead > 0) {
+      currentIntervalMs = idleIntervalMs;
+      return currentIntervalMs;
+    }
+
+    val next = currentIntervalMs;
+    currentIntervalMs = Math.min(currentIntervalMs * multiplier, maxIntervalMs);
+    return next;
+  }
+
+  public long onFailureIntervalMs() {
+    return maxIntervalMs;
+  }
+
+}
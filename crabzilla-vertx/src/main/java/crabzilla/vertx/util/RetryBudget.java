@@ -0,0 +1,38 @@
+package crabzilla.vertx.util;
+
+// what: caps retries to a fraction of the requests seen, so a burst of conflicts can't multiply the load downstream
+// how: every request deposits ratio tokens, up to maxTokens saved; a retry takes a whole one or is not made.
+// It starts full, so the first conflicts after a start can be retried
+
+public class RetryBudget {
+
+  final double ratio;
+  final double maxTokens;
+
+  double tokens;
+
+  public RetryBudget(double ratio, int maxTokens) {
+    if (ratio < 0) throw new IllegalArgumentException("ratio must be >= 0");
+    if (maxTokens < 0) throw new IllegalArgumentException("maxTokens must be >= 0");
+    this.ratio = ratio;
+    this.maxTokens = maxTokens;
+    this.tokens = maxTokens;
+  }
+
+  public synchronized void deposit() {
+    tokens = Math.min(maxTokens, tokens + ratio);
+  }
+
+  public synchronized boolean tryWithdraw() {
+    if (tokens < 1) {
+      return false;
+    }
+    tokens -= 1;
+    return true;
+  }
+
+  public synchronized double tokens() {
+    return tokens;
+  }
+
+}
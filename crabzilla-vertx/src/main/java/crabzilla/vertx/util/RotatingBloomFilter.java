@@ -0,0 +1,124 @@
+package crabzilla.vertx.util;
+
+import io.vertx.core.json.JsonObject;
+import lombok.NonNull;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+// what: remembers the ids seen on the last one or two windows, telling for sure when an id was not seen
+// how: two bloom filters of the same size; ids go to the current one and are looked up on both. Rotating drops the
+// older one and starts an empty current one, so an id is remembered from one to two windows. Sized for
+// expectedInsertions per window at falsePositiveRate: a window also rotates once it got that many ids, so the rate
+// holds on bursts. Bit positions by double hashing of the two halves of the UUID.
+
+public class RotatingBloomFilter {
+
+  final int bits;
+  final int hashes;
+  final long expectedInsertions;
+  final double falsePositiveRate;
+
+  long[] current;
+  long[] previous;
+  long currentInsertions;
+
+  long rotations;
+
+  public RotatingBloomFilter(long expectedInsertions, double falsePositiveRate) {
+    if (expectedInsertions < 1) throw new IllegalArgumentException("expectedInsertions must be >= 1");
+    if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+      throw new IllegalArgumentException("falsePositiveRate must be > 0 and < 1");
+    }
+    final double optimalBits = -expectedInsertions * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+    if (optimalBits > Integer.MAX_VALUE - 63) {
+      throw new IllegalArgumentException("too many expectedInsertions for this falsePositiveRate");
+    }
+    this.bits = (int) ((Math.max(64, (long) Math.ceil(optimalBits)) + 63) / 64 * 64);
+    this.hashes = Math.max(1, (int) Math.round((double) bits / expectedInsertions * Math.log(2)));
+    this.expectedInsertions = expectedInsertions;
+    this.falsePositiveRate = falsePositiveRate;
+    this.current = new long[bits / 64];
+    this.previous = new long[bits / 64];
+  }
+
+  public synchronized void put(@NonNull UUID id) {
+    if (currentInsertions >= expectedInsertions) {
+      rotate();
+    }
+    final long h1 = mix(id.getMostSignificantBits());
+    final long h2 = mix(id.getLeastSignificantBits()) | 1;
+    for (int i = 0; i < hashes; i++) {
+      final int bit = index(h1 + i * h2);
+      current[bit >>> 6] |= 1L << bit;
+    }
+    currentInsertions++;
+  }
+
+  // false means never put on the last one or two windows
+  public synchronized boolean mightContain(@NonNull UUID id) {
+    final long h1 = mix(id.getMostSignificantBits());
+    final long h2 = mix(id.getLeastSignificantBits()) | 1;
+    return contains(current, h1, h2) || contains(previous, h1, h2);
+  }
+
+  public synchronized void rotate() {
+    final long[] dropped = previous;
+    previous = current;
+    current = dropped;
+    Arrays.fill(current, 0L);
+    currentInsertions = 0;
+    rotations++;
+  }
+
+  public synchronized JsonObject metrics() {
+    return new JsonObject()
+            .put("bytes", 2L * bits / 8)
+            .put("hashes", hashes)
+            .put("expectedInsertions", expectedInsertions)
+            .put("targetFalsePositiveRate", falsePositiveRate)
+            .put("estimatedFalsePositiveRate", estimatedFalsePositiveRate())
+            .put("currentInsertions", currentInsertions)
+            .put("rotations", rotations);
+  }
+
+  // a miss on both filters: 1 - (1 - fill(current)^k) * (1 - fill(previous)^k)
+  synchronized double estimatedFalsePositiveRate() {
+    final double onCurrent = Math.pow(fill(current), hashes);
+    final double onPrevious = Math.pow(fill(previous), hashes);
+    return 1 - (1 - onCurrent) * (1 - onPrevious);
+  }
+
+  private double fill(long[] filter) {
+    long set = 0;
+    for (long word : filter) {
+      set += Long.bitCount(word);
+    }
+    return (double) set / bits;
+  }
+
+  private boolean contains(long[] filter, long h1, long h2) {
+    for (int i = 0; i < hashes; i++) {
+      final int bit = index(h1 + i * h2);
+      if ((filter[bit >>> 6] & 1L << bit) == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private int index(long hash) {
+    return (int) ((hash & Long.MAX_VALUE) % bits);
+  }
+
+  // murmur3 finalizer: version 1 UUIDs have few changing bits
+  static long mix(long h) {
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+}
@@ -0,0 +1,170 @@
+package crabzilla.vertx.util;
+
+import io.vertx.core.json.JsonObject;
+import lombok.NonNull;
+import lombok.val;
+
+import java.util.*;
+import java.util.function.ToLongFunction;
+
+// what: tracks which uow_seq_numbers were seen above a checkpoint, holding rows back while a lower sequence is missing
+// how: uow_seq_number is an AUTO_INCREMENT and transactions commit in any order, so a missing sequence may just be a
+// late commit. The checkpoint only moves over a contiguous run of seen sequences (a bitmap relative to it) or over a
+// gap older than gapTimeoutMs, taken then as a rolled back insert. Rows are released in sequence order, once.
+
+public class SequenceGapTracker<T> {
+
+  public static final long DEFAULT_GAP_TIMEOUT_MS = 2000;
+
+  final long gapTimeoutMs;
+  final int maxWindow;
+  final ToLongFunction<T> sequenceFn;
+
+  // bit i means checkpoint + 1 + i was seen
+  BitSet seen = new BitSet();
+  final TreeMap<Long, T> held = new TreeMap<>();
+  // first sequence of a gap -> when it was found missing
+  final TreeMap<Long, Long> gapsOpenedAt = new TreeMap<>();
+
+  long checkpoint;
+  long highestSeen;
+
+  long duplicates;
+  long beyondWindow;
+  long gapsOpened;
+  long lateArrivals;
+  long expiredSequences;
+
+  public SequenceGapTracker(long checkpoint, long gapTimeoutMs, int maxWindow, @NonNull ToLongFunction<T> sequenceFn) {
+    if (maxWindow < 1) throw new IllegalArgumentException("maxWindow must be >= 1");
+    this.checkpoint = checkpoint;
+    this.highestSeen = checkpoint;
+    this.gapTimeoutMs = gapTimeoutMs;
+    this.maxWindow = maxWindow;
+    this.sequenceFn = sequenceFn;
+  }
+
+  // returns the rows that can now be delivered, in sequence order
+  public synchronized List<T> offer(@NonNull List<T> rows, long nowMs) {
+
+    for (T row : rows) {
+
+      val seq = sequenceFn.applyAsLong(row);
+
+      if (seq - checkpoint > maxWindow) {
+        // will be read again once the window moves on
+        beyondWindow++;
+        continue;
+      }
+
+      if (seq <= checkpoint || seen.get(index(seq))) {
+        duplicates++;
+        continue;
+      }
+
+      if (seq < highestSeen) {
+        lateArrivals++;
+      } else if (seq > highestSeen + 1) {
+        gapsOpened++;
+        gapsOpenedAt.put(highestSeen + 1, nowMs);
+      }
+
+      seen.set(index(seq));
+      held.put(seq, row);
+      highestSeen = Math.max(highestSeen, seq);
+
+    }
+
+    return release();
+  }
+
+  // to be called only after the whole window above the checkpoint was read again: what is still missing is not visible
+  public synchronized List<T> expireGaps(long nowMs) {
+
+    final List<T> released = new ArrayList<>();
+
+    while (hasOpenGaps()) {
+      val openedAt = gapsOpenedAt.floorEntry(checkpoint + 1);
+      if (openedAt != null && nowMs - openedAt.getValue() < gapTimeoutMs) {
+        break;
+      }
+      expiredSequences++;
+      shift(1);
+      released.addAll(release());
+    }
+
+    return released;
+  }
+
+  public synchronized long checkpoint() {
+    return checkpoint;
+  }
+
+  public synchronized long highestSeen() {
+    return highestSeen;
+  }
+
+  public synchronized boolean hasOpenGaps() {
+    return checkpoint < highestSeen;
+  }
+
+  public synchronized int window() {
+    return (int) (highestSeen - checkpoint);
+  }
+
+  public synchronized boolean isWindowFull() {
+    return window() >= maxWindow;
+  }
+
+  public synchronized JsonObject metrics() {
+    val openedAt = gapsOpenedAt.floorEntry(checkpoint + 1);
+    val oldestGapAgeMs = hasOpenGaps() && openedAt != null ? System.currentTimeMillis() - openedAt.getValue() : 0L;
+    return new JsonObject()
+            .put("checkpoint", checkpoint)
+            .put("highestSeen", highestSeen)
+            .put("openGaps", window() - seen.cardinality())
+            .put("heldBack", held.size())
+            .put("oldestGapAgeMs", oldestGapAgeMs)
+            .put("gapsOpened", gapsOpened)
+            .put("lateArrivals", lateArrivals)
+            .put("expiredSequences", expiredSequences)
+            .put("duplicates", duplicates)
+            .put("beyondWindow", beyondWindow);
+  }
+
+  private List<T> release() {
+
+    val run = seen.nextClearBit(0);
+
+    if (run == 0) {
+      return Collections.emptyList();
+    }
+
+    val releasable = held.headMap(checkpoint + run, true);
+    final List<T> released = new ArrayList<>(releasable.values());
+    releasable.clear();
+
+    shift(run);
+
+    return released;
+  }
+
+  private void shift(int n) {
+
+    seen = seen.get(n, Math.max(n, seen.length()));
+    checkpoint += n;
+
+    // the gap checkpoint + 1 may be in keeps the time it was opened
+    val openedAt = gapsOpenedAt.floorEntry(checkpoint + 1);
+    gapsOpenedAt.headMap(checkpoint + 1, true).clear();
+    if (openedAt != null && hasOpenGaps()) {
+      gapsOpenedAt.put(checkpoint + 1, openedAt.getValue());
+    }
+
+  }
+
+  private int index(long seq) {
+    return (int) (seq - checkpoint - 1);
+  }
+
+}
@@ -9,11 +9,36 @@ public class StringHelper {
 
 	static final String COMMAND_HANDLER = "cmd-handler";
 	static final String EVENTS_HANDLER = "%s-events-handler";
+	static final String EVENTS_BATCH_HANDLER = "%s-events-batch-handler";
+	static final String EVENTS_BATCH_PUBLISHED = "%s-events-batch-published";
+	static final String EVENTS_RELAY = "%s-relay";
 
 	public static String commandHandlerId(Class<? extends AggregateRoot> aggregateRootClass) {
 		return COMMAND_HANDLER + "-" + camelCaseToSnakeCase(aggregateRootClass.getSimpleName());
 	}
 
+	public static String commandHandlerId(Class<? extends AggregateRoot> aggregateRootClass, int partition) {
+		return commandHandlerId(aggregateRootClass) + "-p" + partition;
+	}
+
+	// held by the node taking the commands of the partition
+	public static String commandHandlerPartitionLockId(Class<? extends AggregateRoot> aggregateRootClass, int partition) {
+		return commandHandlerId(aggregateRootClass, partition) + "-lock";
+	}
+
+	public static String commandHandlerMetricsId(Class<? extends AggregateRoot> aggregateRootClass) {
+		return commandHandlerId(aggregateRootClass) + "-metrics";
+	}
+
+	// a single instance of the handler, when there are many of it on a node
+	public static String commandHandlerMetricsId(Class<? extends AggregateRoot> aggregateRootClass, String instanceId) {
+		return commandHandlerMetricsId(aggregateRootClass) + "-" + instanceId;
+	}
+
+	public static String commandHandlerVersionsId(Class<? extends AggregateRoot> aggregateRootClass) {
+		return commandHandlerId(aggregateRootClass) + "-versions";
+	}
+
 	public static String circuitBreakerId(Class<? extends AggregateRoot> aggregateRootClass) {
 		return COMMAND_HANDLER + "-" + camelCaseToSnakeCase(aggregateRootClass.getSimpleName());
 	}
@@ -21,6 +46,19 @@ public class StringHelper {
 		return String.format(EVENTS_HANDLER, bcName);
 	}
 
+	public static String eventsBatchHandlerId(String bcName) {
+		return String.format(EVENTS_BATCH_HANDLER, bcName);
+	}
+
+	// batches already acknowledged on eventsBatchHandlerId, published to whoever listens (subscriptions)
+	public static String eventsBatchPublishedId(String bcName) {
+		return String.format(EVENTS_BATCH_PUBLISHED, bcName);
+	}
+
+	public static String eventsRelayId(String bcName) {
+		return String.format(EVENTS_RELAY, bcName);
+	}
+
 	public static String aggregateRootId(Class<? extends AggregateRoot> aggregateRootClass) {
 		return camelCaseToSnakeCase(aggregateRootClass.getSimpleName());
 	}
@@ -0,0 +1,68 @@
+package crabzilla.vertx.util;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.vertx.core.json.JsonObject;
+import lombok.NonNull;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// what: a token bucket per key (an aggregate id, a command type, a tenant...): ratePerSecond requests per key, with
+// bursts of up to burst requests, so no single key takes the capacity of everyone
+// how: each bucket is a single AtomicLong, as GCRA: the time when the bucket will be full again. A request moves it one
+// emission interval (1s / rate) ahead and is refused when that goes past burst intervals from now; updated by
+// compare and set, so no locks. Buckets live on a bounded map and expire once idle long enough to be full again:
+// dropping them loses nothing
+
+public class TokenBucketRateLimiter {
+
+  final long emissionIntervalNanos;
+  final long burstNanos;
+  final Cache<String, AtomicLong> buckets;
+
+  final LongAdder allowed = new LongAdder();
+  final LongAdder limited = new LongAdder();
+
+  public TokenBucketRateLimiter(double ratePerSecond, int burst, long maxKeys) {
+    if (ratePerSecond <= 0) throw new IllegalArgumentException("ratePerSecond must be > 0");
+    if (burst < 1) throw new IllegalArgumentException("burst must be >= 1");
+    if (maxKeys < 1) throw new IllegalArgumentException("maxKeys must be >= 1");
+    this.emissionIntervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSecond));
+    this.burstNanos = emissionIntervalNanos * burst;
+    this.buckets = Caffeine.newBuilder()
+            .maximumSize(maxKeys)
+            .expireAfterAccess(burstNanos, TimeUnit.NANOSECONDS)
+            .build();
+  }
+
+  public boolean tryAcquire(@NonNull String key) {
+    return tryAcquire(key, System.nanoTime());
+  }
+
+  boolean tryAcquire(String key, long nowNanos) {
+    // a new bucket is full: as if it got full right now
+    final AtomicLong fullAt = buckets.get(key, k -> new AtomicLong(nowNanos));
+    while (true) {
+      final long current = fullAt.get();
+      final long next = Math.max(current, nowNanos) + emissionIntervalNanos;
+      if (next - nowNanos > burstNanos) {
+        limited.increment();
+        return false;
+      }
+      if (fullAt.compareAndSet(current, next)) {
+        allowed.increment();
+        return true;
+      }
+    }
+  }
+
+  public JsonObject metrics() {
+    return new JsonObject()
+            .put("allowed", allowed.sum())
+            .put("limited", limited.sum())
+            .put("keys", buckets.estimatedSize());
+  }
+
+}
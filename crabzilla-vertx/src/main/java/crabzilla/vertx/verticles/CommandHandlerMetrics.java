@@ -0,0 +1,66 @@
+package crabzilla.vertx.verticles;
+
+import io.vertx.core.json.JsonObject;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// counters of one CommandHandlerVerticle instance, answered as JSON on commandHandlerMetricsId(class, instanceId).
+// commandHandlerMetricsId(class) answers them added up over the instances of the node (see add)
+
+public class CommandHandlerMetrics {
+
+  final LongAdder commands = new LongAdder();
+  final LongAdder successes = new LongAdder();
+  final LongAdder concurrencyErrors = new LongAdder();
+  final LongAdder concurrencyRetries = new LongAdder();
+  final LongAdder retriedSuccesses = new LongAdder();
+  final LongAdder retriesExhausted = new LongAdder();
+  final LongAdder retryBudgetExhausted = new LongAdder();
+  final LongAdder alreadyProcessed = new LongAdder();
+  final LongAdder commandIdFilterNegatives = new LongAdder();
+  final LongAdder commandIdFilterPositives = new LongAdder();
+  final LongAdder commandIdFilterFalsePositives = new LongAdder();
+  final LongAdder rebalances = new LongAdder();
+  final LongAdder catchUpsSkipped = new LongAdder();
+  final LongAdder staleSnapshotsEvicted = new LongAdder();
+  final LongAdder overloaded = new LongAdder();
+  final LongAdder rateLimited = new LongAdder();
+  final LongAdder expired = new LongAdder();
+
+  public JsonObject toJson() {
+    return new JsonObject()
+            .put("commands", commands.sum())
+            .put("successes", successes.sum())
+            .put("concurrencyErrors", concurrencyErrors.sum())
+            .put("concurrencyRetries", concurrencyRetries.sum())
+            .put("retriedSuccesses", retriedSuccesses.sum())
+            .put("retriesExhausted", retriesExhausted.sum())
+            .put("retryBudgetExhausted", retryBudgetExhausted.sum())
+            .put("alreadyProcessed", alreadyProcessed.sum())
+            .put("commandIdFilterNegatives", commandIdFilterNegatives.sum())
+            .put("commandIdFilterPositives", commandIdFilterPositives.sum())
+            .put("commandIdFilterFalsePositives", commandIdFilterFalsePositives.sum())
+            .put("rebalances", rebalances.sum())
+            .put("catchUpsSkipped", catchUpsSkipped.sum())
+            .put("staleSnapshotsEvicted", staleSnapshotsEvicted.sum())
+            .put("overloaded", overloaded.sum())
+            .put("rateLimited", rateLimited.sum())
+            .put("expired", expired.sum());
+  }
+
+  // adds the whole numbers of one instance to total, nested objects included. Anything else is on each instance only
+  public static JsonObject add(JsonObject total, JsonObject one) {
+    for (String field : one.fieldNames()) {
+      final Object value = one.getValue(field);
+      if (value instanceof Integer || value instanceof Long) {
+        final Object sum = total.getValue(field);
+        total.put(field, (sum instanceof Number ? ((Number) sum).longValue() : 0L) + ((Number) value).longValue());
+      } else if (value instanceof JsonObject) {
+        final Object sum = total.getValue(field);
+        total.put(field, add(sum instanceof JsonObject ? (JsonObject) sum : new JsonObject(), (JsonObject) value));
+      }
+    }
+    return total;
+  }
+
+}
@@ -0,0 +1,101 @@
+package crabzilla.vertx.verticles;
+
+import crabzilla.model.Command;
+import crabzilla.vertx.util.ConsistentHashRing;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+import lombok.experimental.Accessors;
+
+import java.util.function.Function;
+
+@Getter
+@Setter
+@ToString
+@Accessors(chain = true)
+public class CommandHandlerOptions {
+
+  // when false, a SUCCESS reply carries only commandId, result and uowSequence
+  boolean replyWithUnitOfWork = true;
+
+  // when replies are slim, the handler itself publishes the UnitOfWork to this events channel
+  String eventsChannelId;
+
+  // on a concurrency error, how many times the command is handled again against the missing events before replying
+  // CONCURRENCY_ERROR. 0 leaves it to the client
+  int maxConcurrencyRetries = 0;
+
+  // each retry waits a random time up to concurrencyRetryBackoffMs * 2^attempt, capped by concurrencyRetryMaxBackoffMs
+  long concurrencyRetryBackoffMs = 5;
+  long concurrencyRetryMaxBackoffMs = 100;
+
+  // every command earns retryBudgetRatio retries, up to retryBudgetMaxTokens saved: beyond it conflicts are replied
+  double retryBudgetRatio = 0.1;
+  int retryBudgetMaxTokens = 10;
+
+  // when true, a command already appended is replied COMMAND_ALREADY_PROCESSED, with its uowSequence, instead of being
+  // handled again. Looked up on the last recentCommandsMaxSize commands of this instance, then on the repository
+  boolean idempotentCommands = false;
+  long recentCommandsMaxSize = 10_000;
+
+  // with idempotentCommands, a bloom filter of the command ids of the last one or two windows goes before the
+  // repository: only probable duplicates are looked up there. Seeded on start with the last
+  // commandIdFilterExpectedInsertions command ids; 0 turns it off. Memory: about 2 * 1.44 * log2(1 / rate) bits per id.
+  // It only learns the commands of this instance: a copy appended elsewhere meanwhile fails the append on the
+  // (cmd_id, ar_name) unique key, and is replied COMMAND_ALREADY_PROCESSED all the same. So it must stay off on a
+  // units_of_work without that key (db/optional/range_partitioned_units_of_work.sql)
+  long commandIdFilterExpectedInsertions = 0;
+  double commandIdFilterFalsePositiveRate = 0.01;
+  long commandIdFilterWindowMs = 10 * 60 * 1000;
+
+  // when > 0, aggregate ids are split on this many partitions, each one handled only by the cluster node owning it
+  // (see ConsistentHashRing). Commands go to commandHandlerId(class, partition); the ones sent to commandHandlerId(class)
+  // are forwarded there. Every node must use the same count. Membership is checked every membershipCheckMs
+  int partitions = 0;
+  int virtualNodes = ConsistentHashRing.DEFAULT_VIRTUAL_NODES;
+  long membershipCheckMs = 1000;
+
+  // when true, every append is published cluster wide as (ar_name, ar_id, version). Handlers keep the latest version
+  // they heard of for up to knownVersionsMaxSize ids, evict cached snapshots older than it and skip the catch-up query
+  // when the cached snapshot is on it. A lost message at worst costs a CONCURRENCY_ERROR, as versions are still checked
+  // on append
+  boolean broadcastVersions = false;
+  long knownVersionsMaxSize = 100_000;
+
+  // thread affine mode (see CommandHandlerVerticle.affineInstances): this many handlers per node, each one on its own
+  // event loop and handling partition p when p % instances is its index. Needs partitions >= instances
+  int instances = 1;
+
+  // when true, the command handler is run right on the event loop instead of on a worker: it must not block. Calls
+  // running longer than cmdHandlerTimeBudgetMs are logged with their stack and counted (see HandlerWatchdog); 0 turns
+  // the watchdog off
+  boolean cmdHandlerNonBlocking = false;
+  long cmdHandlerTimeBudgetMs = 10;
+
+  // when true, and the runtime has them (Java 21+), the command handler runs on a virtual thread per command instead of
+  // on the worker pool: handlers waiting on slow services don't starve the pool. Ignored with cmdHandlerNonBlocking
+  boolean virtualThreads = false;
+
+  // when > 0, at most this many commands are handled at once, the limit then adapting to their latency (see
+  // ConcurrencyLimiter) between minConcurrencyLimit and maxConcurrencyLimit. Commands beyond it are replied OVERLOADED
+  // right away. Appends slower than concurrencyLimitLatencyMs, or failed, bring it down by concurrencyLimitBackoffRatio.
+  // Commands never getting to append (fallbacks, validation or handling errors, already processed) don't move it
+  int concurrencyLimit = 0;
+  int minConcurrencyLimit = 1;
+  int maxConcurrencyLimit = 1000;
+  long concurrencyLimitLatencyMs = 200;
+  double concurrencyLimitBackoffRatio = 0.9;
+
+  // when > 0, commands get rateLimitPerSecond per key of rateLimitKeyFn (see RateLimitKeys), in bursts of up to
+  // rateLimitBurst, before even being validated. Beyond it they are replied RATE_LIMITED. Buckets of up to
+  // rateLimitMaxKeys keys are kept, dropped once idle long enough to be full again
+  double rateLimitPerSecond = 0;
+  int rateLimitBurst = 10;
+  long rateLimitMaxKeys = 100_000;
+  Function<Command, String> rateLimitKeyFn = RateLimitKeys.TARGET_ID;
+
+  boolean publishesUnitOfWork() {
+    return !replyWithUnitOfWork && eventsChannelId != null;
+  }
+
+}
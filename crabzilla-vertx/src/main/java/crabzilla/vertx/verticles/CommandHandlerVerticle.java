@@ -1,46 +1,142 @@
 package crabzilla.vertx.verticles;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import com.github.benmanes.caffeine.cache.LoadingCache;
 import crabzilla.model.*;
 import crabzilla.vertx.CommandExecution;
-import crabzilla.vertx.repositories.VertxUnitOfWorkRepository;
+import crabzilla.vertx.repositories.UnitOfWorkRepository;
+import crabzilla.vertx.util.BlockingExecutor;
+import crabzilla.vertx.util.ConcurrencyLimiter;
+import crabzilla.vertx.util.ConsistentHashRing;
+import crabzilla.vertx.util.DuplicateCommandException;
+import crabzilla.vertx.util.HandlerWatchdog;
+import crabzilla.vertx.util.RetryBudget;
+import crabzilla.vertx.util.RotatingBloomFilter;
+import crabzilla.vertx.util.TokenBucketRateLimiter;
 import io.vertx.circuitbreaker.CircuitBreaker;
 import io.vertx.core.*;
+import io.vertx.core.eventbus.DeliveryOptions;
 import io.vertx.core.eventbus.Message;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.eventbus.ReplyFailure;
+import io.vertx.core.http.CaseInsensitiveHeaders;
+import io.vertx.core.impl.VertxInternal;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.Lock;
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
 
-import java.util.List;
-import java.util.Optional;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.BiFunction;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 import static crabzilla.vertx.CommandExecution.*;
 import static crabzilla.vertx.util.StringHelper.commandHandlerId;
+import static crabzilla.vertx.util.StringHelper.commandHandlerMetricsId;
+import static crabzilla.vertx.util.StringHelper.commandHandlerPartitionLockId;
+import static crabzilla.vertx.util.StringHelper.commandHandlerVersionsId;
+import static crabzilla.vertx.util.StringHelper.eventsHandlerId;
 import static java.util.Collections.singletonList;
+import static java.util.stream.Collectors.toList;
 
 @Slf4j
 public class CommandHandlerVerticle<A extends AggregateRoot> extends AbstractVerticle {
 
+  // epoch millis after which the sender won't wait for the reply anymore. Checked before every step touching the
+  // database, so commands nobody waits for are dropped. Wall clock, as it may cross nodes: keep them in sync
+  public static final String DEADLINE_HEADER = "deadline";
+
+  // a partition has no consumer while it changes hands: commands sent to it are sent again every
+  // PARTITION_HANDOVER_RETRY_MS until their deadline or, without one, for up to PARTITION_HANDOVER_MAX_WAIT_MS
+  public static final long PARTITION_HANDOVER_RETRY_MS = 50;
+  public static final long PARTITION_HANDOVER_MAX_WAIT_MS = 10_000;
+
   final Class<A> aggregateRootClass;
   final BiFunction<Command, Snapshot<A>, Either<Throwable, Optional<UnitOfWork>>> cmdHandler;
   final Function<Command, List<String>> validatorFn;
   final LoadingCache<String, Snapshot<A>> cache;
   final Snapshotter<A> snapshotter;
 
-  final VertxUnitOfWorkRepository eventRepository;
+  final UnitOfWorkRepository eventRepository;
   final Vertx vertx;
   final CircuitBreaker circuitBreaker;
+  final CommandHandlerOptions options;
+  final CommandHandlerMetrics metrics = new CommandHandlerMetrics();
+  final RetryBudget retryBudget;
+  final ConcurrencyLimiter concurrencyLimiter;
+  final TokenBucketRateLimiter rateLimiter;
+  final BlockingExecutor blockingExecutor;
+  // with cmdHandlerNonBlocking: reports handlers holding the event loop over their budget
+  HandlerWatchdog watchdog;
+  final Cache<UUID, Long> recentCommands;
+  final RotatingBloomFilter commandIdFilter;
+  // until seeded, the filter can't tell a command was never seen
+  volatile boolean commandIdFilterSeeded;
+
+  // with broadcastVersions: ar_id -> latest version heard of
+  final Cache<String, Long> knownVersions;
+
+  // with partitions: the ring of the last membership seen and the consumers of the partitions owned by this node, each
+  // one registered while holding the cluster lock of its partition. Partitions asked for are waiting on their lock
+  ConsistentHashRing ring;
+  final Map<Integer, MessageConsumer<Command>> partitionConsumers = new HashMap<>();
+  final Map<Integer, Lock> partitionLocks = new HashMap<>();
+  final Set<Integer> partitionsAskedFor = new HashSet<>();
+
+  // thread affine mode: which of the options.instances this one is. It takes the partitions p % instances == instance
+  final int instance;
+
+  // tells the metrics of this instance from those of the others deployed on the node
+  final String instanceId = UUID.randomUUID().toString();
 
   public CommandHandlerVerticle(@NonNull final Class<A> aggregateRootClass,
                                 @NonNull final BiFunction<Command, Snapshot<A>, Either<Throwable, Optional<UnitOfWork>>> cmdHandler,
                                 @NonNull final Function<Command, List<String>> validatorFn,
                                 @NonNull final Snapshotter<A> snapshotter,
-                                @NonNull final VertxUnitOfWorkRepository eventRepository,
+                                @NonNull final UnitOfWorkRepository eventRepository,
                                 @NonNull final LoadingCache<String, Snapshot<A>> cache,
                                 @NonNull final Vertx vertx,
                                 @NonNull final CircuitBreaker circuitBreaker) {
+    this(aggregateRootClass, cmdHandler, validatorFn, snapshotter, eventRepository, cache, vertx, circuitBreaker,
+            new CommandHandlerOptions());
+  }
+
+  public CommandHandlerVerticle(@NonNull final Class<A> aggregateRootClass,
+                                @NonNull final BiFunction<Command, Snapshot<A>, Either<Throwable, Optional<UnitOfWork>>> cmdHandler,
+                                @NonNull final Function<Command, List<String>> validatorFn,
+                                @NonNull final Snapshotter<A> snapshotter,
+                                @NonNull final UnitOfWorkRepository eventRepository,
+                                @NonNull final LoadingCache<String, Snapshot<A>> cache,
+                                @NonNull final Vertx vertx,
+                                @NonNull final CircuitBreaker circuitBreaker,
+                                @NonNull final CommandHandlerOptions options) {
+    this(aggregateRootClass, cmdHandler, validatorFn, snapshotter, eventRepository, cache, vertx, circuitBreaker,
+            options, 0);
+  }
+
+  CommandHandlerVerticle(@NonNull final Class<A> aggregateRootClass,
+                         @NonNull final BiFunction<Command, Snapshot<A>, Either<Throwable, Optional<UnitOfWork>>> cmdHandler,
+                         @NonNull final Function<Command, List<String>> validatorFn,
+                         @NonNull final Snapshotter<A> snapshotter,
+                         @NonNull final UnitOfWorkRepository eventRepository,
+                         @NonNull final LoadingCache<String, Snapshot<A>> cache,
+                         @NonNull final Vertx vertx,
+                         @NonNull final CircuitBreaker circuitBreaker,
+                         @NonNull final CommandHandlerOptions options,
+                         final int instance) {
+    if (options.getInstances() > 1 && options.getPartitions() < options.getInstances()) {
+      throw new IllegalArgumentException("instances > 1 needs at least as many partitions");
+    }
+    if (instance < 0 || instance >= Math.max(1, options.getInstances())) {
+      throw new IllegalArgumentException("instance must be >= 0 and < instances");
+    }
+    this.instance = instance;
     this.aggregateRootClass = aggregateRootClass;
     this.cmdHandler = cmdHandler;
     this.validatorFn = validatorFn;
@@ -49,13 +145,323 @@ public class CommandHandlerVerticle<A extends AggregateRoot> extends AbstractVer
     this.cache = cache;
     this.vertx = vertx;
     this.circuitBreaker = circuitBreaker;
+    this.options = options;
+    this.retryBudget = new RetryBudget(options.getRetryBudgetRatio(), options.getRetryBudgetMaxTokens());
+    this.concurrencyLimiter = options.getConcurrencyLimit() > 0 ?
+            new ConcurrencyLimiter(options.getConcurrencyLimit(), options.getMinConcurrencyLimit(),
+                    options.getMaxConcurrencyLimit(), options.getConcurrencyLimitLatencyMs(),
+                    options.getConcurrencyLimitBackoffRatio()) : null;
+    this.rateLimiter = options.getRateLimitPerSecond() > 0 ?
+            new TokenBucketRateLimiter(options.getRateLimitPerSecond(), options.getRateLimitBurst(),
+                    options.getRateLimitMaxKeys()) : null;
+    this.blockingExecutor = options.isVirtualThreads() ?
+            BlockingExecutor.virtualThreads(vertx) : BlockingExecutor.workerPool(vertx);
+    this.recentCommands = options.isIdempotentCommands() ?
+            Caffeine.newBuilder().maximumSize(options.getRecentCommandsMaxSize()).build() : null;
+    this.knownVersions = options.isBroadcastVersions() ?
+            Caffeine.newBuilder().maximumSize(options.getKnownVersionsMaxSize()).build() : null;
+    this.commandIdFilter = options.isIdempotentCommands() && options.getCommandIdFilterExpectedInsertions() > 0 ?
+            new RotatingBloomFilter(options.getCommandIdFilterExpectedInsertions(),
+                    options.getCommandIdFilterFalsePositiveRate()) : null;
+  }
+
+  // thread affine mode: options.instances handlers, to be deployed one by one so each gets its own event loop. Each
+  // handles its own share of the partitions owned by the node, with a cache of its own touched by its thread only
+  public static <A extends AggregateRoot> List<CommandHandlerVerticle<A>> affineInstances(
+          @NonNull final Class<A> aggregateRootClass,
+          @NonNull final BiFunction<Command, Snapshot<A>, Either<Throwable, Optional<UnitOfWork>>> cmdHandler,
+          @NonNull final Function<Command, List<String>> validatorFn,
+          @NonNull final Snapshotter<A> snapshotter,
+          @NonNull final UnitOfWorkRepository eventRepository,
+          @NonNull final Supplier<LoadingCache<String, Snapshot<A>>> cacheFactory,
+          @NonNull final Vertx vertx,
+          @NonNull final CircuitBreaker circuitBreaker,
+          @NonNull final CommandHandlerOptions options) {
+
+    val verticles = new ArrayList<CommandHandlerVerticle<A>>();
+    for (int i = 0; i < Math.max(1, options.getInstances()); i++) {
+      verticles.add(new CommandHandlerVerticle<>(aggregateRootClass, cmdHandler, validatorFn, snapshotter,
+              eventRepository, cacheFactory.get(), vertx, circuitBreaker, options, i));
+    }
+    return verticles;
   }
 
   @Override
   public void start() throws Exception {
 
-    vertx.eventBus().consumer(commandHandlerId(aggregateRootClass), msgHandler());
+    if (options.isCmdHandlerNonBlocking() && options.getCmdHandlerTimeBudgetMs() > 0) {
+      watchdog = new HandlerWatchdog("cmd-handler-" + aggregateRootClass.getSimpleName().toLowerCase(),
+              options.getCmdHandlerTimeBudgetMs(), options.getCmdHandlerTimeBudgetMs());
+    }
+
+    vertx.eventBus().consumer(commandHandlerId(aggregateRootClass),
+            options.getPartitions() > 0 ? forwardToPartitionHandler() : msgHandler());
+
+    // each instance answers its own metrics, and any of them those of every instance of the node
+    vertx.sharedData().<String, String>getLocalMap(commandHandlerMetricsId(aggregateRootClass))
+            .put(instanceId, instanceId);
+    vertx.eventBus().<Void>localConsumer(commandHandlerMetricsId(aggregateRootClass, instanceId),
+            msg -> msg.reply(instanceMetrics()));
+    vertx.eventBus().<Void>consumer(commandHandlerMetricsId(aggregateRootClass), msg -> nodeMetrics(msg::reply));
 
+    if (knownVersions != null) {
+      vertx.eventBus().<JsonObject>consumer(commandHandlerVersionsId(aggregateRootClass), msg ->
+              onVersion(msg.body().getString("arId"), msg.body().getLong("version")));
+    }
+
+    if (options.getPartitions() > 0) {
+      rebalance();
+      vertx.setPeriodic(options.getMembershipCheckMs(), timerId -> rebalance());
+    }
+
+    if (commandIdFilter != null) {
+      seedCommandIdFilter();
+      vertx.setPeriodic(options.getCommandIdFilterWindowMs(), timerId -> commandIdFilter.rotate());
+    }
+
+  }
+
+  @Override
+  public void stop() throws Exception {
+    vertx.sharedData().<String, String>getLocalMap(commandHandlerMetricsId(aggregateRootClass)).remove(instanceId);
+    // the next owners take them once they are gone
+    partitionConsumers.forEach((partition, consumer) -> {
+      val lock = partitionLocks.remove(partition);
+      consumer.unregister(v -> lock.release());
+    });
+    partitionConsumers.clear();
+    blockingExecutor.close();
+    if (watchdog != null) {
+      watchdog.close();
+    }
+  }
+
+  JsonObject instanceMetrics() {
+    val json = metrics.toJson();
+    if (commandIdFilter != null) {
+      json.put("commandIdFilter", commandIdFilter.metrics());
+    }
+    if (options.getPartitions() > 0) {
+      json.put("partitionsOwned", partitionConsumers.size());
+    }
+    if (watchdog != null) {
+      json.put("cmdHandlersOverBudget", watchdog.overBudget());
+    }
+    if (concurrencyLimiter != null) {
+      json.put("concurrencyLimiter", concurrencyLimiter.metrics());
+    }
+    if (rateLimiter != null) {
+      json.put("rateLimiter", rateLimiter.metrics());
+    }
+    return json;
+  }
+
+  // the metrics of every instance of this node added up, with those of each one under "instances"
+  void nodeMetrics(Handler<JsonObject> handler) {
+
+    val instanceIds = new ArrayList<String>(
+            vertx.sharedData().<String, String>getLocalMap(commandHandlerMetricsId(aggregateRootClass)).keySet());
+    final List<Future> futures = new ArrayList<>();
+
+    for (String id : instanceIds) {
+      Future<JsonObject> future = Future.future();
+      futures.add(future);
+      vertx.eventBus().<JsonObject>send(commandHandlerMetricsId(aggregateRootClass, id), null, reply ->
+              // undeployed meanwhile
+              future.complete(reply.succeeded() ? reply.result().body() : null));
+    }
+
+    CompositeFuture.all(futures).setHandler(all -> {
+      val total = new JsonObject();
+      val instances = new JsonObject();
+      for (int i = 0; i < instanceIds.size(); i++) {
+        final JsonObject one = all.result().resultAt(i);
+        if (one != null) {
+          CommandHandlerMetrics.add(total, one);
+          instances.put(instanceIds.get(i), one);
+        }
+      }
+      handler.handle(total.put("instances", instances));
+    });
+
+  }
+
+  // commands are handled meanwhile, all of them looked up on the repository
+  void seedCommandIdFilter() {
+
+    Future<List<UUID>> recentFuture = Future.future();
+
+    eventRepository.selectRecentCommandIds((int) Math.min(Integer.MAX_VALUE,
+            options.getCommandIdFilterExpectedInsertions()), recentFuture);
+
+    recentFuture.setHandler(recentAsyncResult -> {
+      if (recentAsyncResult.failed()) {
+        log.error("when seeding the command id filter, it will stay off", recentAsyncResult.cause());
+        return;
+      }
+      // oldest first, so the newest ones are on the current window if they don't fit on a single one
+      val recent = recentAsyncResult.result();
+      for (int i = recent.size() - 1; i >= 0; i--) {
+        commandIdFilter.put(recent.get(i));
+      }
+      commandIdFilterSeeded = true;
+      log.info("command id filter seeded with {} command ids", recent.size());
+    });
+
+  }
+
+  void onVersion(String id, Long version) {
+
+    knownVersions.asMap().merge(id, version, Math::max);
+
+    // atomic, as instances may share the cache: a newer snapshot put meanwhile stays
+    cache.asMap().computeIfPresent(id, (key, snapshot) -> {
+      if (snapshot.getVersion().getValueAsLong() >= version) {
+        return snapshot;
+      }
+      metrics.staleSnapshotsEvicted.increment();
+      return null;
+    });
+
+  }
+
+  void publishVersion(UnitOfWork unitOfWork) {
+
+    val arId = unitOfWork.targetId().getStringValue();
+
+    knownVersions.asMap().merge(arId, unitOfWork.getVersion().getValueAsLong(), Math::max);
+
+    vertx.eventBus().publish(commandHandlerVersionsId(aggregateRootClass), new JsonObject()
+            .put("arName", aggregateRootClass.getSimpleName())
+            .put("arId", arId)
+            .put("version", unitOfWork.getVersion().getValueAsLong()));
+
+  }
+
+  // polled rather than through ClusterManager.nodeListener: Vert.x itself holds its single listener slot.
+  // A partition changes hands through its cluster lock: the old owner releases it only once it stopped taking its
+  // commands and forgot its snapshots, the new owner registers only once it got it. Meanwhile nobody takes them and
+  // senders retry (see sendToPartition). Locks of a node leaving the cluster are released by the cluster manager
+  void rebalance() {
+
+    val clusterManager = vertx instanceof VertxInternal ? ((VertxInternal) vertx).getClusterManager() : null;
+    val nodeId = clusterManager == null ? "local" : clusterManager.getNodeID();
+    val nodes = clusterManager == null ? singletonList(nodeId) : clusterManager.getNodes();
+
+    if (ring == null || !ring.nodes().equals(new HashSet<>(nodes))) {
+      ring = new ConsistentHashRing(options.getPartitions(), options.getVirtualNodes(), nodes);
+      metrics.rebalances.increment();
+      log.info("{} nodes: this one owns {} of {} partitions", nodes.size(), ownedPartitions(nodeId).size(),
+              options.getPartitions());
+    }
+
+    val owned = ownedPartitions(nodeId);
+    val lost = new HashSet<Integer>(partitionConsumers.keySet());
+    lost.removeAll(owned);
+
+    // stop taking commands first, then forget the snapshots: the new owner loads them from the repository
+    for (Integer partition : lost) {
+      val lock = partitionLocks.remove(partition);
+      partitionConsumers.remove(partition).unregister(v -> {
+        cache.invalidateAll(cache.asMap().keySet().stream()
+                .filter(id -> ConsistentHashRing.partitionOf(id, options.getPartitions()) == partition)
+                .collect(toList()));
+        lock.release();
+        log.info("handed partition {} over", partition);
+      });
+    }
+
+    // the ones still held by their previous owner are asked for again on the next check
+    for (Integer partition : owned) {
+      if (!partitionConsumers.containsKey(partition) && partitionsAskedFor.add(partition)) {
+        vertx.sharedData().getLockWithTimeout(commandHandlerPartitionLockId(aggregateRootClass, partition),
+                options.getMembershipCheckMs(), lockResult -> {
+          partitionsAskedFor.remove(partition);
+          if (lockResult.failed()) {
+            log.debug("partition {} is not handed over yet", partition);
+            return;
+          }
+          if (partitionConsumers.containsKey(partition) || !ownedPartitions(nodeId).contains(partition)) {
+            lockResult.result().release();
+            return;
+          }
+          partitionLocks.put(partition, lockResult.result());
+          partitionConsumers.put(partition,
+                  vertx.eventBus().consumer(commandHandlerId(aggregateRootClass, partition), msgHandler()));
+        });
+      }
+    }
+
+  }
+
+  Set<Integer> ownedPartitions(String nodeId) {
+    val owned = ring.partitionsOf(nodeId);
+    owned.removeIf(partition -> partition % Math.max(1, options.getInstances()) != instance);
+    return owned;
+  }
+
+  // for senders not aware of partitions
+  Handler<Message<Command>> forwardToPartitionHandler() {
+
+    return (Message<Command> msg) -> {
+
+      val command = msg.body();
+
+      if (command == null) {
+        msg.reply(VALIDATION_ERROR(singletonList("Command cannot be null. Check if JSON payload is valid.")));
+        return;
+      }
+
+      val partition = ConsistentHashRing.partitionOf(command.getTargetId().getStringValue(), options.getPartitions());
+      val deliveryOptions = new DeliveryOptions().setCodecName("Command");
+      val deadline = deadlineOf(msg);
+      if (deadline > 0) {
+        deliveryOptions.addHeader(DEADLINE_HEADER, String.valueOf(deadline));
+      }
+
+      sendToPartition(vertx, commandHandlerId(aggregateRootClass, partition), command, deliveryOptions, deadline,
+              reply -> {
+        if (reply.succeeded()) {
+          msg.reply(reply.result().body());
+        } else {
+          msg.fail(isNoHandlers(reply.cause()) ? 503 : 400, reply.cause().getMessage());
+        }
+      });
+
+    };
+  }
+
+  // sends a command to the address of its partition, again while that one has no consumer: it is changing hands (see
+  // rebalance). With a deadline, each send times out on it
+  public static <T> void sendToPartition(@NonNull Vertx vertx, @NonNull String address, @NonNull Command command,
+                                         @NonNull DeliveryOptions options, long deadline,
+                                         @NonNull Handler<AsyncResult<Message<T>>> replyHandler) {
+    val giveUpAt = deadline > 0 ? deadline : System.currentTimeMillis() + PARTITION_HANDOVER_MAX_WAIT_MS;
+    sendToPartition(vertx, address, command, options, deadline, giveUpAt, replyHandler);
+  }
+
+  static <T> void sendToPartition(Vertx vertx, String address, Command command, DeliveryOptions options,
+                                  long deadline, long giveUpAt, Handler<AsyncResult<Message<T>>> replyHandler) {
+    if (deadline > 0) {
+      options.setSendTimeout(Math.max(1, deadline - System.currentTimeMillis()));
+    }
+    vertx.eventBus().<T>send(address, command, options, reply -> {
+      if (reply.failed() && isNoHandlers(reply.cause())
+              && System.currentTimeMillis() + PARTITION_HANDOVER_RETRY_MS < giveUpAt) {
+        vertx.setTimer(PARTITION_HANDOVER_RETRY_MS, timerId ->
+                sendToPartition(vertx, address, command, options, deadline, giveUpAt, replyHandler));
+        return;
+      }
+      replyHandler.handle(reply);
+    });
+  }
+
+  public static boolean isNoHandlers(Throwable failure) {
+    return failure instanceof ReplyException && ((ReplyException) failure).failureType() == ReplyFailure.NO_HANDLERS;
+  }
+
+  public CommandHandlerMetrics metrics() {
+    return metrics;
   }
 
   Handler<Message<Command>> msgHandler() {
@@ -71,6 +477,24 @@ public class CommandHandlerVerticle<A extends AggregateRoot> extends AbstractVer
 
       log.info("received a command {}", command);
 
+      metrics.commands.increment();
+
+      val deadline = deadlineOf(msg);
+
+      if (isExpired(deadline)) {
+        metrics.expired.increment();
+        msg.reply(EXPIRED(command.getCommandId()));
+        return;
+      }
+
+      if (rateLimiter != null && !rateLimiter.tryAcquire(options.getRateLimitKeyFn().apply(command))) {
+        metrics.rateLimited.increment();
+        msg.reply(RATE_LIMITED(command.getCommandId()));
+        return;
+      }
+
+      retryBudget.deposit();
+
       val constraints = validatorFn.apply(command);
 
       if (!constraints.isEmpty()) {
@@ -78,79 +502,233 @@ public class CommandHandlerVerticle<A extends AggregateRoot> extends AbstractVer
         return;
       }
 
-      circuitBreaker.fallback(throwable -> {
+      if (concurrencyLimiter != null && !concurrencyLimiter.tryAcquire()) {
+        metrics.overloaded.increment();
+        msg.reply(OVERLOADED(command.getCommandId()));
+        return;
+      }
 
-        log.error("Fallback for command " + command.getCommandId(), throwable);
+      if (concurrencyLimiter == null) {
+        circuitBreaker.fallback(fallbackFn(command)).execute(cmdHandler(command, deadline))
+                .setHandler(resultHandler(msg));
+        return;
+      }
+
+      val ran = new AtomicBoolean();
+
+      circuitBreaker.fallback(fallbackFn(command)).execute(releasing(cmdHandler(command, deadline), ran))
+              .setHandler(releasingIfNeverRan(resultHandler(msg), ran));
+
+    };
+  }
 
-        return FALLBACK(command.getCommandId());
+  Function<Throwable, CommandExecution> fallbackFn(final Command command) {
 
-      })
+    return throwable -> {
 
-      .execute(cmdHandler(command))
+      log.error("Fallback for command " + command.getCommandId(), throwable);
 
-      .setHandler(resultHandler(msg));
+      return FALLBACK(command.getCommandId());
 
     };
   }
 
-  Handler<Future<CommandExecution>> cmdHandler(final Command command) {
+  Handler<Future<CommandExecution>> cmdHandler(final Command command, final long deadline) {
 
     return future1 -> {
 
-      val targetId = command.getTargetId().getStringValue();
+      if (!options.isIdempotentCommands()) {
+        loadAndHandle(command, deadline, future1);
+        return;
+      }
 
-      log.debug("cache.get(id)", targetId);
+      // it may have waited on the circuit breaker: no lookup for a command nobody waits for anymore
+      if (expired(command, deadline, future1)) {
+        return;
+      }
 
-      val snapshotFromCache = cache.getIfPresent(targetId);
+      Future<Optional<Long>> uowSequenceFuture = Future.future();
 
-      val cachedSnapshot = snapshotFromCache == null ? snapshotter.getEmptySnapshot() : snapshotFromCache;
+      findUowSequence(command, uowSequenceFuture);
 
-      log.debug("id {} cached lastSnapshotData has version {}. Will check if there any version beyond it",
-              targetId, cachedSnapshot.getVersion());
+      uowSequenceFuture.setHandler(uowSequenceAsyncResult -> {
+        if (uowSequenceAsyncResult.failed()) {
+          future1.fail(uowSequenceAsyncResult.cause());
+          return;
+        }
 
-      Future<SnapshotData> selectAfterVersionFuture = Future.future();
+        if (uowSequenceAsyncResult.result().isPresent()) {
+          alreadyProcessed(command, uowSequenceAsyncResult.result().get(), future1);
+          return;
+        }
+
+        loadAndHandle(command, deadline, future1);
+
+      });
+
+    };
+
+  }
 
+  // the recent commands of this instance first, then the command id filter and only then the repository. A negative of
+  // the filter misses the copies appended by other instances, or before a rotation: those fail on append with a
+  // DuplicateCommandException and are told apart there
+  void findUowSequence(Command command, Future<Optional<Long>> future) {
+
+    val uowSequence = recentCommands.getIfPresent(command.getCommandId());
+
+    if (uowSequence != null) {
+      future.complete(Optional.of(uowSequence));
+      return;
+    }
+
+    if (commandIdFilter == null || !commandIdFilterSeeded) {
+      eventRepository.getUowSequence(command.getCommandId(), future);
+      return;
+    }
+
+    if (!commandIdFilter.mightContain(command.getCommandId())) {
+      metrics.commandIdFilterNegatives.increment();
+      future.complete(Optional.empty());
+      return;
+    }
+
+    metrics.commandIdFilterPositives.increment();
+
+    Future<Optional<Long>> repositoryFuture = Future.future();
+
+    eventRepository.getUowSequence(command.getCommandId(), repositoryFuture);
+
+    repositoryFuture.map(found -> {
+      if (!found.isPresent()) {
+        metrics.commandIdFilterFalsePositives.increment();
+      }
+      return found;
+    }).setHandler(future.completer());
+
+  }
+
+  void alreadyProcessed(Command command, Long uowSequence, Future<CommandExecution> future) {
+    log.info("command {} was already processed as uowSequence {}", command.getCommandId(), uowSequence);
+    metrics.alreadyProcessed.increment();
+    if (recentCommands != null) {
+      recentCommands.put(command.getCommandId(), uowSequence);
+    }
+    future.complete(COMMAND_ALREADY_PROCESSED(command.getCommandId(), uowSequence));
+  }
+
+  void loadAndHandle(final Command command, final long deadline, final Future<CommandExecution> future1) {
+
+    if (expired(command, deadline, future1)) {
+      return;
+    }
+
+    val targetId = command.getTargetId().getStringValue();
+
+    log.debug("cache.get(id)", targetId);
+
+    val snapshotFromCache = cache.getIfPresent(targetId);
+
+    val cachedSnapshot = snapshotFromCache == null ? snapshotter.getEmptySnapshot() : snapshotFromCache;
+
+    if (snapshotFromCache != null && knownVersions != null &&
+            Long.valueOf(snapshotFromCache.getVersion().getValueAsLong()).equals(knownVersions.getIfPresent(targetId))) {
+      log.debug("id {} cached snapshot is on the latest version known {}", targetId, cachedSnapshot.getVersion());
+      metrics.catchUpsSkipped.increment();
+      runCmdHandler(command, cachedSnapshot, 0, deadline, future1);
+      return;
+    }
+
+    log.debug("id {} cached lastSnapshotData has version {}. Will check if there any version beyond it",
+            targetId, cachedSnapshot.getVersion());
+
+    Future<SnapshotData> selectAfterVersionFuture = Future.future();
+
+    val lastVersion = lastVersionVouchedFor(targetId, snapshotFromCache);
+
+    if (lastVersion == null) {
       eventRepository.selectAfterVersion(targetId, cachedSnapshot.getVersion(), selectAfterVersionFuture);
+    } else {
+      eventRepository.selectAfterVersion(targetId, cachedSnapshot.getVersion(), lastVersion, selectAfterVersionFuture);
+    }
 
-      selectAfterVersionFuture.setHandler(snapshotDataAsyncResult -> {
-        if (snapshotDataAsyncResult.failed()) {
-          future1.fail(snapshotDataAsyncResult.cause());
-          return;
-        }
+    selectAfterVersionFuture.setHandler(snapshotDataAsyncResult -> {
+      if (snapshotDataAsyncResult.failed()) {
+        future1.fail(snapshotDataAsyncResult.cause());
+        return;
+      }
 
-        SnapshotData nonCached = snapshotDataAsyncResult.result();
-        val totalOfNonCachedEvents = nonCached.getEvents().size();
+      SnapshotData nonCached = snapshotDataAsyncResult.result();
+      val totalOfNonCachedEvents = nonCached.getEvents().size();
 
-        log.debug("id {} found {} pending events. Last version is now {}", targetId, totalOfNonCachedEvents,
-                nonCached.getVersion());
+      log.debug("id {} found {} pending events. Last version is now {}", targetId, totalOfNonCachedEvents,
+              nonCached.getVersion());
 
-        val resultingSnapshot = totalOfNonCachedEvents > 0 ?
-                snapshotter.applyNewEventsToSnapshot(cachedSnapshot, nonCached.getVersion(), nonCached.getEvents())
-                : cachedSnapshot;
+      val resultingSnapshot = totalOfNonCachedEvents > 0 ?
+              snapshotter.applyNewEventsToSnapshot(cachedSnapshot, nonCached.getVersion(), nonCached.getEvents())
+              : cachedSnapshot;
 
-        if (totalOfNonCachedEvents > 0) {
-          cache.put(targetId, resultingSnapshot);
-        }
+      if (totalOfNonCachedEvents > 0) {
+        cache.put(targetId, resultingSnapshot);
+      }
 
-        // cmd handler _may_ be blocking. Otherwise, aggregate root would need to use reactive API to call
-        // external services
-        vertx.executeBlocking(blockingCmdHandler(command, resultingSnapshot), false, event -> {
+      runCmdHandler(command, resultingSnapshot, 0, deadline, future1);
 
-          if (event.succeeded()) {
-            future1.complete(event.result());
-          } else {
-            future1.fail(event.cause());
-          }
+    });
 
-        });
+  }
 
-      });
+  // the last version of id this instance can tell without asking the database, or null: the one heard of from the
+  // versions broadcast or, owning its partition, the one of its cached snapshot since no other node appends to it
+  Long lastVersionVouchedFor(String targetId, Snapshot<A> snapshotFromCache) {
+    if (knownVersions != null) {
+      val known = knownVersions.getIfPresent(targetId);
+      if (known != null) {
+        return known;
+      }
+    }
+    if (snapshotFromCache != null && ring != null && partitionConsumers.containsKey(ring.partitionOf(targetId))) {
+      return snapshotFromCache.getVersion().getValueAsLong();
+    }
+    return null;
+  }
 
-    };
+  void runCmdHandler(Command command, Snapshot<A> snapshot, int attempt, long deadline,
+                     Future<CommandExecution> future1) {
+
+    // right here, on this instance event loop
+    if (options.isCmdHandlerNonBlocking()) {
+      if (watchdog != null) {
+        watchdog.begin(command);
+      }
+      try {
+        blockingCmdHandler(command, snapshot, attempt, deadline).handle(future1);
+      } catch (Exception e) {
+        future1.tryFail(e);
+      } finally {
+        if (watchdog != null) {
+          watchdog.end();
+        }
+      }
+      return;
+    }
+
+    // cmd handler _may_ be blocking. Otherwise, aggregate root would need to use reactive API to call
+    // external services
+    blockingExecutor.execute(blockingCmdHandler(command, snapshot, attempt, deadline), false, event -> {
+
+      if (event.succeeded()) {
+        future1.complete(event.result());
+      } else {
+        future1.fail(event.cause());
+      }
+
+    });
 
   }
 
-  Handler<Future<CommandExecution>> blockingCmdHandler(Command command, Snapshot<A> resultingSnapshot) {
+  Handler<Future<CommandExecution>> blockingCmdHandler(Command command, Snapshot<A> resultingSnapshot, int attempt,
+                                                       long deadline) {
 
     return future2 ->
 
@@ -164,11 +742,22 @@ public class CommandHandlerVerticle<A extends AggregateRoot> extends AbstractVer
 
         if (unitOfWork.isPresent()) {
 
+          // it may have waited for a worker, or the handler may have been slow
+          if (expired(command, deadline, future2)) {
+            return null;
+          }
+
           Future<Either<Throwable, Long>> appendFuture = Future.future();
 
+          val appendStartNanos = System.nanoTime();
+
           eventRepository.append(unitOfWork.get(), appendFuture);
 
           appendFuture.setHandler(appendAsyncResult -> {
+            if (concurrencyLimiter != null) {
+              // the latency of the database, and its failures, are what the limit adapts to
+              concurrencyLimiter.sample(System.nanoTime() - appendStartNanos, appendAsyncResult.failed());
+            }
             if (appendAsyncResult.failed()) {
               future2.fail(appendAsyncResult.cause());
               return;
@@ -177,13 +766,58 @@ public class CommandHandlerVerticle<A extends AggregateRoot> extends AbstractVer
             Either<Throwable, Long> appendResult = appendAsyncResult.result();
             appendResult.match(cmdAppendError -> {
 
-              log.error("Exception for command {} message {}", command.getCommandId(), cmdAppendError.getMessage());
-              future2.complete(CONCURRENCY_ERROR(command.getCommandId(), cmdAppendError.getMessage()));
+              if (!options.isIdempotentCommands() && !(cmdAppendError instanceof DuplicateCommandException)) {
+                concurrencyError(command, resultingSnapshot, attempt, deadline, cmdAppendError, future2);
+                return null;
+              }
+
+              // the writer that got there first may have been this same command, sent again by its client. A
+              // DuplicateCommandException says it was, even when it was appended elsewhere after it was looked up
+              Future<Optional<Long>> uowSequenceFuture = Future.future();
+
+              eventRepository.getUowSequence(command.getCommandId(), uowSequenceFuture);
+
+              uowSequenceFuture.setHandler(uowSequenceAsyncResult -> {
+                if (uowSequenceAsyncResult.failed()) {
+                  future2.fail(uowSequenceAsyncResult.cause());
+                } else if (uowSequenceAsyncResult.result().isPresent()) {
+                  alreadyProcessed(command, uowSequenceAsyncResult.result().get(), future2);
+                } else {
+                  concurrencyError(command, resultingSnapshot, attempt, deadline, cmdAppendError, future2);
+                }
+              });
+
               return null;
 
             }, uowSequence -> {
 
-              future2.complete(SUCCESS(unitOfWork.get(), uowSequence));
+              metrics.successes.increment();
+              if (recentCommands != null) {
+                recentCommands.put(command.getCommandId(), uowSequence);
+              }
+              if (commandIdFilter != null) {
+                commandIdFilter.put(command.getCommandId());
+              }
+              if (knownVersions != null) {
+                // the next command on it needs no catch-up
+                cache.put(command.getTargetId().getStringValue(), snapshotter.applyNewEventsToSnapshot(
+                        resultingSnapshot, unitOfWork.get().getVersion(), unitOfWork.get().getEvents()));
+                publishVersion(unitOfWork.get());
+              }
+              if (attempt > 0) {
+                metrics.retriedSuccesses.increment();
+              }
+
+              if (options.isReplyWithUnitOfWork()) {
+                future2.complete(SUCCESS(unitOfWork.get(), uowSequence));
+                return null;
+              }
+
+              if (options.publishesUnitOfWork()) {
+                publish(unitOfWork.get(), uowSequence);
+              }
+
+              future2.complete(SUCCESS(command.getCommandId(), uowSequence));
               return null;
 
             });
@@ -200,6 +834,170 @@ public class CommandHandlerVerticle<A extends AggregateRoot> extends AbstractVer
       });
   }
 
+  void concurrencyError(Command command, Snapshot<A> snapshot, int attempt, long deadline, Throwable cmdAppendError,
+                        Future<CommandExecution> future) {
+
+    if (knownVersions != null) {
+      // a version broadcast was missed: the next command on it catches up
+      knownVersions.invalidate(command.getTargetId().getStringValue());
+    }
+
+    if (retryConcurrencyError(command, snapshot, attempt, deadline, future)) {
+      return;
+    }
+
+    log.error("Exception for command {} message {}", command.getCommandId(), cmdAppendError.getMessage());
+    metrics.concurrencyErrors.increment();
+    future.complete(CONCURRENCY_ERROR(command.getCommandId(), cmdAppendError.getMessage()));
+
+  }
+
+  // after a jittered backoff, reloads only the events the snapshot is missing and handles the command again.
+  // False when retries are off, exhausted or out of budget
+  boolean retryConcurrencyError(Command command, Snapshot<A> snapshot, int attempt, long deadline,
+                                Future<CommandExecution> future) {
+
+    if (attempt >= options.getMaxConcurrencyRetries()) {
+      if (attempt > 0) {
+        metrics.retriesExhausted.increment();
+      }
+      return false;
+    }
+
+    if (!retryBudget.tryWithdraw()) {
+      metrics.retryBudgetExhausted.increment();
+      return false;
+    }
+
+    metrics.concurrencyRetries.increment();
+
+    val targetId = command.getTargetId().getStringValue();
+
+    log.debug("will retry command {} on id {} (attempt {})", command.getCommandId(), targetId, attempt + 1);
+
+    vertx.setTimer(retryBackoffMs(attempt), timerId -> {
+
+      if (expired(command, deadline, future)) {
+        return;
+      }
+
+      Future<SnapshotData> missingFuture = Future.future();
+
+      eventRepository.selectAfterVersion(targetId, snapshot.getVersion(), missingFuture);
+
+      missingFuture.setHandler(missingAsyncResult -> {
+        if (missingAsyncResult.failed()) {
+          future.fail(missingAsyncResult.cause());
+          return;
+        }
+
+        val missing = missingAsyncResult.result();
+
+        val freshSnapshot = missing.getEvents().isEmpty() ? snapshot :
+                snapshotter.applyNewEventsToSnapshot(snapshot, missing.getVersion(), missing.getEvents());
+
+        if (!missing.getEvents().isEmpty()) {
+          cache.put(targetId, freshSnapshot);
+        }
+
+        runCmdHandler(command, freshSnapshot, attempt + 1, deadline, future);
+
+      });
+
+    });
+
+    return true;
+  }
+
+  // 0 when the sender set no deadline
+  static long deadlineOf(Message<?> msg) {
+    val deadline = msg.headers().get(DEADLINE_HEADER);
+    if (deadline == null) {
+      return 0;
+    }
+    try {
+      return Long.parseLong(deadline);
+    } catch (NumberFormatException e) {
+      log.warn("ignoring a bad {} header: {}", DEADLINE_HEADER, deadline);
+      return 0;
+    }
+  }
+
+  static boolean isExpired(long deadline) {
+    return deadline > 0 && System.currentTimeMillis() >= deadline;
+  }
+
+  // replies EXPIRED when past the deadline: the sender is gone, so there is no point going on
+  boolean expired(Command command, long deadline, Future<CommandExecution> future) {
+    if (!isExpired(deadline)) {
+      return false;
+    }
+    log.debug("dropping command {}: its deadline {} has passed", command.getCommandId(), deadline);
+    metrics.expired.increment();
+    future.complete(EXPIRED(command.getCommandId()));
+    return true;
+  }
+
+  // "full jitter": conflicting writers retrying at the same time would just conflict again
+  long retryBackoffMs(int attempt) {
+    val ceiling = Math.min(options.getConcurrencyRetryMaxBackoffMs(),
+            options.getConcurrencyRetryBackoffMs() << Math.min(attempt, 20));
+    return 1 + ThreadLocalRandom.current().nextLong(Math.max(ceiling, 0) + 1); // vertx timers must be >= 1 ms
+  }
+
+  void publish(UnitOfWork unitOfWork, Long uowSequence) {
+
+    val headers = new CaseInsensitiveHeaders().add("uowSequence", uowSequence.toString());
+    val optionsUow = new DeliveryOptions().setCodecName("UnitOfWork").setHeaders(headers);
+
+    vertx.eventBus().publish(eventsHandlerId(options.getEventsChannelId()), unitOfWork, optionsUow);
+
+  }
+
+  // gives the limiter back the command slot once the command itself is done: replied before the append or appended,
+  // its latency went to the limiter then. Not on the circuit breaker result, which comes on its timeout with the append
+  // still going on. The breaker fails its own future on a timeout, so the command completes one of its own
+  Handler<Future<CommandExecution>> releasing(Handler<Future<CommandExecution>> cmdHandler, AtomicBoolean ran) {
+
+    return (Future<CommandExecution> breakerFuture) -> {
+
+      ran.set(true);
+
+      Future<CommandExecution> future = Future.future();
+
+      future.setHandler(result -> {
+        concurrencyLimiter.release();
+        if (result.succeeded()) {
+          breakerFuture.tryComplete(result.result());
+        } else {
+          breakerFuture.tryFail(result.cause());
+        }
+      });
+
+      try {
+        cmdHandler.handle(future);
+      } catch (Exception e) {
+        future.tryFail(e);
+      }
+
+    };
+  }
+
+  // an open circuit breaker answers with its fallback without running the command at all
+  Handler<AsyncResult<CommandExecution>> releasingIfNeverRan(Handler<AsyncResult<CommandExecution>> handler,
+                                                             AtomicBoolean ran) {
+
+    return (AsyncResult<CommandExecution> result) -> {
+
+      if (!ran.get()) {
+        concurrencyLimiter.release();
+      }
+
+      handler.handle(result);
+
+    };
+  }
+
   Handler<AsyncResult<CommandExecution>> resultHandler(final Message<Command> msg) {
 
     return (AsyncResult<CommandExecution> resultHandler) -> {
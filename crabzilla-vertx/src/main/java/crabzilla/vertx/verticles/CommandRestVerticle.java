@@ -3,10 +3,15 @@ package crabzilla.vertx.verticles;
 import crabzilla.model.AggregateRoot;
 import crabzilla.model.Command;
 import crabzilla.vertx.CommandExecution;
+import crabzilla.vertx.util.ConsistentHashRing;
 import io.vertx.core.AbstractVerticle;
+import io.vertx.core.AsyncResult;
 import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
 import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.eventbus.ReplyFailure;
 import io.vertx.core.http.CaseInsensitiveHeaders;
 import io.vertx.core.http.HttpMethod;
 import io.vertx.core.json.Json;
@@ -21,16 +26,35 @@ import java.lang.reflect.Field;
 import java.util.Set;
 
 import static crabzilla.vertx.util.StringHelper.*;
+import static crabzilla.vertx.verticles.CommandHandlerVerticle.DEADLINE_HEADER;
+import static crabzilla.vertx.verticles.CommandHandlerVerticle.isNoHandlers;
+import static crabzilla.vertx.verticles.CommandHandlerVerticle.sendToPartition;
 
 @Slf4j
 public class CommandRestVerticle<A extends AggregateRoot> extends AbstractVerticle {
 
+  // deployment config
+  public static final String HTTP_PORT = "http.port";
+  public static final int DEFAULT_HTTP_PORT = 8080;
+  // how long a command may take, unless its caller asks for less with the COMMAND_TIMEOUT_HEADER (in ms)
+  public static final String COMMAND_TIMEOUT_MS = "command.timeout.ms";
+  public static final long DEFAULT_COMMAND_TIMEOUT_MS = DeliveryOptions.DEFAULT_TIMEOUT;
+  public static final String COMMAND_TIMEOUT_HEADER = "X-Command-Timeout-Ms";
+
   final Vertx vertx;
   final Class<A> aggregateRootClass;
+  final int partitions;
 
   public CommandRestVerticle(Vertx vertx, @NonNull Class<A> aggregateRootClass) {
+    this(vertx, aggregateRootClass, 0);
+  }
+
+  // partitions: the same CommandHandlerOptions.partitions of the command handlers, so commands go straight to the node
+  // owning their aggregate
+  public CommandRestVerticle(Vertx vertx, @NonNull Class<A> aggregateRootClass, int partitions) {
     this.vertx = vertx;
     this.aggregateRootClass = aggregateRootClass;
+    this.partitions = partitions;
   }
 
   @Override
@@ -52,7 +76,8 @@ public class CommandRestVerticle<A extends AggregateRoot> extends AbstractVertic
 
     val server = vertx.createHttpServer();
 
-    server.requestHandler(router::accept).listen(8080);
+    // instances deployed with the same port share it, taking connections in turn
+    server.requestHandler(router::accept).listen(config().getInteger(HTTP_PORT, DEFAULT_HTTP_PORT));
   }
 
   Handler<RoutingContext> contextHandler() {
@@ -60,27 +85,71 @@ public class CommandRestVerticle<A extends AggregateRoot> extends AbstractVertic
       routingContext.request().bodyHandler(buff -> {
         val command = Json.decodeValue(new String(buff.getBytes()), Command.class);
         val httpResp = routingContext.request().response();
-        val options = new DeliveryOptions().setCodecName("Command");
-        vertx.<CommandExecution>eventBus().send(commandHandlerId(aggregateRootClass), command, options, response -> {
+        // the handler drops it once nobody waits for its reply anymore
+        val timeoutMs = commandTimeoutMs(routingContext);
+        val deadline = System.currentTimeMillis() + timeoutMs;
+        val options = new DeliveryOptions().setCodecName("Command").setSendTimeout(timeoutMs)
+                .addHeader(DEADLINE_HEADER, String.valueOf(deadline));
+        Handler<AsyncResult<Message<CommandExecution>>> responseHandler = response -> {
           if (response.succeeded()) {
             log.info("success commands handler: {}", response);
             val result = (CommandExecution) response.result().body();
             if (CommandExecution.RESULT.SUCCESS.equals(result.getResult())) {
-              val headers = new CaseInsensitiveHeaders().add("uowSequence", result.getUowSequence().get().toString());
-              val optionsUow = new DeliveryOptions().setCodecName("UnitOfWork").setHeaders(headers);
-              vertx.<String>eventBus().publish(eventsHandlerId("example1"), result.getUnitOfWork().get(), optionsUow);
+              // slim replies means the UnitOfWork was already published by the command handler
+              if (result.getUnitOfWork().isPresent()) {
+                val headers = new CaseInsensitiveHeaders().add("uowSequence", result.getUowSequence().get().toString());
+                val optionsUow = new DeliveryOptions().setCodecName("UnitOfWork").setHeaders(headers);
+                vertx.<String>eventBus().publish(eventsHandlerId("example1"), result.getUnitOfWork().get(), optionsUow);
+              }
+              httpResp.end(response.result().body().toString());
+            } else if (CommandExecution.RESULT.COMMAND_ALREADY_PROCESSED.equals(result.getResult())) {
+              // a client retry: its UnitOfWork was published on the first execution
               httpResp.end(response.result().body().toString());
+            } else if (CommandExecution.RESULT.RATE_LIMITED.equals(result.getResult())) {
+              httpResp.setStatusCode(429).putHeader("Retry-After", "1").end(response.result().body().toString());
+            } else if (CommandExecution.RESULT.OVERLOADED.equals(result.getResult())) {
+              // shed by the command handler before being handled: it is safe to send it again
+              httpResp.setStatusCode(503).putHeader("Retry-After", "1").end(response.result().body().toString());
+            } else if (CommandExecution.RESULT.EXPIRED.equals(result.getResult())) {
+              httpResp.setStatusCode(504).end(response.result().body().toString());
             } else {
               //  TODO inform more details
               httpResp.setStatusCode(500).end(result.getConstraints().get().get(0));
             }
+          } else if (response.cause() instanceof ReplyException &&
+                  ((ReplyException) response.cause()).failureType() == ReplyFailure.TIMEOUT) {
+            httpResp.setStatusCode(504).end(response.cause().getMessage());
+          } else if (isNoHandlers(response.cause())) {
+            // its partition was still changing hands: it was never handled
+            httpResp.setStatusCode(503).putHeader("Retry-After", "1").end(response.cause().getMessage());
           } else {
             httpResp.setStatusCode(500).end(response.cause().getMessage());
           }
-        });
+        };
+        if (partitions > 0) {
+          // straight to the partition of its aggregate, waiting for it while it changes hands
+          sendToPartition(vertx, commandHandlerId(aggregateRootClass,
+                  ConsistentHashRing.partitionOf(command.getTargetId().getStringValue(), partitions)),
+                  command, options, deadline, responseHandler);
+        } else {
+          vertx.eventBus().send(commandHandlerId(aggregateRootClass), command, options, responseHandler);
+        }
       });
 
     };
   }
 
+  long commandTimeoutMs(RoutingContext routingContext) {
+    final long timeoutMs = config().getLong(COMMAND_TIMEOUT_MS, DEFAULT_COMMAND_TIMEOUT_MS);
+    final String requested = routingContext.request().getHeader(COMMAND_TIMEOUT_HEADER);
+    if (requested == null) {
+      return timeoutMs;
+    }
+    try {
+      return Math.max(1, Math.min(timeoutMs, Long.parseLong(requested)));
+    } catch (NumberFormatException e) {
+      return timeoutMs;
+    }
+  }
+
 }
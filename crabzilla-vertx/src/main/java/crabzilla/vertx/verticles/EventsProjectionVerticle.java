@@ -2,7 +2,9 @@ package crabzilla.vertx.verticles;
 
 import crabzilla.model.UnitOfWork;
 import crabzilla.vertx.EventProjector;
+import crabzilla.vertx.ProjectionBatch;
 import crabzilla.vertx.ProjectionData;
+import crabzilla.vertx.util.BlockingExecutor;
 import io.vertx.circuitbreaker.CircuitBreaker;
 import io.vertx.core.*;
 import io.vertx.core.eventbus.Message;
@@ -13,6 +15,7 @@ import lombok.val;
 import javax.inject.Inject;
 import javax.inject.Named;
 
+import static crabzilla.vertx.util.StringHelper.eventsBatchHandlerId;
 import static crabzilla.vertx.util.StringHelper.eventsHandlerId;
 import static java.util.Collections.singletonList;
 
@@ -23,6 +26,9 @@ public class EventsProjectionVerticle extends AbstractVerticle {
   final EventProjector eventProjector;
   final CircuitBreaker circuitBreaker;
 
+  // where the projector handles its messages
+  BlockingExecutor blockingExecutor;
+
   @Inject
   public EventsProjectionVerticle(@NonNull Vertx vertx,
                                   @NonNull EventProjector eventProjector,
@@ -30,6 +36,13 @@ public class EventsProjectionVerticle extends AbstractVerticle {
     this.vertx = vertx;
     this.eventProjector = eventProjector;
     this.circuitBreaker = circuitBreaker;
+    this.blockingExecutor = BlockingExecutor.workerPool(vertx);
+  }
+
+  // e.g. BlockingExecutor.virtualThreads(vertx): then a slow projector doesn't hold worker threads
+  public EventsProjectionVerticle runProjectorOn(@NonNull BlockingExecutor blockingExecutor) {
+    this.blockingExecutor = blockingExecutor;
+    return this;
   }
 
   @Override
@@ -37,6 +50,8 @@ public class EventsProjectionVerticle extends AbstractVerticle {
 
     vertx.eventBus().consumer(eventsHandlerId("example1"), msgHandler());
 
+    vertx.eventBus().consumer(eventsBatchHandlerId("example1"), batchMsgHandler());
+
   }
 
 
@@ -44,7 +59,7 @@ public class EventsProjectionVerticle extends AbstractVerticle {
 
     return (Message<UnitOfWork> msg) -> {
 
-      vertx.executeBlocking((Future<String> future) -> {
+      blockingExecutor.execute((Future<String> future) -> {
 
         log.info("Received ProjectionData msg {} ", msg);
 
@@ -63,7 +78,35 @@ public class EventsProjectionVerticle extends AbstractVerticle {
 
         .setHandler(resultHandler(msg));
 
-      }, resultHandler(msg));
+      }, true, resultHandler(msg));
+
+    };
+
+  }
+
+  Handler<Message<ProjectionBatch>> batchMsgHandler() {
+
+    return (Message<ProjectionBatch> msg) -> {
+
+      log.info("Received ProjectionBatch msg until uowSequence {} ", msg.headers().get("uowSequence"));
+
+      val batch = msg.body();
+
+      blockingExecutor.execute((Future<String> future) ->
+
+        circuitBreaker.fallback(throwable -> {
+          log.warn("Fallback for batchHandler ");
+          return "fallback";
+        })
+
+        .execute((Future<String> batchFuture) -> {
+          eventProjector.handle(batch.getProjectionData());
+          batchFuture.complete("roger that");
+        })
+
+        .setHandler(future.completer())
+
+      , true, resultHandler(msg));
 
     };
 
@@ -81,7 +124,7 @@ public class EventsProjectionVerticle extends AbstractVerticle {
 
   }
 
-  Handler<AsyncResult<String>> resultHandler(final Message<UnitOfWork> msg) {
+  Handler<AsyncResult<String>> resultHandler(final Message<?> msg) {
 
     return (AsyncResult<String> resultHandler) -> {
 
@@ -0,0 +1,246 @@
+package crabzilla.vertx.verticles;
+
+import crabzilla.vertx.ProjectionBatch;
+import crabzilla.vertx.ProjectionData;
+import crabzilla.vertx.repositories.GapAwareProjectionReader;
+import crabzilla.vertx.repositories.VertxEventsChannelRepository;
+import crabzilla.vertx.repositories.VertxProjectionRepository;
+import crabzilla.vertx.util.PollingBackoff;
+import crabzilla.vertx.util.SequenceGapTracker;
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.http.CaseInsensitiveHeaders;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.Lock;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+
+import java.util.List;
+
+import static crabzilla.vertx.util.StringHelper.eventsBatchHandlerId;
+import static crabzilla.vertx.util.StringHelper.eventsBatchPublishedId;
+import static crabzilla.vertx.util.StringHelper.eventsRelayId;
+
+// what: tails units_of_work by uow_seq_number and sends batches of them to the events channel
+// how: a batch is sent to eventsBatchHandlerId and the relay cursor is saved on events_channels only once a consumer
+// acknowledged it. Until then the same batch is sent again, after a backoff: a batch lost on the way, or sent while
+// no consumer is up, is never skipped (at-least-once, consumers must be idempotent by uowSequence). Acknowledged
+// batches are then published on eventsBatchPublishedId for subscriptions.
+// A single relay per channel is active in the cluster: it holds the cluster wide lock named after its cursor. The
+// others wait on it and one of them takes over, from the saved cursor, when it is undeployed or its node leaves.
+// Reads are gap aware: a unit of work committed late, with a lower uow_seq_number, is not skipped
+
+@Slf4j
+public class EventsRelayVerticle extends AbstractVerticle {
+
+  // how long a standby relay waits for the lock each time
+  static final long LOCK_WAIT_MS = 10_000;
+
+  final Vertx vertx;
+  final String eventsChannelId;
+  final VertxProjectionRepository projectionRepository;
+  final VertxEventsChannelRepository channelRepository;
+  final int maxRows;
+  final PollingBackoff backoff;
+  final long gapTimeoutMs;
+
+  GapAwareProjectionReader reader;
+  // sent but not acknowledged yet: sent again before reading anything else
+  ProjectionBatch unacknowledged;
+  Lock lock;
+  long timerId = -1;
+  boolean stopped;
+
+  public EventsRelayVerticle(@NonNull Vertx vertx,
+                             @NonNull String eventsChannelId,
+                             @NonNull VertxProjectionRepository projectionRepository,
+                             @NonNull VertxEventsChannelRepository channelRepository,
+                             int maxRows,
+                             @NonNull PollingBackoff backoff) {
+    this(vertx, eventsChannelId, projectionRepository, channelRepository, maxRows, backoff,
+            SequenceGapTracker.DEFAULT_GAP_TIMEOUT_MS);
+  }
+
+  public EventsRelayVerticle(@NonNull Vertx vertx,
+                             @NonNull String eventsChannelId,
+                             @NonNull VertxProjectionRepository projectionRepository,
+                             @NonNull VertxEventsChannelRepository channelRepository,
+                             int maxRows,
+                             @NonNull PollingBackoff backoff,
+                             long gapTimeoutMs) {
+    this.vertx = vertx;
+    this.eventsChannelId = eventsChannelId;
+    this.projectionRepository = projectionRepository;
+    this.channelRepository = channelRepository;
+    this.maxRows = maxRows;
+    this.backoff = backoff;
+    this.gapTimeoutMs = gapTimeoutMs;
+  }
+
+  @Override
+  public void start(Future<Void> startFuture) throws Exception {
+    acquireLock(startFuture);
+  }
+
+  // the deployment completes either as the active relay or as a standby one, still waiting for the lock
+  void acquireLock(Future<Void> startFuture) {
+
+    vertx.sharedData().getLockWithTimeout(eventsRelayId(eventsChannelId), LOCK_WAIT_MS, lockAsyncResult -> {
+
+      if (stopped) {
+        if (lockAsyncResult.succeeded()) {
+          lockAsyncResult.result().release();
+        }
+        return;
+      }
+
+      if (lockAsyncResult.failed()) {
+        log.debug("relay for channel {} standing by: another one is active", eventsChannelId);
+        startFuture.tryComplete();
+        acquireLock(startFuture);
+        return;
+      }
+
+      lock = lockAsyncResult.result();
+      startReading(startFuture);
+
+    });
+
+  }
+
+  void startReading(Future<Void> startFuture) {
+
+    Future<Long> lastSeqFuture = Future.future();
+
+    channelRepository.getLastUowSeq(eventsRelayId(eventsChannelId), lastSeqFuture);
+
+    lastSeqFuture.setHandler(lastSeqAsyncResult -> {
+      if (lastSeqAsyncResult.failed()) {
+        lock.release();
+        lock = null;
+        // a standby relay taking over was already deployed: it leaves the lock to the others and tries again
+        if (!startFuture.tryFail(lastSeqAsyncResult.cause())) {
+          log.error("relay for channel {} failed to read its cursor", eventsChannelId, lastSeqAsyncResult.cause());
+          schedule(backoff.onFailureIntervalMs(), () -> acquireLock(startFuture));
+        }
+        return;
+      }
+
+      val lastUowSequence = lastSeqAsyncResult.result();
+      log.info("relay for channel {} starting after uowSequence {}", eventsChannelId, lastUowSequence);
+
+      reader = new GapAwareProjectionReader(projectionRepository, lastUowSequence, maxRows, gapTimeoutMs);
+
+      startFuture.tryComplete();
+      poll();
+
+    });
+
+  }
+
+  @Override
+  public void stop() throws Exception {
+    stopped = true;
+    vertx.cancelTimer(timerId);
+    if (lock != null) {
+      lock.release();
+    }
+  }
+
+  public boolean isActive() {
+    return lock != null && !stopped;
+  }
+
+  public JsonObject metrics() {
+    return reader == null ? new JsonObject() : reader.metrics();
+  }
+
+  void poll() {
+
+    if (unacknowledged != null) {
+      send(unacknowledged);
+      return;
+    }
+
+    Future<List<ProjectionData>> selectFuture = Future.future();
+
+    reader.read(selectFuture);
+
+    selectFuture.setHandler(selectAsyncResult -> {
+      if (selectAsyncResult.failed()) {
+        log.error("relay for channel {} failed to read units of work", eventsChannelId, selectAsyncResult.cause());
+        schedule(backoff.onFailureIntervalMs());
+        return;
+      }
+
+      val uowList = selectAsyncResult.result();
+
+      if (uowList.isEmpty()) {
+        schedule(nextIntervalMs(0));
+        return;
+      }
+
+      unacknowledged = new ProjectionBatch(uowList);
+      send(unacknowledged);
+
+    });
+
+  }
+
+  void send(ProjectionBatch batch) {
+
+    val headers = new CaseInsensitiveHeaders().add("uowSequence", batch.lastUowSequence().toString());
+    val options = new DeliveryOptions().setCodecName(ProjectionBatch.class.getSimpleName()).setHeaders(headers);
+
+    vertx.eventBus().send(eventsBatchHandlerId(eventsChannelId), batch, options, ack -> {
+
+      if (ack.failed()) {
+        // no consumer, or it failed or timed out: the same batch goes again, the cursor stays
+        log.warn("relay for channel {} got no ack for the batch up to uowSequence {}: {}", eventsChannelId,
+                batch.lastUowSequence(), ack.cause().getMessage());
+        schedule(backoff.onFailureIntervalMs());
+        return;
+      }
+
+      unacknowledged = null;
+
+      vertx.eventBus().publish(eventsBatchPublishedId(eventsChannelId), batch, options);
+
+      Future<Void> updateFuture = Future.future();
+
+      // the checkpoint, not the last sent: a restart sends again whatever was above a gap
+      channelRepository.updateLastUowSeq(eventsRelayId(eventsChannelId), reader.checkpoint(), updateFuture);
+
+      updateFuture.setHandler(updateAsyncResult -> {
+        if (updateAsyncResult.failed()) {
+          // the batch will be sent again after a restart: consumers must be idempotent by uowSequence
+          log.error("relay for channel {} failed to save its cursor", eventsChannelId, updateAsyncResult.cause());
+        }
+        schedule(nextIntervalMs(batch.getProjectionData().size()));
+      });
+
+    });
+
+  }
+
+  long nextIntervalMs(int released) {
+    val intervalMs = backoff.nextIntervalMs(reader.lastReadWasFull() ? maxRows : released, maxRows);
+    // an open gap must be read again before it expires
+    return reader.hasOpenGaps() ? Math.max(1, Math.min(intervalMs, gapTimeoutMs)) : intervalMs;
+  }
+
+  void schedule(long delayMs) {
+    schedule(delayMs, this::poll);
+  }
+
+  void schedule(long delayMs, Runnable next) {
+    if (stopped) {
+      return;
+    }
+    timerId = vertx.setTimer(delayMs, id -> next.run());
+  }
+
+}
@@ -0,0 +1,313 @@
+package crabzilla.vertx.verticles;
+
+import crabzilla.vertx.EventProjector;
+import crabzilla.vertx.ProjectionData;
+import crabzilla.vertx.repositories.GapAwareProjectionReader;
+import crabzilla.vertx.repositories.VertxEventsChannelRepository;
+import crabzilla.vertx.repositories.VertxProjectionRepository;
+import crabzilla.vertx.util.BlockingExecutor;
+import crabzilla.vertx.util.PollingBackoff;
+import crabzilla.vertx.util.SequenceGapTracker;
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+// what: a single reader of units_of_work per node, fanning out each block it reads to many projectors
+// how: every projector has its own cursor (saved on events_channels). Projectors that are idle and up to date with
+// the tailer get the shared block. The ones that are busy or behind read on their own until they catch up, so a slow
+// projector never holds the fast ones back. The shared read is gap aware and its checkpoint is the head: catch-up
+// reads never go past it, so no projector skips a unit of work committed late
+
+@Slf4j
+public class EventsTailerVerticle extends AbstractVerticle {
+
+  final Vertx vertx;
+  final VertxProjectionRepository projectionRepository;
+  final VertxEventsChannelRepository channelRepository;
+  final int maxRows;
+  final PollingBackoff backoff;
+  final long gapTimeoutMs;
+
+  final Map<String, ProjectorCursor> cursors = new LinkedHashMap<>();
+
+  // where projectors handle their blocks
+  BlockingExecutor blockingExecutor;
+
+  GapAwareProjectionReader headReader;
+  long headUowSequence = 0L;
+  long timerId = -1;
+  boolean started;
+  boolean stopped;
+
+  public EventsTailerVerticle(@NonNull Vertx vertx,
+                              @NonNull VertxProjectionRepository projectionRepository,
+                              @NonNull VertxEventsChannelRepository channelRepository,
+                              int maxRows,
+                              @NonNull PollingBackoff backoff) {
+    this(vertx, projectionRepository, channelRepository, maxRows, backoff, SequenceGapTracker.DEFAULT_GAP_TIMEOUT_MS);
+  }
+
+  public EventsTailerVerticle(@NonNull Vertx vertx,
+                              @NonNull VertxProjectionRepository projectionRepository,
+                              @NonNull VertxEventsChannelRepository channelRepository,
+                              int maxRows,
+                              @NonNull PollingBackoff backoff,
+                              long gapTimeoutMs) {
+    this.vertx = vertx;
+    this.projectionRepository = projectionRepository;
+    this.channelRepository = channelRepository;
+    this.maxRows = maxRows;
+    this.backoff = backoff;
+    this.gapTimeoutMs = gapTimeoutMs;
+    this.blockingExecutor = BlockingExecutor.workerPool(vertx);
+  }
+
+  public EventsTailerVerticle register(@NonNull EventProjector projector) {
+    if (started) {
+      throw new IllegalStateException("projectors must be registered before deploying the tailer");
+    }
+    cursors.put(projector.getEventsChannelId(), new ProjectorCursor(projector));
+    return this;
+  }
+
+  // e.g. BlockingExecutor.virtualThreads(vertx): then slow projectors don't hold worker threads
+  public EventsTailerVerticle runProjectorsOn(@NonNull BlockingExecutor blockingExecutor) {
+    if (started) {
+      throw new IllegalStateException("the executor must be set before deploying the tailer");
+    }
+    this.blockingExecutor = blockingExecutor;
+    return this;
+  }
+
+  @Override
+  public void start(Future<Void> startFuture) throws Exception {
+
+    started = true;
+
+    final List<Future> loadFutures = new ArrayList<>();
+
+    for (ProjectorCursor cursor : cursors.values()) {
+      Future<Long> lastSeqFuture = Future.future();
+      channelRepository.getLastUowSeq(cursor.channelId(), lastSeqFuture);
+      loadFutures.add(lastSeqFuture.map(lastSeq -> cursor.lastUowSequence = lastSeq));
+    }
+
+    CompositeFuture.all(loadFutures).setHandler(loaded -> {
+      if (loaded.failed()) {
+        startFuture.fail(loaded.cause());
+        return;
+      }
+
+      // the tailer starts from the most advanced projector: the others will catch up on their own
+      headUowSequence = cursors.values().stream().mapToLong(c -> c.lastUowSequence).max().orElse(0L);
+      headReader = new GapAwareProjectionReader(projectionRepository, headUowSequence, maxRows, gapTimeoutMs);
+
+      log.info("tailer starting after uowSequence {} for channels {}", headUowSequence, cursors.keySet());
+
+      startFuture.complete();
+      poll();
+
+    });
+
+  }
+
+  @Override
+  public void stop() throws Exception {
+    stopped = true;
+    vertx.cancelTimer(timerId);
+  }
+
+  public JsonObject metrics() {
+    val channels = new JsonObject();
+    cursors.values().forEach(c -> channels.put(c.channelId(), new JsonObject()
+            .put("lastUowSequence", c.lastUowSequence)
+            .put("lag", lag(c.channelId()))
+            .put("catchUpReads", c.catchUpReads)
+            .put("failures", c.failures)));
+    return new JsonObject().put("headUowSequence", headUowSequence).put("channels", channels)
+            .put("gaps", headReader == null ? new JsonObject() : headReader.metrics());
+  }
+
+  public long lag(String channelId) {
+    val cursor = cursors.get(channelId);
+    return cursor == null ? 0L : Math.max(0L, headUowSequence - cursor.lastUowSequence);
+  }
+
+  void poll() {
+
+    Future<List<ProjectionData>> selectFuture = Future.future();
+
+    headReader.read(selectFuture);
+
+    selectFuture.setHandler(selectAsyncResult -> {
+      if (selectAsyncResult.failed()) {
+        log.error("tailer failed to read units of work", selectAsyncResult.cause());
+        schedule(backoff.onFailureIntervalMs());
+        return;
+      }
+
+      val block = selectAsyncResult.result();
+      val previousHead = headUowSequence;
+
+      headUowSequence = headReader.checkpoint();
+
+      for (ProjectorCursor cursor : cursors.values()) {
+        if (cursor.busy) {
+          continue;
+        }
+        if (!block.isEmpty() && cursor.lastUowSequence >= previousHead) {
+          deliver(cursor, block, headUowSequence);
+        } else {
+          catchUpIfBehind(cursor);
+        }
+      }
+
+      val intervalMs = backoff.nextIntervalMs(headReader.lastReadWasFull() ? maxRows : block.size(), maxRows);
+      // an open gap must be read again before it expires
+      schedule(headReader.hasOpenGaps() ? Math.max(1, Math.min(intervalMs, gapTimeoutMs)) : intervalMs);
+
+    });
+
+  }
+
+  // upToUowSequence: uowList has every unit of work up to it, so the cursor can move there even over expired gaps
+  void deliver(ProjectorCursor cursor, List<ProjectionData> uowList, long upToUowSequence) {
+
+    final List<ProjectionData> pending = uowList.stream()
+            .filter(uow -> uow.getUowSequence() > cursor.lastUowSequence)
+            .filter(cursor::wants)
+            .collect(Collectors.toList());
+
+    if (pending.isEmpty()) {
+      cursor.lastUowSequence = Math.max(cursor.lastUowSequence, upToUowSequence);
+      catchUpIfBehind(cursor);
+      return;
+    }
+
+    val lastOfPending = Math.max(pending.get(pending.size() - 1).getUowSequence(), upToUowSequence);
+
+    cursor.busy = true;
+
+    blockingExecutor.execute((Future<Long> future) -> {
+
+      cursor.projector.handle(pending);
+      future.complete(lastOfPending);
+
+    }, false, handled -> {
+
+      cursor.busy = false;
+
+      if (handled.failed()) {
+        // its cursor stays behind, so the next round will catch it up from where it stopped
+        cursor.failures++;
+        log.error("projector for channel {} failed", cursor.channelId(), handled.cause());
+        return;
+      }
+
+      cursor.lastUowSequence = handled.result();
+
+      Future<Void> updateFuture = Future.future();
+      channelRepository.updateLastUowSeq(cursor.channelId(), cursor.lastUowSequence, updateFuture);
+      updateFuture.setHandler(updated -> {
+        if (updated.failed()) {
+          log.error("failed to save cursor for channel {}", cursor.channelId(), updated.cause());
+        }
+      });
+
+      catchUpIfBehind(cursor);
+
+    });
+
+  }
+
+  void catchUpIfBehind(ProjectorCursor cursor) {
+
+    if (stopped || cursor.busy || cursor.lastUowSequence >= headUowSequence) {
+      return;
+    }
+
+    cursor.busy = true;
+    cursor.catchUpReads++;
+
+    val headAtRead = headUowSequence;
+
+    Future<List<ProjectionData>> selectFuture = Future.future();
+
+    if (cursor.eventTypes.isEmpty()) {
+      projectionRepository.selectAfterUowSequence(cursor.lastUowSequence, maxRows, selectFuture);
+    } else {
+      // a selective projector reads only the units of work having the events it cares about
+      projectionRepository.selectAfterUowSequence(cursor.lastUowSequence, maxRows, cursor.eventTypes, selectFuture);
+    }
+
+    selectFuture.setHandler(selectAsyncResult -> {
+
+      cursor.busy = false;
+
+      if (selectAsyncResult.failed()) {
+        cursor.failures++;
+        log.error("catch up read failed for channel {}", cursor.channelId(), selectAsyncResult.cause());
+        return;
+      }
+
+      val uowList = selectAsyncResult.result();
+
+      // beyond the head there may be gaps still open
+      final List<ProjectionData> settled = uowList.stream()
+              .filter(uow -> uow.getUowSequence() <= headAtRead)
+              .collect(Collectors.toList());
+
+      val upTo = uowList.size() < maxRows || settled.size() < uowList.size() ? headAtRead :
+              settled.get(settled.size() - 1).getUowSequence();
+
+      deliver(cursor, settled, upTo);
+
+    });
+
+  }
+
+  void schedule(long delayMs) {
+    if (stopped) {
+      return;
+    }
+    timerId = vertx.setTimer(delayMs, id -> poll());
+  }
+
+  static class ProjectorCursor {
+
+    final EventProjector projector;
+    final Set<String> eventTypes;
+    long lastUowSequence;
+    boolean busy;
+    long catchUpReads;
+    long failures;
+
+    ProjectorCursor(EventProjector projector) {
+      this.projector = projector;
+      this.eventTypes = projector.getEventTypes();
+    }
+
+    boolean wants(ProjectionData uow) {
+      return eventTypes.isEmpty() ||
+              uow.getEvents().stream().anyMatch(event -> eventTypes.contains(event.getClass().getSimpleName()));
+    }
+
+    String channelId() {
+      return projector.getEventsChannelId();
+    }
+
+  }
+
+}
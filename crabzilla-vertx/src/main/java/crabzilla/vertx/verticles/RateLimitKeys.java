@@ -0,0 +1,25 @@
+package crabzilla.vertx.verticles;
+
+import crabzilla.model.Command;
+
+import java.util.function.Function;
+
+// keys of the rate limit buckets (see CommandHandlerOptions.rateLimitKeyFn). Any other Function<Command, String> will
+// do, as one reading a tenant from the command
+
+public class RateLimitKeys {
+
+  // a bucket per aggregate: a client hammering one customer doesn't slow the others down
+  public static final Function<Command, String> TARGET_ID = command -> command.getTargetId().getStringValue();
+
+  // a bucket per command type
+  public static final Function<Command, String> COMMAND_TYPE = command -> command.getClass().getSimpleName();
+
+  // a bucket per command type of each aggregate
+  public static final Function<Command, String> TARGET_ID_AND_COMMAND_TYPE = command ->
+          command.getTargetId().getStringValue() + "/" + command.getClass().getSimpleName();
+
+  private RateLimitKeys() {
+  }
+
+}
@@ -0,0 +1,123 @@
+package crabzilla.vertx;
+
+import crabzilla.example1.aggregates.customer.CustomerId;
+import crabzilla.example1.aggregates.customer.commands.CreateCustomerCmd;
+import crabzilla.example1.aggregates.customer.events.CustomerCreated;
+import crabzilla.model.UnitOfWork;
+import crabzilla.model.Version;
+import crabzilla.vertx.repositories.VertxProjectionRepository;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.http.CaseInsensitiveHeaders;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import lombok.val;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.stubbing.VoidAnswer3;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static crabzilla.vertx.util.StringHelper.eventsBatchPublishedId;
+import static crabzilla.vertx.util.StringHelper.eventsHandlerId;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static org.mockito.AdditionalAnswers.answerVoid;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+@RunWith(VertxUnitRunner.class)
+public class EventsSubscriptionTest {
+
+  Vertx vertx;
+
+  @Mock
+  VertxProjectionRepository projectionRepository;
+
+  @Before
+  public void setUp(TestContext context) {
+    initMocks(this);
+    vertx = new VertxFactory().vertx();
+  }
+
+  @After
+  public void tearDown(TestContext context) {
+    vertx.close(context.asyncAssertSuccess());
+  }
+
+  @Test
+  public void catches_up_then_goes_live_without_duplicates_or_gaps(TestContext tc) {
+
+    Async async = tc.async();
+
+    selectAfter(0L, asList(projectionData(1L), projectionData(2L)));
+    selectAfter(2L, emptyList());
+    selectAfter(3L, asList(projectionData(4L), projectionData(5L)));
+    selectAfter(5L, emptyList());
+
+    final List<Long> received = new ArrayList<>();
+
+    val subscription = new EventsSubscription(vertx, "example1", projectionRepository, 10, 1000, 0)
+            .handler(uowList -> {
+              received.addAll(uowList.stream().map(ProjectionData::getUowSequence).collect(Collectors.toList()));
+              if (received.size() == 5) {
+                tc.assertEquals(asList(1L, 2L, 3L, 4L, 5L), received);
+                async.complete();
+              }
+            });
+
+    vertx.runOnContext(v -> {
+
+      Future<Void> startFuture = Future.future();
+
+      subscription.start(0L, startFuture);
+
+      startFuture.setHandler(tc.asyncAssertSuccess(started -> {
+
+        tc.assertTrue(subscription.isLive());
+
+        // 2 was already read from the database, 3 is new
+        val batch = new ProjectionBatch(asList(projectionData(2L), projectionData(3L)));
+        vertx.eventBus().publish(eventsBatchPublishedId("example1"), batch,
+                new DeliveryOptions().setCodecName(ProjectionBatch.class.getSimpleName()));
+
+        // 4 was not published: 5 opens a gap to be filled from the database
+        val headers = new CaseInsensitiveHeaders().add("uowSequence", "5");
+        vertx.eventBus().publish(eventsHandlerId("example1"), unitOfWork(),
+                new DeliveryOptions().setCodecName(UnitOfWork.class.getSimpleName()).setHeaders(headers));
+
+      }));
+
+    });
+
+  }
+
+  void selectAfter(Long uowSequence, List<ProjectionData> result) {
+    doAnswer(answerVoid((VoidAnswer3<Long, Integer, Future<List<ProjectionData>>>) (seq, max, future) ->
+            future.complete(result)))
+            .when(projectionRepository).selectAfterUowSequence(eq(uowSequence), anyInt(), any(Future.class));
+  }
+
+  static UnitOfWork unitOfWork() {
+    val customerId = new CustomerId("customer#5");
+    val cmd = new CreateCustomerCmd(UUID.randomUUID(), customerId, "customer");
+    return UnitOfWork.unitOfWork(cmd, new Version(1), singletonList(new CustomerCreated(customerId, "customer")));
+  }
+
+  static ProjectionData projectionData(Long uowSequence) {
+    val customerId = new CustomerId("customer#" + uowSequence);
+    return new ProjectionData(UUID.randomUUID().toString(), uowSequence, customerId.getStringValue(),
+            singletonList(new CustomerCreated(customerId, "customer")));
+  }
+
+}
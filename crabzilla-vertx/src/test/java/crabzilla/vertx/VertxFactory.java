@@ -35,6 +35,9 @@ public class VertxFactory {
     vertx.eventBus().registerDefaultCodec(UnitOfWork.class,
             new JacksonGenericCodec<>(mapper, UnitOfWork.class));
 
+    vertx.eventBus().registerDefaultCodec(ProjectionBatch.class,
+            new JacksonGenericCodec<>(mapper, ProjectionBatch.class));
+
     return vertx;
   }
 
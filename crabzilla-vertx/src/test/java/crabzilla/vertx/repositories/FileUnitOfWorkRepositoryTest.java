@@ -0,0 +1,321 @@
+package crabzilla.vertx.repositories;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.fasterxml.jackson.module.paramnames.ParameterNamesModule;
+import crabzilla.example1.aggregates.customer.Customer;
+import crabzilla.example1.aggregates.customer.CustomerId;
+import crabzilla.example1.aggregates.customer.commands.ActivateCustomerCmd;
+import crabzilla.example1.aggregates.customer.commands.CreateCustomerCmd;
+import crabzilla.example1.aggregates.customer.events.CustomerActivated;
+import crabzilla.example1.aggregates.customer.events.CustomerCreated;
+import crabzilla.model.Either;
+import crabzilla.model.SnapshotData;
+import crabzilla.model.UnitOfWork;
+import crabzilla.model.Version;
+import crabzilla.vertx.util.DbConcurrencyException;
+import crabzilla.vertx.util.DuplicateCommandException;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.Json;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import lombok.val;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.*;
+import java.util.stream.Stream;
+
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(VertxUnitRunner.class)
+public class FileUnitOfWorkRepositoryTest {
+
+  static final int SEGMENT_BYTES = 4096;
+
+  static Vertx vertx;
+
+  Path directory;
+  FileUnitOfWorkRepository repo;
+
+  final CustomerId customerId = new CustomerId("customer#1");
+  final CreateCustomerCmd createCmd = new CreateCustomerCmd(UUID.randomUUID(), customerId, "customer");
+  final UnitOfWork uow1 = UnitOfWork.unitOfWork(createCmd, new Version(1),
+          singletonList(new CustomerCreated(customerId, "customer")));
+
+  @BeforeClass
+  static public void setupClass() {
+    vertx = Vertx.vertx();
+    val mapper = Json.mapper;
+    mapper.enableDefaultTyping(ObjectMapper.DefaultTyping.NON_FINAL);
+    mapper.registerModule(new ParameterNamesModule())
+            .registerModule(new Jdk8Module())
+            .registerModule(new JavaTimeModule());
+  }
+
+  @Before
+  public void setup() throws IOException {
+    directory = Files.createTempDirectory("uow-file-store");
+    repo = FileUnitOfWorkRepository.open(Customer.class, vertx, directory, SEGMENT_BYTES);
+  }
+
+  @After
+  public void tearDown(TestContext tc) {
+    Future<Void> closeFuture = Future.future();
+    repo.close(closeFuture);
+    closeFuture.setHandler(tc.asyncAssertSuccess(v -> {
+      try (Stream<Path> files = Files.walk(directory)) {
+        files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+      } catch (IOException e) {
+        tc.fail(e);
+      }
+    }));
+  }
+
+  @Test
+  public void appends_and_reads_back(TestContext tc) {
+
+    Async async = tc.async();
+
+    Future<Either<Throwable, Long>> appendFuture = Future.future();
+    repo.append(uow1, appendFuture);
+
+    appendFuture.compose(result -> {
+      tc.assertEquals(1L, uowSequence(result));
+      Future<Optional<UnitOfWork>> getFuture = Future.future();
+      repo.get(uow1.getUnitOfWorkId(), getFuture);
+      return getFuture;
+    }).compose(uow -> {
+      tc.assertEquals(Optional.of(uow1), uow);
+      Future<SnapshotData> selectFuture = Future.future();
+      repo.selectAfterVersion(customerId.getStringValue(), Version.VERSION_ZERO, selectFuture);
+      return selectFuture;
+    }).setHandler(tc.asyncAssertSuccess(data -> {
+      tc.assertEquals(uow1.getVersion(), data.getVersion());
+      tc.assertEquals(uow1.getEvents(), data.getEvents());
+      async.complete();
+    }));
+
+  }
+
+  @Test
+  public void refuses_an_unexpected_version(TestContext tc) {
+
+    Async async = tc.async();
+
+    Future<Either<Throwable, Long>> appendFuture1 = Future.future();
+    repo.append(uow1, appendFuture1);
+
+    appendFuture1.compose(result -> {
+      Future<Either<Throwable, Long>> appendFuture2 = Future.future();
+      val otherCmd = new CreateCustomerCmd(UUID.randomUUID(), customerId, "customer");
+      repo.append(UnitOfWork.unitOfWork(otherCmd, new Version(1), uow1.getEvents()), appendFuture2);
+      return appendFuture2;
+    }).setHandler(tc.asyncAssertSuccess(result -> {
+      result.match(error -> {
+        tc.assertTrue(error instanceof DbConcurrencyException);
+        return null;
+      }, uowSequence -> {
+        tc.fail("should be a concurrency error");
+        return null;
+      });
+      async.complete();
+    }));
+
+  }
+
+  @Test
+  public void refuses_a_command_already_appended(TestContext tc) {
+
+    Async async = tc.async();
+
+    Future<Either<Throwable, Long>> appendFuture1 = Future.future();
+    repo.append(uow1, appendFuture1);
+
+    appendFuture1.compose(result -> {
+      Future<Either<Throwable, Long>> appendFuture2 = Future.future();
+      // handled again against the latest version: only its command id gives it away
+      repo.append(UnitOfWork.unitOfWork(createCmd, new Version(2), uow1.getEvents()), appendFuture2);
+      return appendFuture2;
+    }).setHandler(tc.asyncAssertSuccess(result -> {
+      result.match(error -> {
+        tc.assertTrue(error instanceof DuplicateCommandException);
+        return null;
+      }, uowSequence -> {
+        tc.fail("should be a duplicate command");
+        return null;
+      });
+      async.complete();
+    }));
+
+  }
+
+  @Test
+  public void selects_after_a_version_across_segments_and_after_reopening(TestContext tc) throws IOException {
+
+    val expected = new ArrayList<UnitOfWork>();
+    expected.add(uow1);
+    for (int version = 2; version <= 50; version++) {
+      val cmd = new ActivateCustomerCmd(UUID.randomUUID(), customerId, "reason " + version);
+      expected.add(UnitOfWork.unitOfWork(cmd, new Version(version),
+              singletonList(new CustomerActivated(cmd.getReason(), Instant.now()))));
+    }
+
+    appendAll(tc, expected);
+
+    tc.assertTrue(repo.metrics().getInteger("segments") > 1);
+
+    reopen(tc);
+
+    Async async = tc.async();
+
+    Future<SnapshotData> selectFuture = Future.future();
+    repo.selectAfterVersion(customerId.getStringValue(), new Version(45), selectFuture);
+
+    selectFuture.setHandler(tc.asyncAssertSuccess(data -> {
+      tc.assertEquals(new Version(50), data.getVersion());
+      tc.assertEquals(5, data.getEvents().size());
+      tc.assertEquals(expected.get(45).getEvents().get(0), data.getEvents().get(0));
+      async.complete();
+    }));
+
+  }
+
+  @Test
+  public void sequences_go_on_after_reopening(TestContext tc) throws IOException {
+
+    appendAll(tc, singletonList(uow1));
+
+    reopen(tc);
+
+    Async async = tc.async();
+
+    val cmd = new ActivateCustomerCmd(UUID.randomUUID(), customerId, "because");
+    Future<Either<Throwable, Long>> appendFuture = Future.future();
+    repo.append(UnitOfWork.unitOfWork(cmd, new Version(2), singletonList(new CustomerActivated("because",
+            Instant.now()))), appendFuture);
+
+    appendFuture.setHandler(tc.asyncAssertSuccess(result -> {
+      tc.assertEquals(2L, uowSequence(result));
+      async.complete();
+    }));
+
+  }
+
+  @Test
+  public void finds_the_uow_sequence_of_a_command_after_reopening(TestContext tc) throws IOException {
+
+    appendAll(tc, singletonList(uow1));
+
+    reopen(tc);
+
+    Async async = tc.async();
+
+    Future<Optional<Long>> uowSequenceFuture = Future.future();
+    repo.getUowSequence(createCmd.getCommandId(), uowSequenceFuture);
+
+    uowSequenceFuture.setHandler(tc.asyncAssertSuccess(uowSequence -> {
+      tc.assertEquals(Optional.of(1L), uowSequence);
+      async.complete();
+    }));
+
+  }
+
+  @Test
+  public void ignores_a_torn_tail(TestContext tc) throws IOException {
+
+    appendAll(tc, singletonList(uow1));
+
+    // as if the process died in the middle of the next record
+    try (RandomAccessFile file = new RandomAccessFile(directory.resolve("Customer")
+            .resolve(String.format("%020d%s", 0, FileUnitOfWorkRepository.SUFFIX)).toFile(), "rw")) {
+      file.seek(file.readInt());
+      file.writeInt(1000);
+      file.writeInt(42);
+    }
+
+    reopen(tc);
+
+    Async async = tc.async();
+
+    Future<SnapshotData> selectFuture = Future.future();
+    repo.selectAfterVersion(customerId.getStringValue(), Version.VERSION_ZERO, selectFuture);
+
+    selectFuture.setHandler(tc.asyncAssertSuccess(data -> {
+      tc.assertEquals(uow1.getVersion(), data.getVersion());
+      async.complete();
+    }));
+
+  }
+
+  @Test
+  public void syncs_concurrent_appends_together(TestContext tc) {
+
+    Async async = tc.async();
+
+    final List<Future> futures = new ArrayList<>();
+    for (int i = 0; i < 200; i++) {
+      val id = new CustomerId("customer#" + i);
+      val cmd = new CreateCustomerCmd(UUID.randomUUID(), id, "customer");
+      Future<Either<Throwable, Long>> appendFuture = Future.future();
+      repo.append(UnitOfWork.unitOfWork(cmd, new Version(1), singletonList(new CustomerCreated(id, "customer"))),
+              appendFuture);
+      futures.add(appendFuture);
+    }
+
+    CompositeFuture.all(futures).setHandler(tc.asyncAssertSuccess(all -> {
+      val sequences = new HashSet<Long>();
+      futures.forEach(f -> sequences.add(uowSequence((Either<Throwable, Long>) f.result())));
+      tc.assertEquals(200, sequences.size());
+      assertThat(repo.metrics().getLong("syncs")).isLessThanOrEqualTo(200L);
+      async.complete();
+    }));
+
+  }
+
+  void appendAll(TestContext tc, List<UnitOfWork> unitsOfWork) {
+    Async async = tc.async();
+    Future<Void> done = Future.succeededFuture();
+    for (UnitOfWork uow : unitsOfWork) {
+      done = done.compose(v -> {
+        Future<Either<Throwable, Long>> appendFuture = Future.future();
+        repo.append(uow, appendFuture);
+        return appendFuture.map(result -> {
+          uowSequence(result);
+          return null;
+        });
+      });
+    }
+    done.setHandler(tc.asyncAssertSuccess(v -> async.complete()));
+    async.await(10000);
+  }
+
+  void reopen(TestContext tc) throws IOException {
+    Async async = tc.async();
+    Future<Void> closeFuture = Future.future();
+    repo.close(closeFuture);
+    closeFuture.setHandler(tc.asyncAssertSuccess(v -> async.complete()));
+    async.await(5000);
+    repo = FileUnitOfWorkRepository.open(Customer.class, vertx, directory, SEGMENT_BYTES);
+  }
+
+  static Long uowSequence(Either<Throwable, Long> result) {
+    return result.match(error -> {
+      throw new AssertionError("unexpected " + error);
+    }, uowSequence -> uowSequence);
+  }
+
+}
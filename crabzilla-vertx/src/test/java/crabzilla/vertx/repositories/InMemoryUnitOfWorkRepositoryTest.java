@@ -0,0 +1,180 @@
+package crabzilla.vertx.repositories;
+
+import crabzilla.example1.aggregates.customer.CustomerId;
+import crabzilla.example1.aggregates.customer.commands.ActivateCustomerCmd;
+import crabzilla.example1.aggregates.customer.commands.CreateCustomerCmd;
+import crabzilla.example1.aggregates.customer.events.CustomerActivated;
+import crabzilla.example1.aggregates.customer.events.CustomerCreated;
+import crabzilla.model.Either;
+import crabzilla.model.SnapshotData;
+import crabzilla.model.UnitOfWork;
+import crabzilla.model.Version;
+import crabzilla.vertx.ProjectionData;
+import crabzilla.vertx.util.DbConcurrencyException;
+import crabzilla.vertx.util.DuplicateCommandException;
+import io.vertx.core.Future;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DisplayName("An InMemoryUnitOfWorkRepository")
+public class InMemoryUnitOfWorkRepositoryTest {
+
+  final InMemoryUnitOfWorkRepository repo = new InMemoryUnitOfWorkRepository(4);
+
+  final CustomerId customerId = new CustomerId("customer#1");
+  final UnitOfWork uow1 = created(customerId);
+  final UnitOfWork uow2 = activated(customerId, 2);
+
+  @Test
+  void appends_and_reads_back() {
+
+    assertThat(uowSequence(append(uow1))).isEqualTo(1L);
+    assertThat(uowSequence(append(uow2))).isEqualTo(2L);
+
+    Future<Optional<UnitOfWork>> getFuture = Future.future();
+    repo.get(uow2.getUnitOfWorkId(), getFuture);
+    assertThat(getFuture.result()).contains(uow2);
+
+    final SnapshotData all = selectAfterVersion(Version.VERSION_ZERO);
+    assertThat(all.getVersion()).isEqualTo(new Version(2));
+    assertThat(all.getEvents()).containsExactly(uow1.getEvents().get(0), uow2.getEvents().get(0));
+
+    final SnapshotData afterFirst = selectAfterVersion(new Version(1));
+    assertThat(afterFirst.getEvents()).containsExactly(uow2.getEvents().get(0));
+
+    assertThat(selectAfterVersion(new Version(2)).getVersion()).isEqualTo(Version.VERSION_ZERO);
+  }
+
+  @Test
+  void finds_the_uow_sequence_of_a_command() {
+    append(uow1);
+    append(uow2);
+
+    Future<Optional<Long>> uowSequenceFuture = Future.future();
+    repo.getUowSequence(uow2.getCommand().getCommandId(), uowSequenceFuture);
+    assertThat(uowSequenceFuture.result()).contains(2L);
+
+    uowSequenceFuture = Future.future();
+    repo.getUowSequence(UUID.randomUUID(), uowSequenceFuture);
+    assertThat(uowSequenceFuture.result()).isEmpty();
+
+    Future<List<UUID>> recentFuture = Future.future();
+    repo.selectRecentCommandIds(1, recentFuture);
+    assertThat(recentFuture.result()).containsExactly(uow2.getCommand().getCommandId());
+  }
+
+  @Test
+  void refuses_an_unexpected_version() {
+    append(uow1);
+    append(activated(customerId, 3)).match(error -> {
+      assertThat(error).isInstanceOf(DbConcurrencyException.class);
+      return null;
+    }, uowSequence -> {
+      throw new AssertionError("should be a concurrency error");
+    });
+    assertThat(repo.size()).isEqualTo(1);
+  }
+
+  @Test
+  void refuses_a_command_appended_already() {
+    append(uow1);
+    // handled again on top of the latest version
+    final UnitOfWork again = UnitOfWork.unitOfWork(uow1.getCommand(), new Version(2), uow1.getEvents());
+    append(again).match(error -> {
+      assertThat(error).isInstanceOf(DuplicateCommandException.class);
+      return null;
+    }, uowSequence -> {
+      throw new AssertionError("should be a duplicate command");
+    });
+    assertThat(repo.size()).isEqualTo(1);
+  }
+
+  @Test
+  void streams_after_an_uow_sequence() {
+    append(uow1);
+    append(created(new CustomerId("customer#2")));
+    append(uow2);
+
+    Future<List<ProjectionData>> selectFuture = Future.future();
+    repo.selectAfterUowSequence(1L, 10, selectFuture);
+    assertThat(selectFuture.result()).extracting(ProjectionData::getUowSequence).containsExactly(2L, 3L);
+
+    selectFuture = Future.future();
+    repo.selectAfterUowSequence(0L, 1, selectFuture);
+    assertThat(selectFuture.result()).extracting(ProjectionData::getTargetId).containsExactly("customer#1");
+  }
+
+  @Test
+  void lets_only_one_writer_win_each_version() throws Exception {
+
+    final int threads = 8;
+    final int aggregates = 20;
+    final int versions = 50;
+    final ExecutorService executor = Executors.newFixedThreadPool(threads);
+    final List<java.util.concurrent.Future<List<Long>>> results = new ArrayList<>();
+
+    // every thread tries to write every version of every aggregate
+    for (int t = 0; t < threads; t++) {
+      results.add(executor.submit(() -> {
+        final List<Long> won = new ArrayList<>();
+        for (int version = 1; version <= versions; version++) {
+          for (int a = 0; a < aggregates; a++) {
+            final CustomerId id = new CustomerId("customer#" + a);
+            final UnitOfWork uow = version == 1 ? created(id) : activated(id, version);
+            append(uow).match(error -> null, won::add);
+          }
+        }
+        return won;
+      }));
+    }
+
+    final List<Long> sequences = new ArrayList<>();
+    for (java.util.concurrent.Future<List<Long>> result : results) {
+      sequences.addAll(result.get(30, TimeUnit.SECONDS));
+    }
+    executor.shutdown();
+
+    assertThat(sequences).hasSize(aggregates * versions);
+    assertThat(sequences.stream().collect(Collectors.toSet())).hasSize(aggregates * versions);
+    assertThat(repo.lastUowSequence()).isEqualTo((long) aggregates * versions);
+    assertThat(selectAfterVersion(Version.VERSION_ZERO).getVersion()).isEqualTo(new Version(versions));
+  }
+
+  Either<Throwable, Long> append(UnitOfWork uow) {
+    Future<Either<Throwable, Long>> appendFuture = Future.future();
+    repo.append(uow, appendFuture);
+    return appendFuture.result();
+  }
+
+  SnapshotData selectAfterVersion(Version version) {
+    Future<SnapshotData> selectFuture = Future.future();
+    repo.selectAfterVersion(customerId.getStringValue(), version, selectFuture);
+    return selectFuture.result();
+  }
+
+  static Long uowSequence(Either<Throwable, Long> result) {
+    return result.match(error -> {
+      throw new AssertionError("unexpected " + error);
+    }, uowSequence -> uowSequence);
+  }
+
+  static UnitOfWork created(CustomerId id) {
+    final CreateCustomerCmd cmd = new CreateCustomerCmd(UUID.randomUUID(), id, "customer");
+    return UnitOfWork.unitOfWork(cmd, new Version(1), singletonList(new CustomerCreated(id, "customer")));
+  }
+
+  static UnitOfWork activated(CustomerId id, long version) {
+    final ActivateCustomerCmd cmd = new ActivateCustomerCmd(UUID.randomUUID(), id, "reason " + version);
+    return UnitOfWork.unitOfWork(cmd, new Version(version),
+            singletonList(new CustomerActivated(cmd.getReason(), Instant.now())));
+  }
+
+}
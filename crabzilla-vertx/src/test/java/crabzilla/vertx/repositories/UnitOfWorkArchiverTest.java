@@ -0,0 +1,99 @@
+package crabzilla.vertx.repositories;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.ext.jdbc.JDBCClient;
+import io.vertx.ext.sql.ResultSet;
+import io.vertx.ext.sql.SQLConnection;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.stubbing.VoidAnswer3;
+
+import java.nio.file.Files;
+import java.util.Collections;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.mockito.AdditionalAnswers.answerVoid;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+@RunWith(VertxUnitRunner.class)
+public class UnitOfWorkArchiverTest {
+
+  Vertx vertx;
+
+  @Mock
+  JDBCClient client;
+  @Mock
+  SQLConnection sqlConn;
+
+  UnitOfWorkArchiver archiver;
+
+  @Before
+  public void setUp() throws Exception {
+
+    initMocks(this);
+
+    vertx = Vertx.vertx();
+
+    doAnswer(invocation -> {
+      Handler<AsyncResult<SQLConnection>> handler = invocation.getArgument(0);
+      handler.handle(Future.succeededFuture(sqlConn));
+      return client;
+    }).when(client).getConnection(any());
+
+    // right after range_partitioned_units_of_work.sql: p0 is the oldest one, but not full yet
+    answer("information_schema.partitions", new JsonArray().add("p0").add("RANGE").add("1000000"));
+
+    archiver = new UnitOfWorkArchiver(vertx, client,
+            new UnitOfWorkArchive(vertx, Files.createTempDirectory("archive"), Collections.emptyList()));
+
+  }
+
+  @After
+  public void tearDown(TestContext context) {
+    vertx.close(context.asyncAssertSuccess());
+  }
+
+  @Test
+  public void leaves_a_partition_inserts_still_go_to(TestContext tc) {
+
+    answer("exists", new JsonArray().add(0L));
+
+    Future<Long> archiveFuture = Future.future();
+
+    archiver.archiveOldestPartition(archiveFuture);
+
+    archiveFuture.setHandler(tc.asyncAssertFailure(error -> {
+
+      tc.assertEquals("partition p0 is still open", error.getMessage());
+
+      verify(sqlConn).queryWithParams(contains("exists"), eq(new JsonArray().add(1000000L).add(3L)), any());
+      // nothing read, nothing dropped
+      verify(sqlConn, never()).queryStreamWithParams(anyString(), any(), any());
+      verify(sqlConn, never()).execute(anyString(), any());
+      verify(sqlConn).close();
+
+    }));
+
+  }
+
+  void answer(String sqlPart, JsonArray row) {
+    doAnswer(answerVoid((VoidAnswer3<String, JsonArray, Handler<AsyncResult<ResultSet>>>) (sql, params, handler) ->
+            handler.handle(Future.succeededFuture(new ResultSet()
+                    .setColumnNames(asList("c0", "c1", "c2").subList(0, row.size()))
+                    .setResults(singletonList(row))))))
+            .when(sqlConn).queryWithParams(contains(sqlPart), any(), any());
+  }
+
+}
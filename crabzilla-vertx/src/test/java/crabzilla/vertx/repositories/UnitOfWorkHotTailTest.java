@@ -0,0 +1,138 @@
+package crabzilla.vertx.repositories;
+
+import crabzilla.example1.aggregates.customer.CustomerId;
+import crabzilla.example1.aggregates.customer.commands.ActivateCustomerCmd;
+import crabzilla.example1.aggregates.customer.commands.CreateCustomerCmd;
+import crabzilla.example1.aggregates.customer.events.CustomerActivated;
+import crabzilla.example1.aggregates.customer.events.CustomerCreated;
+import crabzilla.model.SnapshotData;
+import crabzilla.model.UnitOfWork;
+import crabzilla.model.Version;
+import crabzilla.vertx.ProjectionData;
+import lombok.val;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DisplayName("An UnitOfWorkHotTail")
+public class UnitOfWorkHotTailTest {
+
+  static final String CUSTOMER = "Customer";
+
+  final CustomerId customerId = new CustomerId("customer#1");
+  final CreateCustomerCmd createCmd = new CreateCustomerCmd(UUID.randomUUID(), customerId, "customer");
+  final CustomerCreated created = new CustomerCreated(customerId, "customer");
+  final UnitOfWork uow1 = UnitOfWork.unitOfWork(createCmd, new Version(1), singletonList(created));
+
+  final ActivateCustomerCmd activateCmd = new ActivateCustomerCmd(UUID.randomUUID(), customerId, "I want it");
+  final CustomerActivated activated = new CustomerActivated(customerId.getStringValue(), Instant.now());
+  final UnitOfWork uow2 = UnitOfWork.unitOfWork(activateCmd, new Version(2), singletonList(activated));
+
+  UnitOfWorkHotTail hotTail;
+
+  @BeforeEach
+  void setup() {
+    hotTail = new UnitOfWorkHotTail(10, 1_000_000);
+  }
+
+  @Test
+  void serves_a_contiguous_run_of_sequences() {
+    hotTail.add(10L, CUSTOMER, uow1, 100);
+    hotTail.add(11L, CUSTOMER, uow2, 100);
+
+    val result = hotTail.selectAfterUowSequence(9L, 100);
+
+    assertThat(result).isPresent();
+    assertThat(result.get().stream().map(ProjectionData::getUowSequence).collect(Collectors.toList()))
+            .isEqualTo(asList(10L, 11L));
+  }
+
+  @Test
+  void stops_at_the_first_missing_sequence() {
+    hotTail.add(10L, CUSTOMER, uow1, 100);
+    hotTail.add(12L, CUSTOMER, uow2, 100);
+
+    val result = hotTail.selectAfterUowSequence(9L, 100);
+
+    assertThat(result.get()).hasSize(1);
+    assertThat(hotTail.selectAfterUowSequence(10L, 100)).isEmpty();
+  }
+
+  @Test
+  void respects_max_result_size() {
+    hotTail.add(10L, CUSTOMER, uow1, 100);
+    hotTail.add(11L, CUSTOMER, uow2, 100);
+
+    assertThat(hotTail.selectAfterUowSequence(9L, 1).get()).hasSize(1);
+  }
+
+  @Test
+  void serves_an_aggregate_when_its_versions_are_resident() {
+    hotTail.add(10L, CUSTOMER, uow1, 100);
+    hotTail.add(11L, CUSTOMER, uow2, 100);
+
+    assertThat(hotTail.selectAfterVersion(CUSTOMER, customerId.getStringValue(), new Version(0), 2L))
+            .contains(new SnapshotData(new Version(2), asList(created, activated)));
+    assertThat(hotTail.selectAfterVersion(CUSTOMER, customerId.getStringValue(), new Version(1), 2L))
+            .contains(new SnapshotData(new Version(2), singletonList(activated)));
+    assertThat(hotTail.selectAfterVersion(CUSTOMER, customerId.getStringValue(), new Version(2), 2L))
+            .contains(new SnapshotData(new Version(0), emptyList()));
+  }
+
+  @Test
+  void falls_back_when_another_node_may_have_appended() {
+    hotTail.add(10L, CUSTOMER, uow1, 100);
+
+    // a version 2 was heard of, but appended elsewhere
+    assertThat(hotTail.selectAfterVersion(CUSTOMER, customerId.getStringValue(), new Version(1), 2L)).isEmpty();
+    assertThat(hotTail.selectAfterVersion(CUSTOMER, customerId.getStringValue(), new Version(0), 2L)).isEmpty();
+    assertThat(hotTail.selectAfterVersion(CUSTOMER, customerId.getStringValue(), new Version(0), 1L)).isPresent();
+  }
+
+  @Test
+  void falls_back_when_older_versions_were_evicted() {
+    hotTail = new UnitOfWorkHotTail(1, 1_000_000);
+    hotTail.add(10L, CUSTOMER, uow1, 100);
+    hotTail.add(11L, CUSTOMER, uow2, 100);
+
+    assertThat(hotTail.selectAfterVersion(CUSTOMER, customerId.getStringValue(), new Version(0), 2L)).isEmpty();
+    assertThat(hotTail.selectAfterVersion(CUSTOMER, customerId.getStringValue(), new Version(1), 2L)).isPresent();
+    assertThat(hotTail.selectAfterUowSequence(9L, 100)).isEmpty();
+  }
+
+  @Test
+  void evicts_oldest_entries_to_stay_within_its_memory_budget() {
+    hotTail = new UnitOfWorkHotTail(10, 2 * (UnitOfWorkHotTail.ENTRY_OVERHEAD_BYTES + 100));
+    hotTail.add(10L, CUSTOMER, uow1, 100);
+    hotTail.add(11L, CUSTOMER, uow2, 100);
+    hotTail.add(12L, "Other", uow1, 100);
+
+    assertThat(hotTail.metrics().getLong("entries")).isEqualTo(2L);
+    assertThat(hotTail.metrics().getLong("evictions")).isEqualTo(1L);
+    assertThat(hotTail.selectAfterUowSequence(9L, 100)).isEmpty();
+  }
+
+  @Test
+  void forgets_an_invalidated_aggregate() {
+    hotTail.add(10L, CUSTOMER, uow1, 100);
+    hotTail.invalidate(CUSTOMER, customerId.getStringValue());
+
+    assertThat(hotTail.selectAfterVersion(CUSTOMER, customerId.getStringValue(), new Version(0), 1L)).isEmpty();
+    assertThat(hotTail.selectAfterUowSequence(9L, 100)).isEmpty();
+  }
+
+  @Test
+  void unknown_aggregate_is_not_resident() {
+    assertThat(hotTail.selectAfterVersion(CUSTOMER, "customer#2", new Version(0), 2L)).isEmpty();
+  }
+
+}
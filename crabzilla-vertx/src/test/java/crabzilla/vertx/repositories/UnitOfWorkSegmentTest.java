@@ -0,0 +1,122 @@
+package crabzilla.vertx.repositories;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@DisplayName("An UnitOfWorkSegment")
+public class UnitOfWorkSegmentTest {
+
+  Path directory;
+  UnitOfWorkSegment segment;
+
+  @BeforeEach
+  void setup() throws IOException {
+    directory = Files.createTempDirectory("segments");
+    try (UnitOfWorkSegment.Writer writer = new UnitOfWorkSegment.Writer(directory)) {
+      // 10 customers, with 10 versions each, interleaved on sequences 2, 4, 6 .. 200
+      for (int i = 0; i < 100; i++) {
+        writer.append(record((i + 1) * 2, "customer#" + (i % 10), i / 10 + 1));
+      }
+      segment = UnitOfWorkSegment.open(writer.finish());
+    }
+  }
+
+  @AfterEach
+  void tearDown() throws IOException {
+    segment.close();
+    try (Stream<Path> files = Files.walk(directory)) {
+      files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+    }
+  }
+
+  @Test
+  void is_named_after_its_sequence_range() throws IOException {
+    assertThat(segment.firstUowSequence()).isEqualTo(2L);
+    assertThat(segment.lastUowSequence()).isEqualTo(200L);
+    try (Stream<Path> files = Files.list(directory)) {
+      assertThat(files.map(path -> path.getFileName().toString()).collect(Collectors.toList()))
+              .containsExactly(UnitOfWorkSegment.fileName(2, 200));
+    }
+  }
+
+  @Test
+  void reads_back_what_was_written() {
+    assertThat(segment.read(0)).isEqualTo(record(2, "customer#0", 1));
+    assertThat(segment.read(99)).isEqualTo(record(200, "customer#9", 10));
+  }
+
+  @Test
+  void knows_the_last_version_of_each_aggregate_without_reading_records() {
+    assertThat(segment.lastVersion("Customer", "customer#3")).isEqualTo(10L);
+    assertThat(segment.lastVersion("Customer", "customer#10")).isEqualTo(0L);
+    assertThat(segment.lastVersion("Order", "customer#3")).isEqualTo(0L);
+  }
+
+  @Test
+  void selects_an_aggregate_after_a_version_in_version_order() {
+    final List<UnitOfWorkSegment.Record> records = segment.selectAfterVersion("Customer", "customer#3", 7);
+    assertThat(records).extracting(UnitOfWorkSegment.Record::getVersion).containsExactly(8L, 9L, 10L);
+    assertThat(records).extracting(UnitOfWorkSegment.Record::getUowSequence).containsExactly(148L, 168L, 188L);
+    assertThat(segment.selectAfterVersion("Customer", "customer#3", 10)).isEmpty();
+  }
+
+  @Test
+  void selects_after_a_sequence_even_when_it_is_not_on_the_segment() {
+    assertThat(segment.selectAfterUowSequence(0, 3, r -> true))
+            .extracting(UnitOfWorkSegment.Record::getUowSequence).containsExactly(2L, 4L, 6L);
+    assertThat(segment.selectAfterUowSequence(5, 2, r -> true))
+            .extracting(UnitOfWorkSegment.Record::getUowSequence).containsExactly(6L, 8L);
+    assertThat(segment.selectAfterUowSequence(199, 10, r -> true))
+            .extracting(UnitOfWorkSegment.Record::getUowSequence).containsExactly(200L);
+    assertThat(segment.selectAfterUowSequence(200, 10, r -> true)).isEmpty();
+  }
+
+  @Test
+  void selects_after_a_sequence_with_a_filter() {
+    assertThat(segment.selectAfterUowSequence(0, 2, r -> r.getAggregateRootId().equals("customer#1")))
+            .extracting(UnitOfWorkSegment.Record::getUowSequence).containsExactly(4L, 24L);
+  }
+
+  @Test
+  void refuses_records_out_of_sequence_order() throws IOException {
+    try (UnitOfWorkSegment.Writer writer = new UnitOfWorkSegment.Writer(directory)) {
+      writer.append(record(10, "customer#1", 1));
+      assertThrows(IllegalArgumentException.class, () -> writer.append(record(10, "customer#1", 2)));
+    }
+  }
+
+  @Test
+  void leaves_nothing_behind_when_not_finished() throws IOException {
+    try (UnitOfWorkSegment.Writer writer = new UnitOfWorkSegment.Writer(directory)) {
+      writer.append(record(300, "customer#1", 11));
+    }
+    try (Stream<Path> files = Files.list(directory)) {
+      assertThat(files.count()).isEqualTo(1L);
+    }
+  }
+
+  @Test
+  void rejects_a_file_that_is_not_a_segment() throws IOException {
+    final Path file = Files.write(directory.resolve("other" + UnitOfWorkSegment.SUFFIX), new byte[64]);
+    assertThrows(IOException.class, () -> UnitOfWorkSegment.open(file));
+  }
+
+  static UnitOfWorkSegment.Record record(long uowSequence, String id, long version) {
+    return new UnitOfWorkSegment.Record(uowSequence, "0f8fad5b-d9cb-469f-a165-" + String.format("%012d", uowSequence),
+            "Customer", id, version, "[{\"customerId\":\"" + id + "\",\"version\":" + version + "}]");
+  }
+
+}
@@ -0,0 +1,41 @@
+package crabzilla.vertx.repositories;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@DisplayName("An UuidCodec")
+public class UuidCodecTest {
+
+  final UUID uuid = UUID.fromString("0f8fad5b-d9cb-469f-a165-70867728950e");
+
+  @Test
+  void writes_32_hex_chars() {
+    assertThat(UuidCodec.toHex(uuid)).isEqualTo("0f8fad5bd9cb469fa16570867728950e");
+  }
+
+  @Test
+  void reads_hex_as_returned_by_mysql() {
+    assertThat(UuidCodec.fromHex("0F8FAD5BD9CB469FA16570867728950E")).isEqualTo(uuid);
+    assertThat(UuidCodec.canonicalFromHex("0F8FAD5BD9CB469FA16570867728950E")).isEqualTo(uuid.toString());
+  }
+
+  @Test
+  void round_trips_random_uuids() {
+    for (int i = 0; i < 1000; i++) {
+      final UUID random = UUID.randomUUID();
+      assertThat(UuidCodec.fromHex(UuidCodec.toHex(random))).isEqualTo(random);
+    }
+  }
+
+  @Test
+  void rejects_invalid_hex() {
+    assertThrows(IllegalArgumentException.class, () -> UuidCodec.fromHex("not-hex"));
+    assertThrows(IllegalArgumentException.class, () -> UuidCodec.fromHex("0F8FAD5BD9CB469FA16570867728950X"));
+  }
+
+}
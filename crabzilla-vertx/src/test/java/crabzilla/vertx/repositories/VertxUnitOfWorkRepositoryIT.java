@@ -93,6 +93,7 @@ public class VertxUnitOfWorkRepositoryIT {
     dbi.inTransaction(new VoidTransactionCallback() {
       @Override
       protected void execute(Handle handle, TransactionStatus transactionStatus) throws Exception {
+        handle.execute("delete from uow_event_types");
         handle.execute("delete from units_of_work");
         log.info("db is clean");
       }
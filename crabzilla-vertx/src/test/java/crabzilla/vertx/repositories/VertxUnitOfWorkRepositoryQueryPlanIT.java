@@ -0,0 +1,99 @@
+package crabzilla.vertx.repositories;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.skife.jdbi.v2.DBI;
+import org.skife.jdbi.v2.Handle;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// aggregate loads must stay on idx_uow_ar as units_of_work grows
+@Slf4j
+public class VertxUnitOfWorkRepositoryQueryPlanIT {
+
+  static final String AR_NAME = "QueryPlanIT";
+
+  static HikariDataSource datasource;
+  static DBI dbi;
+
+  @BeforeClass
+  static public void setupClass() {
+
+    HikariConfig config = new HikariConfig();
+    config.setDriverClassName("com.mysql.cj.jdbc.Driver");
+    config.setJdbcUrl("jdbc:mysql://127.0.0.1:3306/example1db?serverTimezone=UTC&useSSL=false");
+    config.setUsername("root");
+    config.setPassword("my-secret-pwd");
+
+    datasource = new HikariDataSource(config);
+    dbi = new DBI(datasource);
+
+    try (Handle handle = dbi.open()) {
+      handle.execute("delete from units_of_work where ar_name = ?", AR_NAME);
+      for (int ar = 0; ar < 100; ar++) {
+        for (int version = 1; version <= 5; version++) {
+          handle.execute("insert into units_of_work (uow_id, uow_events, cmd_id, cmd_data, ar_id, ar_name, version) " +
+                          "values (UNHEX(REPLACE(UUID(), '-', '')), '[]', UNHEX(REPLACE(UUID(), '-', '')), '{}', ?, ?, ?)",
+                  "customer#" + ar, AR_NAME, version);
+        }
+      }
+      handle.execute("analyze table units_of_work");
+    }
+
+  }
+
+  @AfterClass
+  static public void tearDown() {
+    try (Handle handle = dbi.open()) {
+      handle.execute("delete from units_of_work where ar_name = ?", AR_NAME);
+    }
+    datasource.close();
+  }
+
+  @Test
+  public void select_after_version_is_a_range_scan_in_version_order() {
+
+    val plan = explain(VertxUnitOfWorkRepository.selectAfterVersionSql(), AR_NAME, "customer#7", 2);
+
+    log.info("plan: {}", plan);
+
+    assertThat(plan).hasSize(1);
+    assertThat(plan.get(0).get("key")).isEqualTo("idx_uow_ar");
+    assertThat(extra(plan)).doesNotContain("filesort");
+
+  }
+
+  @Test
+  public void current_version_is_read_from_the_index_only() {
+
+    val plan = explain(VertxUnitOfWorkRepository.selectCurrentVersionSql(), AR_NAME, "customer#7");
+
+    log.info("plan: {}", plan);
+
+    assertThat(extra(plan)).matches(".*(Using index|optimized away).*");
+
+  }
+
+  static List<Map<String, Object>> explain(String sql, Object... params) {
+    try (Handle handle = dbi.open()) {
+      val query = handle.createQuery("explain " + sql);
+      for (int i = 0; i < params.length; i++) {
+        query.bind(i, params[i]);
+      }
+      return query.list();
+    }
+  }
+
+  static String extra(List<Map<String, Object>> plan) {
+    return String.valueOf(plan.get(0).get("Extra"));
+  }
+
+}
@@ -0,0 +1,104 @@
+package crabzilla.vertx.util;
+
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static java.util.Arrays.asList;
+
+@RunWith(VertxUnitRunner.class)
+public class BlockingExecutorTest {
+
+  Vertx vertx;
+
+  @Before
+  public void setUp() {
+    vertx = Vertx.vertx();
+  }
+
+  @After
+  public void tearDown(TestContext tc) {
+    vertx.close(tc.asyncAssertSuccess());
+  }
+
+  @Test
+  public void completes_on_the_caller_context_on_the_worker_pool(TestContext tc) {
+    completesOnTheCallerContext(BlockingExecutor.workerPool(vertx), tc);
+  }
+
+  @Test
+  public void completes_on_the_caller_context_on_virtual_threads(TestContext tc) {
+    // on runtimes without virtual threads it is the worker pool again
+    completesOnTheCallerContext(BlockingExecutor.virtualThreads(vertx), tc);
+  }
+
+  @Test
+  public void runs_ordered_calls_one_after_the_other(TestContext tc) {
+
+    final BlockingExecutor executor = BlockingExecutor.virtualThreads(vertx);
+    final List<Integer> ran = new CopyOnWriteArrayList<>();
+    final Async async = tc.async(3);
+
+    vertx.runOnContext(v -> {
+      for (int i = 1; i <= 3; i++) {
+        final int call = i;
+        executor.<Void>execute(future -> {
+          sleep(30 / call);
+          ran.add(call);
+          future.complete();
+        }, true, done -> async.countDown());
+      }
+    });
+
+    async.await();
+    tc.assertEquals(asList(1, 2, 3), ran);
+    executor.close();
+  }
+
+  @Test
+  public void fails_when_the_blocking_code_throws(TestContext tc) {
+
+    final BlockingExecutor executor = BlockingExecutor.virtualThreads(vertx);
+
+    vertx.runOnContext(v -> executor.<Void>execute(future -> {
+      throw new IllegalStateException("boom");
+    }, false, tc.asyncAssertFailure(error -> {
+      tc.assertEquals("boom", error.getMessage());
+      executor.close();
+    })));
+  }
+
+  void completesOnTheCallerContext(BlockingExecutor executor, TestContext tc) {
+
+    vertx.runOnContext(v -> {
+      final Context caller = Vertx.currentContext();
+      executor.execute((Future<String> future) -> {
+        tc.assertFalse(Context.isOnEventLoopThread());
+        future.complete("done");
+      }, false, tc.asyncAssertSuccess(result -> {
+        tc.assertEquals("done", result);
+        tc.assertTrue(caller == Vertx.currentContext());
+        executor.close();
+      }));
+    });
+  }
+
+  static void sleep(long ms) {
+    try {
+      Thread.sleep(ms);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+}
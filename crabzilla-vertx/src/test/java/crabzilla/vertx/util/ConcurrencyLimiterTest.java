@@ -0,0 +1,84 @@
+package crabzilla.vertx.util;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DisplayName("A ConcurrencyLimiter")
+public class ConcurrencyLimiterTest {
+
+  static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+  static final long SLOW = TimeUnit.MILLISECONDS.toNanos(500);
+
+  @Test
+  void sheds_beyond_its_limit() {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, 1, 10, 100, 0.5);
+    assertThat(limiter.tryAcquire()).isTrue();
+    assertThat(limiter.tryAcquire()).isTrue();
+    assertThat(limiter.tryAcquire()).isFalse();
+    limiter.release(FAST, false);
+    assertThat(limiter.tryAcquire()).isTrue();
+    assertThat(limiter.metrics().getLong("rejected")).isEqualTo(1L);
+  }
+
+  @Test
+  void grows_while_fast_and_saturated() {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, 1, 3, 100, 0.5);
+    limiter.tryAcquire();
+    limiter.tryAcquire();
+    limiter.release(FAST, false);
+    assertThat(limiter.limit()).isEqualTo(3);
+    limiter.release(FAST, false);
+    assertThat(limiter.limit()).isEqualTo(3);
+  }
+
+  @Test
+  void does_not_grow_when_mostly_idle() {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(4, 1, 10, 100, 0.5);
+    limiter.tryAcquire();
+    limiter.release(FAST, false);
+    assertThat(limiter.limit()).isEqualTo(4);
+  }
+
+  @Test
+  void backs_off_once_per_round_on_slow_or_failed_requests() {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(8, 1, 10, 100, 0.5);
+    for (int i = 0; i < 8; i++) {
+      limiter.tryAcquire();
+    }
+    limiter.release(SLOW, false);
+    assertThat(limiter.limit()).isEqualTo(4);
+    // the rest of this round was already in flight when the limit went down
+    for (int i = 0; i < 3; i++) {
+      limiter.release(SLOW, false);
+    }
+    assertThat(limiter.limit()).isEqualTo(4);
+    limiter.release(FAST, true);
+    assertThat(limiter.limit()).isEqualTo(2);
+  }
+
+  @Test
+  void is_not_moved_by_requests_without_a_sample() {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, 1, 10, 100, 0.5);
+    limiter.tryAcquire();
+    limiter.tryAcquire();
+    // as an open circuit answering right away would
+    limiter.release();
+    limiter.release();
+    assertThat(limiter.limit()).isEqualTo(2);
+    assertThat(limiter.metrics().getInteger("inFlight")).isEqualTo(0);
+  }
+
+  @Test
+  void never_goes_below_its_min() {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 10, 100, 0.5);
+    limiter.tryAcquire();
+    limiter.release(SLOW, true);
+    assertThat(limiter.limit()).isEqualTo(1);
+    assertThat(limiter.tryAcquire()).isTrue();
+  }
+
+}
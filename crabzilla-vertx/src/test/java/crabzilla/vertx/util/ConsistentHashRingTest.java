@@ -0,0 +1,67 @@
+package crabzilla.vertx.util;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DisplayName("A ConsistentHashRing")
+public class ConsistentHashRingTest {
+
+  static final int PARTITIONS = 271;
+
+  @Test
+  void puts_an_id_always_on_the_same_partition() {
+    assertThat(ConsistentHashRing.partitionOf("customer#1", PARTITIONS))
+            .isEqualTo(ConsistentHashRing.partitionOf("customer#1", PARTITIONS))
+            .isBetween(0, PARTITIONS - 1);
+  }
+
+  @Test
+  void is_the_same_whatever_order_nodes_are_given() {
+    ConsistentHashRing ring1 = new ConsistentHashRing(PARTITIONS, 64, asList("a", "b", "c"));
+    ConsistentHashRing ring2 = new ConsistentHashRing(PARTITIONS, 64, asList("c", "a", "b"));
+    for (int partition = 0; partition < PARTITIONS; partition++) {
+      assertThat(ring1.ownerOf(partition)).isEqualTo(ring2.ownerOf(partition));
+    }
+  }
+
+  @Test
+  void gives_every_partition_to_exactly_one_node() {
+    ConsistentHashRing ring = new ConsistentHashRing(PARTITIONS, 64, asList("a", "b", "c"));
+    Set<Integer> all = new HashSet<>();
+    for (String node : ring.nodes()) {
+      Set<Integer> owned = ring.partitionsOf(node);
+      assertThat(owned).doesNotContainAnyElementsOf(all);
+      all.addAll(owned);
+      // far from perfect balance, but no node is left out or takes it all
+      assertThat(owned.size()).isBetween(PARTITIONS / 6, PARTITIONS * 2 / 3);
+    }
+    assertThat(all).hasSize(PARTITIONS);
+  }
+
+  @Test
+  void moves_only_partitions_to_a_joining_node() {
+    ConsistentHashRing before = new ConsistentHashRing(PARTITIONS, 64, asList("a", "b", "c"));
+    ConsistentHashRing after = new ConsistentHashRing(PARTITIONS, 64, asList("a", "b", "c", "d"));
+    int moved = 0;
+    for (int partition = 0; partition < PARTITIONS; partition++) {
+      if (!before.ownerOf(partition).equals(after.ownerOf(partition))) {
+        assertThat(after.ownerOf(partition)).isEqualTo("d");
+        moved++;
+      }
+    }
+    assertThat(moved).isEqualTo(after.partitionsOf("d").size());
+    assertThat(moved).isLessThan(PARTITIONS / 2);
+  }
+
+  @Test
+  void gives_all_partitions_to_a_single_node() {
+    ConsistentHashRing ring = new ConsistentHashRing(PARTITIONS, 1, Collections.singletonList("a"));
+    assertThat(ring.partitionsOf("a")).hasSize(PARTITIONS);
+  }
+
+}
@@ -0,0 +1,43 @@
+package crabzilla.vertx.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DisplayName("A HandlerWatchdog")
+public class HandlerWatchdogTest {
+
+  final HandlerWatchdog watchdog = new HandlerWatchdog("test", 20, 5);
+
+  @AfterEach
+  void close() {
+    watchdog.close();
+  }
+
+  @Test
+  void ignores_handlers_within_budget() {
+    watchdog.begin("fast");
+    watchdog.end();
+    assertThat(watchdog.overBudget()).isEqualTo(0);
+  }
+
+  @Test
+  void reports_a_handler_over_budget_while_it_runs() throws InterruptedException {
+    watchdog.begin("slow");
+    Thread.sleep(100);
+    assertThat(watchdog.overBudget()).isEqualTo(1);
+    assertThat(watchdog.end()).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(100));
+    // once per call, whoever saw it first
+    assertThat(watchdog.overBudget()).isEqualTo(1);
+  }
+
+  @Test
+  void ends_nothing_when_nothing_began() {
+    assertThat(watchdog.end()).isEqualTo(0);
+  }
+
+}
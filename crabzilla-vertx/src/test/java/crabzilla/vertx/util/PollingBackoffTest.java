@@ -0,0 +1,46 @@
+package crabzilla.vertx.util;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DisplayName("A PollingBackoff")
+public class PollingBackoffTest {
+
+  PollingBackoff backoff;
+
+  @BeforeEach
+  void setup() {
+    backoff = new PollingBackoff(100, 1000, 3);
+  }
+
+  @Test
+  void polls_again_right_away_after_a_full_read() {
+    assertThat(backoff.nextIntervalMs(10, 10)).isEqualTo(1);
+  }
+
+  @Test
+  void uses_idle_interval_after_a_partial_read() {
+    assertThat(backoff.nextIntervalMs(3, 10)).isEqualTo(100);
+  }
+
+  @Test
+  void multiplies_interval_until_max_while_idle() {
+    assertThat(backoff.nextIntervalMs(0, 10)).isEqualTo(100);
+    assertThat(backoff.nextIntervalMs(0, 10)).isEqualTo(300);
+    assertThat(backoff.nextIntervalMs(0, 10)).isEqualTo(900);
+    assertThat(backoff.nextIntervalMs(0, 10)).isEqualTo(1000);
+    assertThat(backoff.nextIntervalMs(0, 10)).isEqualTo(1000);
+  }
+
+  @Test
+  void goes_back_to_idle_interval_once_there_is_something_to_read() {
+    backoff.nextIntervalMs(0, 10);
+    backoff.nextIntervalMs(0, 10);
+    assertThat(backoff.nextIntervalMs(1, 10)).isEqualTo(100);
+    assertThat(backoff.nextIntervalMs(0, 10)).isEqualTo(100);
+  }
+
+}
@@ -0,0 +1,49 @@
+package crabzilla.vertx.util;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DisplayName("A RetryBudget")
+public class RetryBudgetTest {
+
+  @Test
+  void starts_full() {
+    RetryBudget budget = new RetryBudget(0.1, 2);
+    assertThat(budget.tryWithdraw()).isTrue();
+    assertThat(budget.tryWithdraw()).isTrue();
+    assertThat(budget.tryWithdraw()).isFalse();
+  }
+
+  @Test
+  void earns_one_retry_every_ten_requests_with_ratio_of_one_tenth() {
+    RetryBudget budget = new RetryBudget(0.1, 2);
+    budget.tryWithdraw();
+    budget.tryWithdraw();
+    for (int i = 0; i < 9; i++) {
+      budget.deposit();
+    }
+    assertThat(budget.tryWithdraw()).isFalse();
+    budget.deposit();
+    budget.deposit();
+    assertThat(budget.tryWithdraw()).isTrue();
+  }
+
+  @Test
+  void never_saves_more_than_max_tokens() {
+    RetryBudget budget = new RetryBudget(1, 3);
+    for (int i = 0; i < 100; i++) {
+      budget.deposit();
+    }
+    assertThat(budget.tokens()).isEqualTo(3);
+  }
+
+  @Test
+  void never_retries_with_no_tokens() {
+    RetryBudget budget = new RetryBudget(0.5, 0);
+    budget.deposit();
+    assertThat(budget.tryWithdraw()).isFalse();
+  }
+
+}
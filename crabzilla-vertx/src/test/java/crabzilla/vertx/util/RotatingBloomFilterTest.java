@@ -0,0 +1,72 @@
+package crabzilla.vertx.util;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DisplayName("A RotatingBloomFilter")
+public class RotatingBloomFilterTest {
+
+  @Test
+  void has_no_false_negatives() {
+    RotatingBloomFilter filter = new RotatingBloomFilter(10_000, 0.01);
+    List<UUID> ids = new ArrayList<>();
+    for (int i = 0; i < 10_000; i++) {
+      UUID id = UUID.randomUUID();
+      ids.add(id);
+      filter.put(id);
+    }
+    assertThat(ids).allMatch(filter::mightContain);
+  }
+
+  @Test
+  void keeps_close_to_its_false_positive_rate() {
+    RotatingBloomFilter filter = new RotatingBloomFilter(10_000, 0.01);
+    for (int i = 0; i < 10_000; i++) {
+      filter.put(UUID.randomUUID());
+    }
+    int falsePositives = 0;
+    for (int i = 0; i < 100_000; i++) {
+      if (filter.mightContain(UUID.randomUUID())) {
+        falsePositives++;
+      }
+    }
+    assertThat(falsePositives / 100_000.0).isLessThan(0.02);
+    assertThat(filter.estimatedFalsePositiveRate()).isLessThan(0.02);
+  }
+
+  @Test
+  void forgets_after_two_rotations() {
+    RotatingBloomFilter filter = new RotatingBloomFilter(100, 0.01);
+    UUID id = UUID.randomUUID();
+    filter.put(id);
+    filter.rotate();
+    assertThat(filter.mightContain(id)).isTrue();
+    filter.rotate();
+    assertThat(filter.mightContain(id)).isFalse();
+  }
+
+  @Test
+  void rotates_once_a_window_got_its_expected_insertions() {
+    RotatingBloomFilter filter = new RotatingBloomFilter(100, 0.01);
+    for (int i = 0; i < 250; i++) {
+      filter.put(UUID.randomUUID());
+    }
+    assertThat(filter.metrics().getLong("rotations")).isEqualTo(2L);
+    assertThat(filter.metrics().getLong("currentInsertions")).isEqualTo(50L);
+  }
+
+  @Test
+  void exports_its_memory() {
+    RotatingBloomFilter filter = new RotatingBloomFilter(1_000_000, 0.01);
+    // about 9.6 bits per id, two filters
+    assertThat(filter.metrics().getLong("bytes")).isBetween(2_300_000L, 2_500_000L);
+    assertThat(filter.metrics().getInteger("hashes")).isEqualTo(7);
+  }
+
+}
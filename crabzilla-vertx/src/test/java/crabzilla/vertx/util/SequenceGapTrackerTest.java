@@ -0,0 +1,84 @@
+package crabzilla.vertx.util;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.function.ToLongFunction;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DisplayName("A SequenceGapTracker")
+public class SequenceGapTrackerTest {
+
+  static final long TIMEOUT = 1000;
+
+  SequenceGapTracker<Long> tracker;
+
+  @BeforeEach
+  void setup() {
+    tracker = new SequenceGapTracker<>(10L, TIMEOUT, 100, (ToLongFunction<Long>) Long::longValue);
+  }
+
+  @Test
+  void releases_contiguous_sequences_and_moves_the_checkpoint() {
+    assertThat(tracker.offer(asList(11L, 12L, 13L), 0)).isEqualTo(asList(11L, 12L, 13L));
+    assertThat(tracker.checkpoint()).isEqualTo(13L);
+    assertThat(tracker.hasOpenGaps()).isFalse();
+  }
+
+  @Test
+  void never_releases_the_same_sequence_twice() {
+    tracker.offer(asList(11L, 12L), 0);
+    assertThat(tracker.offer(asList(10L, 12L, 13L), 0)).isEqualTo(singletonList(13L));
+    assertThat(tracker.metrics().getLong("duplicates")).isEqualTo(2L);
+  }
+
+  @Test
+  void holds_back_sequences_above_a_gap_until_it_is_filled() {
+    assertThat(tracker.offer(asList(11L, 13L, 14L), 0)).isEqualTo(singletonList(11L));
+    assertThat(tracker.checkpoint()).isEqualTo(11L);
+    assertThat(tracker.hasOpenGaps()).isTrue();
+    assertThat(tracker.metrics().getInteger("openGaps")).isEqualTo(1);
+
+    assertThat(tracker.offer(singletonList(12L), 10)).isEqualTo(asList(12L, 13L, 14L));
+    assertThat(tracker.checkpoint()).isEqualTo(14L);
+    assertThat(tracker.metrics().getLong("lateArrivals")).isEqualTo(1L);
+  }
+
+  @Test
+  void keeps_a_young_gap_open() {
+    tracker.offer(asList(11L, 13L), 0);
+    assertThat(tracker.expireGaps(TIMEOUT - 1)).isEqualTo(emptyList());
+    assertThat(tracker.checkpoint()).isEqualTo(11L);
+  }
+
+  @Test
+  void skips_an_expired_gap() {
+    tracker.offer(asList(11L, 13L, 14L), 0);
+    assertThat(tracker.expireGaps(TIMEOUT)).isEqualTo(asList(13L, 14L));
+    assertThat(tracker.checkpoint()).isEqualTo(14L);
+    assertThat(tracker.metrics().getLong("expiredSequences")).isEqualTo(1L);
+  }
+
+  @Test
+  void ages_each_gap_from_when_it_was_found() {
+    tracker.offer(asList(12L), 0);
+    tracker.offer(asList(14L), 500);
+    assertThat(tracker.expireGaps(TIMEOUT)).isEqualTo(singletonList(12L));
+    assertThat(tracker.checkpoint()).isEqualTo(12L);
+    assertThat(tracker.expireGaps(TIMEOUT + 500)).isEqualTo(singletonList(14L));
+  }
+
+  @Test
+  void ignores_sequences_beyond_its_window() {
+    tracker = new SequenceGapTracker<>(10L, TIMEOUT, 2, (ToLongFunction<Long>) Long::longValue);
+    assertThat(tracker.offer(asList(11L, 13L), 0)).isEqualTo(singletonList(11L));
+    assertThat(tracker.highestSeen()).isEqualTo(11L);
+    assertThat(tracker.metrics().getLong("beyondWindow")).isEqualTo(1L);
+  }
+
+}
@@ -0,0 +1,50 @@
+package crabzilla.vertx.util;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DisplayName("A TokenBucketRateLimiter")
+public class TokenBucketRateLimiterTest {
+
+  static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  final TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(2, 3, 100);
+
+  @Test
+  void allows_a_burst_then_limits() {
+    assertThat(limiter.tryAcquire("a", 0)).isTrue();
+    assertThat(limiter.tryAcquire("a", 0)).isTrue();
+    assertThat(limiter.tryAcquire("a", 0)).isTrue();
+    assertThat(limiter.tryAcquire("a", 0)).isFalse();
+    assertThat(limiter.metrics().getLong("limited")).isEqualTo(1L);
+  }
+
+  @Test
+  void refills_at_its_rate() {
+    for (int i = 0; i < 3; i++) {
+      limiter.tryAcquire("a", 0);
+    }
+    assertThat(limiter.tryAcquire("a", SECOND / 2 - 1)).isFalse();
+    assertThat(limiter.tryAcquire("a", SECOND / 2)).isTrue();
+    assertThat(limiter.tryAcquire("a", SECOND / 2)).isFalse();
+    // never more than the burst, however long it was idle
+    for (int i = 0; i < 3; i++) {
+      assertThat(limiter.tryAcquire("a", 10 * SECOND)).isTrue();
+    }
+    assertThat(limiter.tryAcquire("a", 10 * SECOND)).isFalse();
+  }
+
+  @Test
+  void keeps_a_bucket_per_key() {
+    for (int i = 0; i < 3; i++) {
+      limiter.tryAcquire("a", 0);
+    }
+    assertThat(limiter.tryAcquire("a", 0)).isFalse();
+    assertThat(limiter.tryAcquire("b", 0)).isTrue();
+  }
+
+}
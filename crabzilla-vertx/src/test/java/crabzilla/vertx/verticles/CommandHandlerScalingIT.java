@@ -0,0 +1,156 @@
+package crabzilla.vertx.verticles;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import crabzilla.example1.aggregates.customer.*;
+import crabzilla.example1.aggregates.customer.commands.CreateCustomerCmd;
+import crabzilla.model.Command;
+import crabzilla.model.Snapshot;
+import crabzilla.model.Snapshotter;
+import crabzilla.model.StateTransitionsTracker;
+import crabzilla.vertx.CommandExecution;
+import crabzilla.vertx.CrabzillaVerticleFactory;
+import crabzilla.vertx.VertxFactory;
+import crabzilla.vertx.repositories.InMemoryUnitOfWorkRepository;
+import io.vertx.circuitbreaker.CircuitBreaker;
+import io.vertx.circuitbreaker.CircuitBreakerOptions;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static crabzilla.vertx.CrabzillaVerticleFactory.verticleName;
+import static crabzilla.vertx.util.StringHelper.commandHandlerId;
+
+// throughput of 1 to N handler instances deployed by name, all sharing one snapshot cache and one repository.
+// Numbers are logged: they depend on the box, so only the results of the commands are asserted
+@Slf4j
+@RunWith(VertxUnitRunner.class)
+public class CommandHandlerScalingIT {
+
+  static final int COMMANDS = 20_000;
+  static final int IN_FLIGHT = 512;
+
+  Vertx vertx;
+
+  @Before
+  public void setUp() {
+
+    vertx = new VertxFactory().vertx();
+
+    final LoadingCache<String, Snapshot<Customer>> cache = Caffeine.newBuilder()
+            .maximumSize(COMMANDS)
+            .build(key -> null);
+    final InMemoryUnitOfWorkRepository repository = new InMemoryUnitOfWorkRepository();
+    final Snapshotter<Customer> snapshotter = new Snapshotter<>(new CustomerSupplierFn(),
+            instance -> new StateTransitionsTracker<>(instance, new CustomerStateTransitionFn(), c -> c));
+
+    vertx.registerVerticleFactory(new CrabzillaVerticleFactory().register("customer.handler", () ->
+            new CommandHandlerVerticle<>(Customer.class,
+                    new CustomerCmdHandlerFn(instance ->
+                            new StateTransitionsTracker<>(instance, new CustomerStateTransitionFn(), c -> c)),
+                    new CustomerCommandValidatorFn(), snapshotter, repository, cache, vertx,
+                    CircuitBreaker.create("scaling-circuit-breaker", vertx,
+                            new CircuitBreakerOptions().setTimeout(10000).setFallbackOnFailure(false)),
+                    new CommandHandlerOptions().setReplyWithUnitOfWork(false))));
+  }
+
+  @After
+  public void tearDown(TestContext tc) {
+    vertx.close(tc.asyncAssertSuccess());
+  }
+
+  @Test(timeout = 10 * 60 * 1000)
+  public void scales_with_instances(TestContext tc) {
+
+    final List<Integer> instanceCounts = new ArrayList<>();
+    for (int instances = 1; instances <= Runtime.getRuntime().availableProcessors(); instances *= 2) {
+      instanceCounts.add(instances);
+    }
+
+    final Async async = tc.async();
+    final List<Long> throughputs = new ArrayList<>();
+
+    Future<Void> runs = Future.succeededFuture();
+    for (int instances : instanceCounts) {
+      runs = runs.compose(v -> run(instances)).map(commandsPerSecond -> {
+        log.info("{} instances: {} commands/s", instances, commandsPerSecond);
+        throughputs.add(commandsPerSecond);
+        return null;
+      });
+    }
+
+    runs.setHandler(done -> {
+      tc.assertTrue(done.succeeded(), String.valueOf(done.cause()));
+      log.info("instances {} -> commands/s {}", instanceCounts, throughputs);
+      async.complete();
+    });
+  }
+
+  // deploys the instances, sends COMMANDS new customers, IN_FLIGHT at a time, then undeploys
+  Future<Long> run(int instances) {
+
+    final Future<String> deployed = Future.future();
+    vertx.deployVerticle(verticleName("customer.handler"), new DeploymentOptions().setInstances(instances),
+            deployed.completer());
+
+    return deployed.compose(deploymentId -> {
+
+      final Future<Long> sent = Future.future();
+      final AtomicInteger toSend = new AtomicInteger(COMMANDS);
+      final AtomicInteger pending = new AtomicInteger(COMMANDS);
+      final long start = System.nanoTime();
+
+      for (int i = 0; i < IN_FLIGHT; i++) {
+        sendNext(toSend, pending, sent, start);
+      }
+
+      return sent.compose(commandsPerSecond -> {
+        final Future<Long> undeployed = Future.future();
+        vertx.undeploy(deploymentId, done -> undeployed.complete(commandsPerSecond));
+        return undeployed;
+      });
+    });
+  }
+
+  void sendNext(AtomicInteger toSend, AtomicInteger pending, Future<Long> sent, long start) {
+
+    if (toSend.getAndDecrement() <= 0) {
+      return;
+    }
+
+    final CustomerId customerId = new CustomerId(UUID.randomUUID().toString());
+    final Command command = new CreateCustomerCmd(UUID.randomUUID(), customerId, "customer");
+
+    vertx.eventBus().<CommandExecution>send(commandHandlerId(Customer.class), command,
+            new DeliveryOptions().setCodecName("Command"), reply -> {
+
+      if (reply.failed() || reply.result().body().getResult() != CommandExecution.RESULT.SUCCESS) {
+        sent.tryFail(reply.failed() ? reply.cause().toString() : reply.result().body().toString());
+        return;
+      }
+
+      if (pending.decrementAndGet() == 0) {
+        final long elapsedNanos = System.nanoTime() - start;
+        sent.tryComplete(COMMANDS * TimeUnit.SECONDS.toNanos(1) / elapsedNanos);
+      } else {
+        sendNext(toSend, pending, sent, start);
+      }
+    });
+  }
+
+}
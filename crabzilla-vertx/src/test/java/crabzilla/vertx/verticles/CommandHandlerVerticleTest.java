@@ -4,19 +4,25 @@ import com.github.benmanes.caffeine.cache.LoadingCache;
 import crabzilla.example1.aggregates.customer.Customer;
 import crabzilla.example1.aggregates.customer.CustomerId;
 import crabzilla.example1.aggregates.customer.CustomerSupplierFn;
+import crabzilla.example1.aggregates.customer.commands.ActivateCustomerCmd;
 import crabzilla.example1.aggregates.customer.commands.CreateCustomerCmd;
+import crabzilla.example1.aggregates.customer.events.CustomerActivated;
 import crabzilla.example1.aggregates.customer.events.CustomerCreated;
 import crabzilla.model.*;
 import crabzilla.vertx.CommandExecution;
 import crabzilla.vertx.VertxFactory;
 import crabzilla.vertx.repositories.VertxUnitOfWorkRepository;
+import crabzilla.vertx.util.ConsistentHashRing;
 import crabzilla.vertx.util.DbConcurrencyException;
+import crabzilla.vertx.util.DuplicateCommandException;
 import io.vertx.circuitbreaker.CircuitBreaker;
 import io.vertx.circuitbreaker.CircuitBreakerOptions;
 import io.vertx.core.Future;
+import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
 import io.vertx.core.eventbus.DeliveryOptions;
 import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.json.JsonObject;
 import io.vertx.ext.unit.Async;
 import io.vertx.ext.unit.TestContext;
 import io.vertx.ext.unit.junit.VertxUnitRunner;
@@ -31,15 +37,22 @@ import org.mockito.Mock;
 import org.mockito.stubbing.VoidAnswer2;
 import org.mockito.stubbing.VoidAnswer3;
 
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.BiFunction;
 import java.util.function.Function;
 
 import static crabzilla.vertx.CommandExecution.RESULT;
 import static crabzilla.vertx.util.StringHelper.commandHandlerId;
+import static crabzilla.vertx.util.StringHelper.commandHandlerMetricsId;
+import static crabzilla.vertx.util.StringHelper.commandHandlerPartitionLockId;
+import static crabzilla.vertx.util.StringHelper.commandHandlerVersionsId;
+import static crabzilla.vertx.util.StringHelper.eventsHandlerId;
 import static java.util.Arrays.asList;
 import static java.util.Collections.emptyList;
 import static java.util.Collections.singletonList;
@@ -54,6 +67,7 @@ public class CommandHandlerVerticleTest {
   public static final String FORCED_CONCURRENCY_EXCEPTION = "FORCED CONCURRENCY EXCEPTION";
   Vertx vertx;
   CircuitBreaker circuitBreaker;
+  String deploymentId;
 
   @Mock
   LoadingCache<String, Snapshot<Customer>> cache;
@@ -83,10 +97,22 @@ public class CommandHandlerVerticleTest {
     val verticle = new CommandHandlerVerticle<Customer>(Customer.class, cmdHandlerFn,
                               validatorFn, snapshotter, eventRepository, cache, vertx, circuitBreaker);
 
-    vertx.deployVerticle(verticle, context.asyncAssertSuccess());
+    vertx.deployVerticle(verticle, context.asyncAssertSuccess(id -> deploymentId = id));
 
   }
 
+  void redeployWith(CommandHandlerOptions options, TestContext tc, Handler<Void> then) {
+
+    val verticle = new CommandHandlerVerticle<Customer>(Customer.class, cmdHandlerFn,
+            validatorFn, snapshotter, eventRepository, cache, vertx, circuitBreaker, options);
+
+    vertx.undeploy(deploymentId, tc.asyncAssertSuccess(v ->
+            vertx.deployVerticle(verticle, tc.asyncAssertSuccess(id -> {
+              deploymentId = id;
+              then.handle(null);
+            }))));
+  }
+
   @After
   public void tearDown(TestContext context) {
     vertx.close(context.asyncAssertSuccess());
@@ -157,6 +183,272 @@ public class CommandHandlerVerticleTest {
 
   }
 
+  @Test
+  public void SUCCESS_slim_reply_scenario(TestContext tc) {
+
+    Async async = tc.async(2);
+
+    val customerId = new CustomerId("customer#1");
+    val createCustomerCmd = new CreateCustomerCmd(UUID.randomUUID(), customerId, "customer");
+    val initialSnapshot = new Snapshot<Customer>(new CustomerSupplierFn().get(), new Version(0));
+    val expectedEvent = new CustomerCreated(createCustomerCmd.getTargetId(), "customer");
+    val expectedUow = UnitOfWork.unitOfWork(createCustomerCmd, new Version(1), singletonList(expectedEvent));
+
+    when(cache.getIfPresent(eq(customerId.getStringValue()))).thenReturn(null);
+    when(validatorFn.apply(eq(createCustomerCmd))).thenReturn(emptyList());
+
+    doAnswer(answerVoid((VoidAnswer3<String, Version, Future<SnapshotData>>) (s, version, future) ->
+            future.complete(new SnapshotData(initialSnapshot.getVersion(), new ArrayList<>()))))
+            .when(eventRepository).selectAfterVersion(eq(customerId.getStringValue()),
+                                                      eq(initialSnapshot.getVersion()),
+                                                      any(Future.class));
+
+    doAnswer(answerVoid((VoidAnswer2<UnitOfWork, Future<Either<Throwable, Long>>>) (uow, future) ->
+            future.complete(Eithers.right(1L))))
+            .when(eventRepository).append(eq(expectedUow), any(Future.class));
+
+    when(snapshotter.getEmptySnapshot()).thenReturn(initialSnapshot);
+    when(cmdHandlerFn.apply(eq(createCustomerCmd), eq(initialSnapshot)))
+            .thenReturn(Eithers.right(Optional.of(expectedUow)));
+
+    val handlerOptions = new CommandHandlerOptions().setReplyWithUnitOfWork(false).setEventsChannelId("example1");
+
+    redeployWith(handlerOptions, tc, v -> {
+
+      vertx.eventBus().<UnitOfWork>consumer(eventsHandlerId("example1"), msg -> {
+        tc.assertEquals(expectedUow, msg.body());
+        tc.assertEquals("1", msg.headers().get("uowSequence"));
+        async.countDown();
+      });
+
+      val options = new DeliveryOptions().setCodecName("Command");
+
+      vertx.eventBus().send(commandHandlerId(Customer.class), createCustomerCmd, options, asyncResult -> {
+
+        tc.assertTrue(asyncResult.succeeded());
+
+        val response = (CommandExecution) asyncResult.result().body();
+
+        tc.assertEquals(RESULT.SUCCESS, response.getResult());
+        tc.assertEquals(createCustomerCmd.getCommandId(), response.getCommandId().get());
+        tc.assertEquals(1L, response.getUowSequence().get());
+        tc.assertFalse(response.getUnitOfWork().isPresent());
+
+        async.countDown();
+
+      });
+
+    });
+
+  }
+
+  @Test
+  public void SUCCESS_partitioned_scenario(TestContext tc) {
+
+    Async async = tc.async();
+
+    val customerId = new CustomerId("customer#1");
+    val createCustomerCmd = new CreateCustomerCmd(UUID.randomUUID(), customerId, "customer");
+    val initialSnapshot = new Snapshot<Customer>(new CustomerSupplierFn().get(), new Version(0));
+    val expectedEvent = new CustomerCreated(createCustomerCmd.getTargetId(), "customer");
+    val expectedUow = UnitOfWork.unitOfWork(createCustomerCmd, new Version(1), singletonList(expectedEvent));
+
+    when(cache.getIfPresent(eq(customerId.getStringValue()))).thenReturn(null);
+    when(validatorFn.apply(eq(createCustomerCmd))).thenReturn(emptyList());
+
+    doAnswer(answerVoid((VoidAnswer3<String, Version, Future<SnapshotData>>) (s, version, future) ->
+            future.complete(new SnapshotData(initialSnapshot.getVersion(), new ArrayList<>()))))
+            .when(eventRepository).selectAfterVersion(eq(customerId.getStringValue()),
+                                                      eq(initialSnapshot.getVersion()),
+                                                      any(Future.class));
+
+    doAnswer(answerVoid((VoidAnswer2<UnitOfWork, Future<Either<Throwable, Long>>>) (uow, future) ->
+            future.complete(Eithers.right(1L))))
+            .when(eventRepository).append(eq(expectedUow), any(Future.class));
+
+    when(snapshotter.getEmptySnapshot()).thenReturn(initialSnapshot);
+    when(cmdHandlerFn.apply(eq(createCustomerCmd), eq(initialSnapshot)))
+            .thenReturn(Eithers.right(Optional.of(expectedUow)));
+
+    redeployWith(new CommandHandlerOptions().setPartitions(8), tc, v -> {
+
+      val options = new DeliveryOptions().setCodecName("Command");
+
+      // sent to the plain address, forwarded to its partition: a single node owns all of them
+      vertx.eventBus().send(commandHandlerId(Customer.class), createCustomerCmd, options, asyncResult -> {
+
+        tc.assertTrue(asyncResult.succeeded());
+
+        val response = (CommandExecution) asyncResult.result().body();
+
+        tc.assertEquals(RESULT.SUCCESS, response.getResult());
+        tc.assertEquals(1L, response.getUowSequence().get());
+
+        vertx.eventBus().<JsonObject>send(commandHandlerMetricsId(Customer.class), null, metrics -> {
+          tc.assertEquals(8, metrics.result().body().getInteger("partitionsOwned"));
+          async.complete();
+        });
+
+      });
+
+    });
+
+  }
+
+  @Test
+  public void SUCCESS_without_catch_up_scenario(TestContext tc) {
+
+    Async async = tc.async();
+
+    val customerId = new CustomerId("customer#1");
+    val activateCustomerCmd = new ActivateCustomerCmd(UUID.randomUUID(), customerId, "because");
+    val cachedSnapshot = new Snapshot<Customer>(new CustomerSupplierFn().get(), new Version(1));
+    val expectedEvent = new CustomerActivated("because", Instant.now());
+    val expectedUow = UnitOfWork.unitOfWork(activateCustomerCmd, new Version(2), singletonList(expectedEvent));
+
+    when(cache.getIfPresent(eq(customerId.getStringValue()))).thenReturn(cachedSnapshot);
+    when(cache.asMap()).thenReturn(new ConcurrentHashMap<>());
+    when(validatorFn.apply(eq(activateCustomerCmd))).thenReturn(emptyList());
+
+    doAnswer(answerVoid((VoidAnswer2<UnitOfWork, Future<Either<Throwable, Long>>>) (uow, future) ->
+            future.complete(Eithers.right(2L))))
+            .when(eventRepository).append(eq(expectedUow), any(Future.class));
+
+    when(cmdHandlerFn.apply(eq(activateCustomerCmd), eq(cachedSnapshot)))
+            .thenReturn(Eithers.right(Optional.of(expectedUow)));
+
+    redeployWith(new CommandHandlerOptions().setBroadcastVersions(true), tc, v -> {
+
+      // as another node would after appending version 1
+      vertx.eventBus().publish(commandHandlerVersionsId(Customer.class),
+              new JsonObject().put("arName", "Customer").put("arId", customerId.getStringValue()).put("version", 1L));
+
+      val versions = new ArrayList<Long>();
+      vertx.eventBus().<JsonObject>consumer(commandHandlerVersionsId(Customer.class),
+              msg -> versions.add(msg.body().getLong("version")));
+
+      vertx.setTimer(100, timerId -> {
+
+        val options = new DeliveryOptions().setCodecName("Command");
+
+        vertx.eventBus().send(commandHandlerId(Customer.class), activateCustomerCmd, options, asyncResult -> {
+
+          verify(validatorFn).apply(eq(activateCustomerCmd));
+          verify(cmdHandlerFn).apply(eq(activateCustomerCmd), eq(cachedSnapshot));
+          verify(eventRepository).append(eq(expectedUow), any());
+
+          // no selectAfterVersion
+          verifyNoMoreInteractions(validatorFn, eventRepository, cmdHandlerFn);
+
+          tc.assertTrue(asyncResult.succeeded());
+          tc.assertEquals(RESULT.SUCCESS, ((CommandExecution) asyncResult.result().body()).getResult());
+
+          vertx.setTimer(100, timerId2 -> {
+            tc.assertEquals(singletonList(2L), versions);
+            async.complete();
+          });
+
+        });
+
+      });
+
+    });
+
+  }
+
+  @Test
+  public void SUCCESS_thread_affine_scenario(TestContext tc) {
+
+    Async async = tc.async();
+
+    val customerId = new CustomerId("customer#1");
+    val createCustomerCmd = new CreateCustomerCmd(UUID.randomUUID(), customerId, "customer");
+    val initialSnapshot = new Snapshot<Customer>(new CustomerSupplierFn().get(), new Version(0));
+    val expectedEvent = new CustomerCreated(createCustomerCmd.getTargetId(), "customer");
+    val expectedUow = UnitOfWork.unitOfWork(createCustomerCmd, new Version(1), singletonList(expectedEvent));
+
+    when(cache.getIfPresent(eq(customerId.getStringValue()))).thenReturn(null);
+    when(validatorFn.apply(eq(createCustomerCmd))).thenReturn(emptyList());
+
+    doAnswer(answerVoid((VoidAnswer3<String, Version, Future<SnapshotData>>) (s, version, future) ->
+            future.complete(new SnapshotData(initialSnapshot.getVersion(), new ArrayList<>()))))
+            .when(eventRepository).selectAfterVersion(eq(customerId.getStringValue()),
+                                                      eq(initialSnapshot.getVersion()),
+                                                      any(Future.class));
+
+    doAnswer(answerVoid((VoidAnswer2<UnitOfWork, Future<Either<Throwable, Long>>>) (uow, future) ->
+            future.complete(Eithers.right(1L))))
+            .when(eventRepository).append(eq(expectedUow), any(Future.class));
+
+    when(snapshotter.getEmptySnapshot()).thenReturn(initialSnapshot);
+    when(cmdHandlerFn.apply(eq(createCustomerCmd), eq(initialSnapshot)))
+            .thenReturn(Eithers.right(Optional.of(expectedUow)));
+
+    val handlerOptions = new CommandHandlerOptions().setPartitions(8).setInstances(2).setCmdHandlerNonBlocking(true);
+
+    val verticles = CommandHandlerVerticle.affineInstances(Customer.class, cmdHandlerFn, validatorFn, snapshotter,
+            eventRepository, () -> cache, vertx, circuitBreaker, handlerOptions);
+
+    tc.assertEquals(2, verticles.size());
+
+    vertx.undeploy(deploymentId, tc.asyncAssertSuccess(v ->
+      vertx.deployVerticle(verticles.get(0), tc.asyncAssertSuccess(id0 ->
+        vertx.deployVerticle(verticles.get(1), tc.asyncAssertSuccess(id1 -> vertx.setTimer(200, t -> {
+
+          // each one takes half of the partitions, once it got their locks
+          tc.assertEquals(new HashSet<>(asList(0, 2, 4, 6)), verticles.get(0).partitionConsumers.keySet());
+          tc.assertEquals(new HashSet<>(asList(1, 3, 5, 7)), verticles.get(1).partitionConsumers.keySet());
+
+          val options = new DeliveryOptions().setCodecName("Command");
+
+          vertx.eventBus().send(commandHandlerId(Customer.class), createCustomerCmd, options, asyncResult -> {
+
+            tc.assertTrue(asyncResult.succeeded());
+            tc.assertEquals(RESULT.SUCCESS, ((CommandExecution) asyncResult.result().body()).getResult());
+
+            val partition = ConsistentHashRing.partitionOf(customerId.getStringValue(), 8);
+            tc.assertEquals(1L, verticles.get(partition % 2).metrics().toJson().getLong("successes"));
+            tc.assertEquals(0L, verticles.get(1 - partition % 2).metrics().toJson().getLong("successes"));
+
+            async.complete();
+
+          });
+
+        })))))));
+
+  }
+
+  @Test
+  public void partition_taken_once_its_previous_owner_lets_it_go_scenario(TestContext tc) {
+
+    Async async = tc.async();
+
+    val handlerOptions = new CommandHandlerOptions().setPartitions(8).setMembershipCheckMs(50);
+
+    // as if another node still had partition 0
+    vertx.sharedData().getLock(commandHandlerPartitionLockId(Customer.class, 0), tc.asyncAssertSuccess(lock -> {
+
+      val verticle = new CommandHandlerVerticle<Customer>(Customer.class, cmdHandlerFn,
+              validatorFn, snapshotter, eventRepository, cache, vertx, circuitBreaker, handlerOptions);
+
+      vertx.undeploy(deploymentId, tc.asyncAssertSuccess(v ->
+        vertx.deployVerticle(verticle, tc.asyncAssertSuccess(id -> vertx.setTimer(200, t1 -> {
+
+          tc.assertEquals(new HashSet<>(asList(1, 2, 3, 4, 5, 6, 7)), verticle.partitionConsumers.keySet());
+
+          lock.release();
+
+          vertx.setTimer(200, t2 -> {
+            tc.assertEquals(new HashSet<>(asList(0, 1, 2, 3, 4, 5, 6, 7)), verticle.partitionConsumers.keySet());
+            async.complete();
+          });
+
+        })))));
+
+    }));
+
+  }
+
   @Test
   public void UNEXPECTED_ERROR_selectAfterVersion_scenario(TestContext tc) {
 
@@ -324,7 +616,7 @@ public class CommandHandlerVerticleTest {
 
 
   @Test
-  public void HANDLING_ERROR_scenario(TestContext tc) {
+  public void CONCURRENCY_ERROR_retried_scenario(TestContext tc) {
 
     Async async = tc.async();
 
@@ -344,69 +636,150 @@ public class CommandHandlerVerticleTest {
             any(Future.class));
 
     doAnswer(answerVoid((VoidAnswer2<UnitOfWork, Future<Either<Throwable, Long>>>) (uow, future) ->
+            future.complete(Eithers.left(new DbConcurrencyException(FORCED_CONCURRENCY_EXCEPTION)))))
+            .doAnswer(answerVoid((VoidAnswer2<UnitOfWork, Future<Either<Throwable, Long>>>) (uow, future) ->
             future.complete(Eithers.right(1L))))
             .when(eventRepository).append(eq(expectedUow), any(Future.class));
 
     when(snapshotter.getEmptySnapshot()).thenReturn(initialSnapshot);
-
     when(cmdHandlerFn.apply(eq(createCustomerCmd), eq(initialSnapshot)))
-            .thenReturn(Eithers.left(new RuntimeException("SOME ERROR WITHIN COMMAND HANDLER")));
+            .thenReturn(Eithers.right(Optional.of(expectedUow)));
 
-    val options = new DeliveryOptions().setCodecName("Command");
+    redeployWith(new CommandHandlerOptions().setMaxConcurrencyRetries(2), tc, v -> {
 
-    vertx.eventBus().send(commandHandlerId(Customer.class), createCustomerCmd, options, asyncResult -> {
+      val options = new DeliveryOptions().setCodecName("Command");
 
-      InOrder inOrder = inOrder(validatorFn, eventRepository, cmdHandlerFn);
+      vertx.eventBus().send(commandHandlerId(Customer.class), createCustomerCmd, options, asyncResult -> {
 
-      inOrder.verify(validatorFn).apply(eq(createCustomerCmd));
+        verify(validatorFn).apply(eq(createCustomerCmd));
+        verify(eventRepository, times(2)).selectAfterVersion(eq(customerId.getStringValue()),
+                eq(initialSnapshot.getVersion()), any());
+        verify(cmdHandlerFn, times(2)).apply(eq(createCustomerCmd), eq(initialSnapshot));
+        verify(eventRepository, times(2)).append(eq(expectedUow), any());
 
-      inOrder.verify(eventRepository).selectAfterVersion(eq(customerId.getStringValue()),
-              eq(initialSnapshot.getVersion()),
-              any());
+        verifyNoMoreInteractions(validatorFn, eventRepository, cmdHandlerFn);
 
-      inOrder.verify(cmdHandlerFn).apply(eq(createCustomerCmd), eq(initialSnapshot));
+        tc.assertTrue(asyncResult.succeeded());
 
-      verifyNoMoreInteractions(validatorFn, eventRepository, cmdHandlerFn);
+        val response = (CommandExecution) asyncResult.result().body();
 
-      tc.assertTrue(asyncResult.succeeded());
+        tc.assertEquals(RESULT.SUCCESS, response.getResult());
+        tc.assertEquals(1L, response.getUowSequence().get());
 
-      val response = (CommandExecution) asyncResult.result().body();
+        vertx.eventBus().<JsonObject>send(commandHandlerMetricsId(Customer.class), null, metrics -> {
+          tc.assertTrue(metrics.succeeded());
+          tc.assertEquals(1L, metrics.result().body().getLong("concurrencyRetries"));
+          tc.assertEquals(1L, metrics.result().body().getLong("retriedSuccesses"));
+          tc.assertEquals(0L, metrics.result().body().getLong("concurrencyErrors"));
+          async.complete();
+        });
 
-      tc.assertEquals(RESULT.HANDLING_ERROR, response.getResult());
-      //  TODO inform exception message
-      // tc.assertEquals(singletonList(FORCED_CONCURRENCY_EXCEPTION), response.getConstraints().get());
+      });
 
-      async.complete();
+    });
+
+  }
+
+  @Test
+  public void COMMAND_ALREADY_PROCESSED_scenario(TestContext tc) {
+
+    Async async = tc.async();
+
+    val customerId = new CustomerId("customer#1");
+    val createCustomerCmd = new CreateCustomerCmd(UUID.randomUUID(), customerId, "customer");
+
+    when(validatorFn.apply(eq(createCustomerCmd))).thenReturn(emptyList());
+
+    doAnswer(answerVoid((VoidAnswer2<UUID, Future<Optional<Long>>>) (commandId, future) ->
+            future.complete(Optional.of(7L))))
+            .when(eventRepository).getUowSequence(eq(createCustomerCmd.getCommandId()), any(Future.class));
+
+    redeployWith(new CommandHandlerOptions().setIdempotentCommands(true), tc, v -> {
+
+      val options = new DeliveryOptions().setCodecName("Command");
+
+      vertx.eventBus().send(commandHandlerId(Customer.class), createCustomerCmd, options, asyncResult -> {
+
+        // the second time it is answered by the recent commands of the instance
+        vertx.eventBus().send(commandHandlerId(Customer.class), createCustomerCmd, options, asyncResult2 -> {
+
+          verify(validatorFn, times(2)).apply(eq(createCustomerCmd));
+          verify(eventRepository).getUowSequence(eq(createCustomerCmd.getCommandId()), any());
+
+          verifyNoMoreInteractions(validatorFn, eventRepository, cmdHandlerFn);
+
+          for (val result : asList(asyncResult, asyncResult2)) {
+            tc.assertTrue(result.succeeded());
+            val response = (CommandExecution) result.result().body();
+            tc.assertEquals(RESULT.COMMAND_ALREADY_PROCESSED, response.getResult());
+            tc.assertEquals(createCustomerCmd.getCommandId(), response.getCommandId().get());
+            tc.assertEquals(7L, response.getUowSequence().get());
+          }
+
+          async.complete();
+
+        });
+
+      });
 
     });
 
   }
 
   @Test
-  public void VALIDATION_ERROR_scenario(TestContext tc) {
+  public void COMMAND_ALREADY_PROCESSED_on_append_scenario(TestContext tc) {
 
     Async async = tc.async();
 
     val customerId = new CustomerId("customer#1");
-    val createCustomerCmd = new CreateCustomerCmd(UUID.randomUUID(), customerId, "customer1");
+    val createCustomerCmd = new CreateCustomerCmd(UUID.randomUUID(), customerId, "customer");
+    val initialSnapshot = new Snapshot<Customer>(new CustomerSupplierFn().get(), new Version(0));
+    val expectedEvent = new CustomerCreated(createCustomerCmd.getTargetId(), "customer");
+    val expectedUow = UnitOfWork.unitOfWork(createCustomerCmd, new Version(1), singletonList(expectedEvent));
 
-    when(validatorFn.apply(eq(createCustomerCmd))).thenReturn(singletonList("An error"));
+    when(cache.getIfPresent(eq(customerId.getStringValue()))).thenReturn(null);
+    when(validatorFn.apply(eq(createCustomerCmd))).thenReturn(emptyList());
+
+    doAnswer(answerVoid((VoidAnswer3<String, Version, Future<SnapshotData>>) (s, version, future) ->
+            future.complete(new SnapshotData(initialSnapshot.getVersion(), new ArrayList<>()))))
+            .when(eventRepository).selectAfterVersion(eq(customerId.getStringValue()),
+            eq(initialSnapshot.getVersion()),
+            any(Future.class));
+
+    // a copy of it was appended by another handler meanwhile
+    doAnswer(answerVoid((VoidAnswer2<UnitOfWork, Future<Either<Throwable, Long>>>) (uow, future) ->
+            future.complete(Eithers.left(new DuplicateCommandException("cmd_id")))))
+            .when(eventRepository).append(eq(expectedUow), any(Future.class));
+
+    doAnswer(answerVoid((VoidAnswer2<UUID, Future<Optional<Long>>>) (commandId, future) ->
+            future.complete(Optional.of(7L))))
+            .when(eventRepository).getUowSequence(eq(createCustomerCmd.getCommandId()), any(Future.class));
+
+    when(snapshotter.getEmptySnapshot()).thenReturn(initialSnapshot);
+    when(cmdHandlerFn.apply(eq(createCustomerCmd), eq(initialSnapshot)))
+            .thenReturn(Eithers.right(Optional.of(expectedUow)));
 
     val options = new DeliveryOptions().setCodecName("Command");
 
     vertx.eventBus().send(commandHandlerId(Customer.class), createCustomerCmd, options, asyncResult -> {
 
-      verify(validatorFn).apply(eq(createCustomerCmd));
+      InOrder inOrder = inOrder(validatorFn, eventRepository, cmdHandlerFn);
 
-      verifyNoMoreInteractions(validatorFn, cmdHandlerFn, eventRepository);
+      inOrder.verify(validatorFn).apply(eq(createCustomerCmd));
+      inOrder.verify(eventRepository).selectAfterVersion(eq(customerId.getStringValue()),
+              eq(initialSnapshot.getVersion()), any());
+      inOrder.verify(cmdHandlerFn).apply(eq(createCustomerCmd), eq(initialSnapshot));
+      inOrder.verify(eventRepository).append(eq(expectedUow), any());
+      inOrder.verify(eventRepository).getUowSequence(eq(createCustomerCmd.getCommandId()), any());
+
+      verifyNoMoreInteractions(validatorFn, eventRepository, cmdHandlerFn);
 
       tc.assertTrue(asyncResult.succeeded());
 
       val response = (CommandExecution) asyncResult.result().body();
 
-      tc.assertEquals(RESULT.VALIDATION_ERROR, response.getResult());
-
-      tc.assertEquals(asList("An error"), response.getConstraints().get());
+      tc.assertEquals(RESULT.COMMAND_ALREADY_PROCESSED, response.getResult());
+      tc.assertEquals(7L, response.getUowSequence().get());
 
       async.complete();
 
@@ -414,6 +787,471 @@ public class CommandHandlerVerticleTest {
 
   }
 
+  @Test
+  public void COMMAND_ALREADY_PROCESSED_past_the_command_id_filter_scenario(TestContext tc) {
+
+    Async async = tc.async();
+
+    val customerId = new CustomerId("customer#1");
+    val createCustomerCmd = new CreateCustomerCmd(UUID.randomUUID(), customerId, "customer");
+    val initialSnapshot = new Snapshot<Customer>(new CustomerSupplierFn().get(), new Version(0));
+    val expectedEvent = new CustomerCreated(createCustomerCmd.getTargetId(), "customer");
+    val expectedUow = UnitOfWork.unitOfWork(createCustomerCmd, new Version(1), singletonList(expectedEvent));
+
+    when(cache.getIfPresent(eq(customerId.getStringValue()))).thenReturn(null);
+    when(validatorFn.apply(eq(createCustomerCmd))).thenReturn(emptyList());
+
+    // it was appended by another handler instance, so this one's filter never heard of it
+    doAnswer(answerVoid((VoidAnswer2<Integer, Future<List<UUID>>>) (max, future) -> future.complete(emptyList())))
+            .when(eventRepository).selectRecentCommandIds(anyInt(), any(Future.class));
+
+    doAnswer(answerVoid((VoidAnswer3<String, Version, Future<SnapshotData>>) (s, version, future) ->
+            future.complete(new SnapshotData(initialSnapshot.getVersion(), new ArrayList<>()))))
+            .when(eventRepository).selectAfterVersion(eq(customerId.getStringValue()),
+            eq(initialSnapshot.getVersion()),
+            any(Future.class));
+
+    doAnswer(answerVoid((VoidAnswer2<UnitOfWork, Future<Either<Throwable, Long>>>) (uow, future) ->
+            future.complete(Eithers.left(new DuplicateCommandException("cmd_id")))))
+            .when(eventRepository).append(eq(expectedUow), any(Future.class));
+
+    doAnswer(answerVoid((VoidAnswer2<UUID, Future<Optional<Long>>>) (commandId, future) ->
+            future.complete(Optional.of(7L))))
+            .when(eventRepository).getUowSequence(eq(createCustomerCmd.getCommandId()), any(Future.class));
+
+    when(snapshotter.getEmptySnapshot()).thenReturn(initialSnapshot);
+    when(cmdHandlerFn.apply(eq(createCustomerCmd), eq(initialSnapshot)))
+            .thenReturn(Eithers.right(Optional.of(expectedUow)));
+
+    val handlerOptions = new CommandHandlerOptions().setIdempotentCommands(true)
+            .setCommandIdFilterExpectedInsertions(1000);
+
+    redeployWith(handlerOptions, tc, v -> {
+
+      val options = new DeliveryOptions().setCodecName("Command");
+
+      vertx.eventBus().send(commandHandlerId(Customer.class), createCustomerCmd, options, asyncResult -> {
+
+        InOrder inOrder = inOrder(validatorFn, eventRepository, cmdHandlerFn);
+
+        inOrder.verify(eventRepository).selectRecentCommandIds(eq(1000), any());
+        inOrder.verify(validatorFn).apply(eq(createCustomerCmd));
+        // the filter said it was never seen: no lookup before handling it
+        inOrder.verify(eventRepository).selectAfterVersion(eq(customerId.getStringValue()),
+                eq(initialSnapshot.getVersion()), any());
+        inOrder.verify(cmdHandlerFn).apply(eq(createCustomerCmd), eq(initialSnapshot));
+        inOrder.verify(eventRepository).append(eq(expectedUow), any());
+        inOrder.verify(eventRepository).getUowSequence(eq(createCustomerCmd.getCommandId()), any());
+
+        verifyNoMoreInteractions(validatorFn, eventRepository, cmdHandlerFn);
+
+        tc.assertTrue(asyncResult.succeeded());
+
+        val response = (CommandExecution) asyncResult.result().body();
+
+        tc.assertEquals(RESULT.COMMAND_ALREADY_PROCESSED, response.getResult());
+        tc.assertEquals(7L, response.getUowSequence().get());
+
+        vertx.eventBus().<JsonObject>send(commandHandlerMetricsId(Customer.class), null, metrics -> {
+          tc.assertEquals(1L, metrics.result().body().getLong("commandIdFilterNegatives"));
+          tc.assertEquals(1L, metrics.result().body().getLong("alreadyProcessed"));
+          async.complete();
+        });
+
+      });
+
+    });
+
+  }
+
+  @Test
+  public void OVERLOADED_scenario(TestContext tc) {
+
+    Async async = tc.async();
+
+    val customerId = new CustomerId("customer#1");
+    val createCustomerCmd = new CreateCustomerCmd(UUID.randomUUID(), customerId, "customer");
+    val activateCustomerCmd = new ActivateCustomerCmd(UUID.randomUUID(), customerId, "because");
+    val initialSnapshot = new Snapshot<Customer>(new CustomerSupplierFn().get(), new Version(0));
+
+    when(validatorFn.apply(any(Command.class))).thenReturn(emptyList());
+    when(snapshotter.getEmptySnapshot()).thenReturn(initialSnapshot);
+    // selectAfterVersion never answers: the first command keeps the only slot
+
+    val handlerOptions = new CommandHandlerOptions().setConcurrencyLimit(1).setMaxConcurrencyLimit(1);
+
+    redeployWith(handlerOptions, tc, v -> {
+
+      val options = new DeliveryOptions().setCodecName("Command");
+
+      vertx.eventBus().send(commandHandlerId(Customer.class), createCustomerCmd, options, asyncResult -> {});
+
+      vertx.eventBus().send(commandHandlerId(Customer.class), activateCustomerCmd, options, asyncResult -> {
+
+        verify(eventRepository).selectAfterVersion(eq(customerId.getStringValue()),
+                eq(initialSnapshot.getVersion()), any());
+        verify(cmdHandlerFn, never()).apply(eq(activateCustomerCmd), any());
+
+        tc.assertTrue(asyncResult.succeeded());
+
+        val response = (CommandExecution) asyncResult.result().body();
+
+        tc.assertEquals(RESULT.OVERLOADED, response.getResult());
+        tc.assertEquals(activateCustomerCmd.getCommandId(), response.getCommandId().get());
+
+        vertx.eventBus().<JsonObject>send(commandHandlerMetricsId(Customer.class), null, metrics -> {
+          tc.assertEquals(1L, metrics.result().body().getLong("overloaded"));
+          tc.assertEquals(1, metrics.result().body().getJsonObject("concurrencyLimiter").getInteger("inFlight"));
+          async.complete();
+        });
+
+      });
+
+    });
+
+  }
+
+  @Test
+  public void OVERLOADED_after_a_circuit_breaker_timeout_scenario(TestContext tc) {
+
+    Async async = tc.async();
+
+    val customerId = new CustomerId("customer#1");
+    val createCustomerCmd = new CreateCustomerCmd(UUID.randomUUID(), customerId, "customer");
+    val activateCustomerCmd = new ActivateCustomerCmd(UUID.randomUUID(), customerId, "because");
+    val initialSnapshot = new Snapshot<Customer>(new CustomerSupplierFn().get(), new Version(0));
+
+    when(validatorFn.apply(any(Command.class))).thenReturn(emptyList());
+    when(snapshotter.getEmptySnapshot()).thenReturn(initialSnapshot);
+    // selectAfterVersion never answers: the first command is still going on after the breaker gave up on it
+
+    circuitBreaker = CircuitBreaker.create("cmd-handler-circuit-breaker-100ms", vertx,
+            new CircuitBreakerOptions().setMaxFailures(5).setTimeout(100).setFallbackOnFailure(false));
+
+    val handlerOptions = new CommandHandlerOptions().setConcurrencyLimit(1).setMaxConcurrencyLimit(1);
+
+    redeployWith(handlerOptions, tc, v -> {
+
+      val options = new DeliveryOptions().setCodecName("Command");
+
+      vertx.eventBus().send(commandHandlerId(Customer.class), createCustomerCmd, options, asyncResult1 -> {
+
+        tc.assertTrue(asyncResult1.failed());
+
+        vertx.eventBus().send(commandHandlerId(Customer.class), activateCustomerCmd, options, asyncResult2 -> {
+
+          verify(cmdHandlerFn, never()).apply(eq(activateCustomerCmd), any());
+
+          tc.assertTrue(asyncResult2.succeeded());
+
+          val response = (CommandExecution) asyncResult2.result().body();
+
+          tc.assertEquals(RESULT.OVERLOADED, response.getResult());
+
+          async.complete();
+
+        });
+
+      });
+
+    });
+
+  }
+
+  @Test
+  public void RATE_LIMITED_scenario(TestContext tc) {
+
+    Async async = tc.async();
+
+    val customerId = new CustomerId("customer#1");
+    val createCustomerCmd = new CreateCustomerCmd(UUID.randomUUID(), customerId, "customer");
+    val activateCustomerCmd = new ActivateCustomerCmd(UUID.randomUUID(), customerId, "because");
+
+    when(validatorFn.apply(eq(createCustomerCmd))).thenReturn(singletonList("a constraint"));
+
+    val handlerOptions = new CommandHandlerOptions().setRateLimitPerSecond(0.1).setRateLimitBurst(1);
+
+    redeployWith(handlerOptions, tc, v -> {
+
+      val options = new DeliveryOptions().setCodecName("Command");
+
+      vertx.eventBus().send(commandHandlerId(Customer.class), createCustomerCmd, options, asyncResult -> {
+
+        // same customer: its bucket is empty until the next 10 seconds
+        vertx.eventBus().send(commandHandlerId(Customer.class), activateCustomerCmd, options, asyncResult2 -> {
+
+          verify(validatorFn).apply(eq(createCustomerCmd));
+
+          verifyNoMoreInteractions(validatorFn, eventRepository, cmdHandlerFn);
+
+          tc.assertEquals(RESULT.VALIDATION_ERROR, ((CommandExecution) asyncResult.result().body()).getResult());
+
+          tc.assertTrue(asyncResult2.succeeded());
+
+          val response = (CommandExecution) asyncResult2.result().body();
+
+          tc.assertEquals(RESULT.RATE_LIMITED, response.getResult());
+          tc.assertEquals(activateCustomerCmd.getCommandId(), response.getCommandId().get());
+
+          async.complete();
+
+        });
+
+      });
+
+    });
+
+  }
+
+  @Test
+  public void EXPIRED_scenario(TestContext tc) {
+
+    Async async = tc.async();
+
+    val customerId = new CustomerId("customer#1");
+    val createCustomerCmd = new CreateCustomerCmd(UUID.randomUUID(), customerId, "customer");
+
+    val options = new DeliveryOptions().setCodecName("Command")
+            .addHeader(CommandHandlerVerticle.DEADLINE_HEADER, String.valueOf(System.currentTimeMillis() - 1));
+
+    vertx.eventBus().send(commandHandlerId(Customer.class), createCustomerCmd, options, asyncResult -> {
+
+      verifyNoMoreInteractions(validatorFn, eventRepository, cmdHandlerFn);
+
+      tc.assertTrue(asyncResult.succeeded());
+
+      val response = (CommandExecution) asyncResult.result().body();
+
+      tc.assertEquals(RESULT.EXPIRED, response.getResult());
+      tc.assertEquals(createCustomerCmd.getCommandId(), response.getCommandId().get());
+
+      async.complete();
+
+    });
+
+  }
+
+  @Test
+  public void EXPIRED_before_lookup_scenario(TestContext tc) {
+
+    Async async = tc.async();
+
+    val customerId = new CustomerId("customer#1");
+    val createCustomerCmd = new CreateCustomerCmd(UUID.randomUUID(), customerId, "customer");
+
+    // it expires while it is validated
+    when(validatorFn.apply(eq(createCustomerCmd))).thenAnswer(invocation -> {
+      Thread.sleep(100);
+      return emptyList();
+    });
+
+    redeployWith(new CommandHandlerOptions().setIdempotentCommands(true), tc, v -> {
+
+      val options = new DeliveryOptions().setCodecName("Command")
+              .addHeader(CommandHandlerVerticle.DEADLINE_HEADER, String.valueOf(System.currentTimeMillis() + 50));
+
+      vertx.eventBus().send(commandHandlerId(Customer.class), createCustomerCmd, options, asyncResult -> {
+
+        verify(validatorFn).apply(eq(createCustomerCmd));
+
+        // no getUowSequence
+        verifyNoMoreInteractions(validatorFn, eventRepository, cmdHandlerFn);
+
+        tc.assertTrue(asyncResult.succeeded());
+        tc.assertEquals(RESULT.EXPIRED, ((CommandExecution) asyncResult.result().body()).getResult());
+
+        async.complete();
+
+      });
+
+    });
+
+  }
+
+  @Test
+  public void EXPIRED_before_append_scenario(TestContext tc) {
+
+    Async async = tc.async();
+
+    val customerId = new CustomerId("customer#1");
+    val createCustomerCmd = new CreateCustomerCmd(UUID.randomUUID(), customerId, "customer");
+    val initialSnapshot = new Snapshot<Customer>(new CustomerSupplierFn().get(), new Version(0));
+    val expectedEvent = new CustomerCreated(createCustomerCmd.getTargetId(), "customer");
+    val expectedUow = UnitOfWork.unitOfWork(createCustomerCmd, new Version(1), singletonList(expectedEvent));
+
+    when(cache.getIfPresent(eq(customerId.getStringValue()))).thenReturn(null);
+    when(validatorFn.apply(eq(createCustomerCmd))).thenReturn(emptyList());
+
+    // a slow catch-up read: the deadline passes meanwhile
+    doAnswer(answerVoid((VoidAnswer3<String, Version, Future<SnapshotData>>) (s, version, future) ->
+            vertx.setTimer(300, timerId ->
+                    future.complete(new SnapshotData(initialSnapshot.getVersion(), new ArrayList<>())))))
+            .when(eventRepository).selectAfterVersion(eq(customerId.getStringValue()),
+                                                      eq(initialSnapshot.getVersion()),
+                                                      any(Future.class));
+
+    when(snapshotter.getEmptySnapshot()).thenReturn(initialSnapshot);
+    when(cmdHandlerFn.apply(eq(createCustomerCmd), eq(initialSnapshot)))
+            .thenReturn(Eithers.right(Optional.of(expectedUow)));
+
+    val options = new DeliveryOptions().setCodecName("Command")
+            .addHeader(CommandHandlerVerticle.DEADLINE_HEADER, String.valueOf(System.currentTimeMillis() + 100));
+
+    vertx.eventBus().send(commandHandlerId(Customer.class), createCustomerCmd, options, asyncResult -> {
+
+      InOrder inOrder = inOrder(validatorFn, eventRepository, cmdHandlerFn);
+
+      inOrder.verify(validatorFn).apply(eq(createCustomerCmd));
+
+      inOrder.verify(eventRepository).selectAfterVersion(eq(customerId.getStringValue()),
+                                                         eq(initialSnapshot.getVersion()),
+                                                         any());
+
+      inOrder.verify(cmdHandlerFn).apply(eq(createCustomerCmd), eq(initialSnapshot));
+
+      // never appended
+      verifyNoMoreInteractions(validatorFn, eventRepository, cmdHandlerFn);
+
+      tc.assertTrue(asyncResult.succeeded());
+
+      tc.assertEquals(RESULT.EXPIRED, ((CommandExecution) asyncResult.result().body()).getResult());
+
+      async.complete();
+
+    });
+
+  }
+
+  @Test
+  public void HANDLING_ERROR_scenario(TestContext tc) {
+
+    Async async = tc.async();
+
+    val customerId = new CustomerId("customer#1");
+    val createCustomerCmd = new CreateCustomerCmd(UUID.randomUUID(), customerId, "customer");
+    val initialSnapshot = new Snapshot<Customer>(new CustomerSupplierFn().get(), new Version(0));
+    val expectedEvent = new CustomerCreated(createCustomerCmd.getTargetId(), "customer");
+    val expectedUow = UnitOfWork.unitOfWork(createCustomerCmd, new Version(1), singletonList(expectedEvent));
+
+    when(cache.getIfPresent(eq(customerId.getStringValue()))).thenReturn(null);
+    when(validatorFn.apply(eq(createCustomerCmd))).thenReturn(emptyList());
+
+    doAnswer(answerVoid((VoidAnswer3<String, Version, Future<SnapshotData>>) (s, version, future) ->
+            future.complete(new SnapshotData(initialSnapshot.getVersion(), new ArrayList<>()))))
+            .when(eventRepository).selectAfterVersion(eq(customerId.getStringValue()),
+            eq(initialSnapshot.getVersion()),
+            any(Future.class));
+
+    doAnswer(answerVoid((VoidAnswer2<UnitOfWork, Future<Either<Throwable, Long>>>) (uow, future) ->
+            future.complete(Eithers.right(1L))))
+            .when(eventRepository).append(eq(expectedUow), any(Future.class));
+
+    when(snapshotter.getEmptySnapshot()).thenReturn(initialSnapshot);
+
+    when(cmdHandlerFn.apply(eq(createCustomerCmd), eq(initialSnapshot)))
+            .thenReturn(Eithers.left(new RuntimeException("SOME ERROR WITHIN COMMAND HANDLER")));
+
+    val options = new DeliveryOptions().setCodecName("Command");
+
+    vertx.eventBus().send(commandHandlerId(Customer.class), createCustomerCmd, options, asyncResult -> {
+
+      InOrder inOrder = inOrder(validatorFn, eventRepository, cmdHandlerFn);
+
+      inOrder.verify(validatorFn).apply(eq(createCustomerCmd));
+
+      inOrder.verify(eventRepository).selectAfterVersion(eq(customerId.getStringValue()),
+              eq(initialSnapshot.getVersion()),
+              any());
+
+      inOrder.verify(cmdHandlerFn).apply(eq(createCustomerCmd), eq(initialSnapshot));
+
+      verifyNoMoreInteractions(validatorFn, eventRepository, cmdHandlerFn);
+
+      tc.assertTrue(asyncResult.succeeded());
+
+      val response = (CommandExecution) asyncResult.result().body();
+
+      tc.assertEquals(RESULT.HANDLING_ERROR, response.getResult());
+      //  TODO inform exception message
+      // tc.assertEquals(singletonList(FORCED_CONCURRENCY_EXCEPTION), response.getConstraints().get());
+
+      async.complete();
+
+    });
+
+  }
+
+  @Test
+  public void VALIDATION_ERROR_scenario(TestContext tc) {
+
+    Async async = tc.async();
+
+    val customerId = new CustomerId("customer#1");
+    val createCustomerCmd = new CreateCustomerCmd(UUID.randomUUID(), customerId, "customer1");
+
+    when(validatorFn.apply(eq(createCustomerCmd))).thenReturn(singletonList("An error"));
+
+    val options = new DeliveryOptions().setCodecName("Command");
+
+    vertx.eventBus().send(commandHandlerId(Customer.class), createCustomerCmd, options, asyncResult -> {
+
+      verify(validatorFn).apply(eq(createCustomerCmd));
+
+      verifyNoMoreInteractions(validatorFn, cmdHandlerFn, eventRepository);
+
+      tc.assertTrue(asyncResult.succeeded());
+
+      val response = (CommandExecution) asyncResult.result().body();
+
+      tc.assertEquals(RESULT.VALIDATION_ERROR, response.getResult());
+
+      tc.assertEquals(asList("An error"), response.getConstraints().get());
+
+      async.complete();
+
+    });
+
+  }
+
+  @Test
+  public void metrics_of_many_instances_scenario(TestContext tc) {
+
+    Async async = tc.async();
+
+    val customerId = new CustomerId("customer#1");
+    val createCustomerCmd = new CreateCustomerCmd(UUID.randomUUID(), customerId, "customer1");
+
+    when(validatorFn.apply(eq(createCustomerCmd))).thenReturn(singletonList("An error"));
+
+    val second = new CommandHandlerVerticle<Customer>(Customer.class, cmdHandlerFn,
+            validatorFn, snapshotter, eventRepository, cache, vertx, circuitBreaker);
+
+    vertx.deployVerticle(second, tc.asyncAssertSuccess(id -> {
+
+      val options = new DeliveryOptions().setCodecName("Command");
+
+      // round robin: one command for each instance
+      vertx.eventBus().send(commandHandlerId(Customer.class), createCustomerCmd, options, asyncResult ->
+        vertx.eventBus().send(commandHandlerId(Customer.class), createCustomerCmd, options, asyncResult2 ->
+          vertx.eventBus().<JsonObject>send(commandHandlerMetricsId(Customer.class), null, metrics -> {
+
+            tc.assertTrue(metrics.succeeded());
+
+            val json = metrics.result().body();
+            val instances = json.getJsonObject("instances");
+
+            tc.assertEquals(2L, json.getLong("commands"));
+            tc.assertEquals(2, instances.size());
+            tc.assertEquals(1L, instances.getJsonObject(second.instanceId).getLong("commands"));
+
+            async.complete();
+
+          })));
+
+    }));
+
+  }
+
   @Value
   class UnknownCommand implements Command {
     UUID commandId;
@@ -6,6 +6,7 @@ import crabzilla.example1.aggregates.customer.events.CustomerCreated;
 import crabzilla.model.UnitOfWork;
 import crabzilla.model.Version;
 import crabzilla.vertx.EventProjector;
+import crabzilla.vertx.ProjectionBatch;
 import crabzilla.vertx.ProjectionData;
 import crabzilla.vertx.VertxFactory;
 import io.vertx.circuitbreaker.CircuitBreaker;
@@ -24,6 +25,7 @@ import org.mockito.Mock;
 
 import java.util.UUID;
 
+import static crabzilla.vertx.util.StringHelper.eventsBatchHandlerId;
 import static crabzilla.vertx.util.StringHelper.eventsHandlerId;
 import static java.util.Arrays.asList;
 import static java.util.Collections.singletonList;
@@ -96,4 +98,37 @@ public class EventsProjectionVerticleTest {
     });
 
   }
-}
\ No newline at end of file
+
+  @Test
+  public void must_call_events_projector_with_a_batch(TestContext tc) {
+
+    Async async = tc.async();
+
+    val customerId = new CustomerId("customer#1");
+    val createCustomerCmd = new CreateCustomerCmd(UUID.randomUUID(), customerId, "customer");
+    val expectedEvent = new CustomerCreated(createCustomerCmd.getTargetId(), "customer");
+
+    val projectionData1 = new ProjectionData(UUID.randomUUID().toString(), 1L,
+            customerId.getStringValue(), singletonList(expectedEvent));
+    val projectionData2 = new ProjectionData(UUID.randomUUID().toString(), 2L,
+            "customer#2", singletonList(expectedEvent));
+    val batch = new ProjectionBatch(asList(projectionData1, projectionData2));
+
+    val options = new DeliveryOptions().setCodecName(ProjectionBatch.class.getSimpleName())
+                                       .addHeader("uowSequence", batch.lastUowSequence() + "");
+
+    vertx.eventBus().send(eventsBatchHandlerId("example1"), batch, options, asyncResult -> {
+
+      verify(eventProjector).handle(eq(asList(projectionData1, projectionData2)));
+
+      verifyNoMoreInteractions(eventProjector);
+
+      tc.assertTrue(asyncResult.succeeded());
+
+      async.complete();
+
+    });
+
+  }
+
+}
@@ -0,0 +1,160 @@
+package crabzilla.vertx.verticles;
+
+import crabzilla.example1.aggregates.customer.CustomerId;
+import crabzilla.example1.aggregates.customer.events.CustomerCreated;
+import crabzilla.vertx.ProjectionBatch;
+import crabzilla.vertx.ProjectionData;
+import crabzilla.vertx.VertxFactory;
+import crabzilla.vertx.repositories.VertxEventsChannelRepository;
+import crabzilla.vertx.repositories.VertxProjectionRepository;
+import crabzilla.vertx.util.PollingBackoff;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import lombok.val;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.stubbing.VoidAnswer2;
+import org.mockito.stubbing.VoidAnswer3;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static crabzilla.vertx.util.StringHelper.eventsBatchHandlerId;
+import static crabzilla.vertx.util.StringHelper.eventsRelayId;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static org.mockito.AdditionalAnswers.answerVoid;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+@RunWith(VertxUnitRunner.class)
+public class EventsRelayVerticleTest {
+
+  Vertx vertx;
+
+  @Mock
+  VertxProjectionRepository projectionRepository;
+  @Mock
+  VertxEventsChannelRepository channelRepository;
+
+  final ProjectionData uow1 = projectionData(1L);
+  final ProjectionData uow2 = projectionData(2L);
+  final ProjectionData uow3 = projectionData(3L);
+
+  final List<ProjectionBatch> received = new CopyOnWriteArrayList<>();
+
+  @Before
+  public void setUp() {
+
+    initMocks(this);
+
+    vertx = new VertxFactory().vertx();
+
+    doAnswer(answerVoid((VoidAnswer2<String, Future<Long>>) (c, future) -> future.complete(0L)))
+            .when(channelRepository).getLastUowSeq(eq(eventsRelayId("example1")), any(Future.class));
+
+    doAnswer(answerVoid((VoidAnswer3<String, Long, Future<Void>>) (channel, seq, future) -> future.complete()))
+            .when(channelRepository).updateLastUowSeq(anyString(), anyLong(), any(Future.class));
+
+    selectAfter(0L, asList(uow1, uow2, uow3));
+    selectAfter(3L, emptyList());
+
+  }
+
+  @After
+  public void tearDown(TestContext context) {
+    vertx.close(context.asyncAssertSuccess());
+  }
+
+  @Test
+  public void keeps_its_cursor_until_a_batch_is_acknowledged(TestContext tc) {
+
+    Async async = tc.async();
+
+    vertx.deployVerticle(relay(), tc.asyncAssertSuccess(id -> vertx.setTimer(200, t -> {
+
+      // nobody to send it to yet
+      verify(channelRepository, never()).updateLastUowSeq(anyString(), anyLong(), any());
+
+      consume();
+
+      vertx.setTimer(300, t2 -> {
+
+        tc.assertEquals(1, received.size());
+        tc.assertEquals(asList(uow1, uow2, uow3), received.get(0).getProjectionData());
+
+        verify(channelRepository).updateLastUowSeq(eq(eventsRelayId("example1")), eq(3L), any());
+        // the batch was sent again, not read again
+        verify(projectionRepository, times(1)).selectAfterUowSequence(eq(0L), anyInt(), any(Future.class));
+
+        async.complete();
+
+      });
+
+    })));
+
+  }
+
+  @Test
+  public void only_one_relay_per_channel_is_active(TestContext tc) {
+
+    Async async = tc.async();
+
+    consume();
+
+    val relay1 = relay();
+    val relay2 = relay();
+
+    vertx.deployVerticle(relay1, tc.asyncAssertSuccess(id1 ->
+      vertx.deployVerticle(relay2, tc.asyncAssertSuccess(id2 -> vertx.setTimer(300, t -> {
+
+        tc.assertTrue(relay1.isActive());
+        tc.assertFalse(relay2.isActive());
+
+        // the standby one never read from its cursor
+        tc.assertEquals(1, received.size());
+
+        // it takes over once the active one goes away
+        vertx.undeploy(id1, tc.asyncAssertSuccess(v -> vertx.setTimer(300, t2 -> {
+          tc.assertTrue(relay2.isActive());
+          async.complete();
+        })));
+
+      })))));
+
+  }
+
+  EventsRelayVerticle relay() {
+    return new EventsRelayVerticle(vertx, "example1", projectionRepository, channelRepository, 10,
+            new PollingBackoff(10, 50, 2));
+  }
+
+  void consume() {
+    vertx.eventBus().<ProjectionBatch>consumer(eventsBatchHandlerId("example1"), msg -> {
+      received.add(msg.body());
+      msg.reply("roger that");
+    });
+  }
+
+  void selectAfter(Long uowSequence, List<ProjectionData> result) {
+    doAnswer(answerVoid((VoidAnswer3<Long, Integer, Future<List<ProjectionData>>>) (seq, max, future) ->
+            future.complete(result)))
+            .when(projectionRepository).selectAfterUowSequence(eq(uowSequence), anyInt(), any(Future.class));
+  }
+
+  static ProjectionData projectionData(Long uowSequence) {
+    val customerId = new CustomerId("customer#" + uowSequence);
+    return new ProjectionData(UUID.randomUUID().toString(), uowSequence, customerId.getStringValue(),
+            singletonList(new CustomerCreated(customerId, "customer")));
+  }
+
+}
@@ -0,0 +1,169 @@
+package crabzilla.vertx.verticles;
+
+import crabzilla.example1.aggregates.customer.CustomerId;
+import crabzilla.example1.aggregates.customer.events.CustomerCreated;
+import crabzilla.vertx.EventProjector;
+import crabzilla.vertx.ProjectionData;
+import crabzilla.vertx.VertxFactory;
+import crabzilla.vertx.repositories.VertxEventsChannelRepository;
+import crabzilla.vertx.repositories.VertxProjectionRepository;
+import crabzilla.vertx.util.PollingBackoff;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import lombok.val;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.stubbing.VoidAnswer2;
+import org.mockito.stubbing.VoidAnswer3;
+import org.mockito.stubbing.VoidAnswer4;
+
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singleton;
+import static java.util.Collections.singletonList;
+import static org.mockito.AdditionalAnswers.answerVoid;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+@RunWith(VertxUnitRunner.class)
+public class EventsTailerVerticleTest {
+
+  Vertx vertx;
+
+  @Mock
+  VertxProjectionRepository projectionRepository;
+  @Mock
+  VertxEventsChannelRepository channelRepository;
+  @Mock
+  EventProjector fastProjector;
+  @Mock
+  EventProjector slowProjector;
+  @Mock
+  EventProjector selectiveProjector;
+
+  final ProjectionData uow1 = projectionData(1L);
+  final ProjectionData uow2 = projectionData(2L);
+  final ProjectionData uow3 = projectionData(3L);
+
+  @Before
+  public void setUp(TestContext context) {
+
+    initMocks(this);
+
+    vertx = new VertxFactory().vertx();
+
+    when(fastProjector.getEventsChannelId()).thenReturn("fast");
+    when(slowProjector.getEventsChannelId()).thenReturn("slow");
+
+    lastUowSeq("fast", 2L);
+    lastUowSeq("slow", 0L);
+
+    doAnswer(answerVoid((VoidAnswer3<String, Long, Future<Void>>) (channel, seq, future) -> future.complete()))
+            .when(channelRepository).updateLastUowSeq(anyString(), anyLong(), any(Future.class));
+
+    selectAfter(0L, asList(uow1, uow2, uow3));
+    selectAfter(2L, singletonList(uow3));
+    selectAfter(3L, emptyList());
+
+  }
+
+  @After
+  public void tearDown(TestContext context) {
+    vertx.close(context.asyncAssertSuccess());
+  }
+
+  @Test
+  public void each_projector_gets_every_unit_of_work_once(TestContext tc) {
+
+    Async async = tc.async();
+
+    val tailer = new EventsTailerVerticle(vertx, projectionRepository, channelRepository, 10,
+            new PollingBackoff(10, 50, 2))
+            .register(fastProjector)
+            .register(slowProjector);
+
+    vertx.deployVerticle(tailer, tc.asyncAssertSuccess(id -> vertx.setTimer(500, t -> {
+
+      verify(fastProjector).handle(eq(singletonList(uow3)));
+      verify(slowProjector).handle(eq(asList(uow1, uow2, uow3)));
+
+      verify(fastProjector, atLeastOnce()).getEventsChannelId();
+      verify(slowProjector, atLeastOnce()).getEventsChannelId();
+      verifyNoMoreInteractions(fastProjector, slowProjector);
+
+      verify(channelRepository).updateLastUowSeq(eq("fast"), eq(3L), any());
+      verify(channelRepository).updateLastUowSeq(eq("slow"), eq(3L), any());
+
+      tc.assertEquals(0L, tailer.lag("fast"));
+      tc.assertEquals(0L, tailer.lag("slow"));
+
+      async.complete();
+
+    })));
+
+  }
+
+  @Test
+  public void selective_projector_reads_only_units_of_work_with_its_event_types(TestContext tc) {
+
+    Async async = tc.async();
+
+    val eventTypes = singleton("CustomerActivated");
+
+    when(selectiveProjector.getEventsChannelId()).thenReturn("selective");
+    when(selectiveProjector.getEventTypes()).thenReturn(eventTypes);
+    lastUowSeq("selective", 0L);
+
+    // none of the units of work has a CustomerActivated event
+    doAnswer(answerVoid((VoidAnswer4<Long, Integer, Set<String>, Future<List<ProjectionData>>>)
+            (seq, max, types, future) -> future.complete(emptyList())))
+            .when(projectionRepository).selectAfterUowSequence(eq(0L), anyInt(), eq(eventTypes), any(Future.class));
+
+    val tailer = new EventsTailerVerticle(vertx, projectionRepository, channelRepository, 10,
+            new PollingBackoff(10, 50, 2))
+            .register(fastProjector)
+            .register(selectiveProjector);
+
+    vertx.deployVerticle(tailer, tc.asyncAssertSuccess(id -> vertx.setTimer(500, t -> {
+
+      verify(projectionRepository, atLeastOnce())
+              .selectAfterUowSequence(eq(0L), anyInt(), eq(eventTypes), any(Future.class));
+      verify(selectiveProjector, never()).handle(any());
+
+      tc.assertEquals(0L, tailer.lag("selective"));
+
+      async.complete();
+
+    })));
+
+  }
+
+  void lastUowSeq(String channel, Long lastSeq) {
+    doAnswer(answerVoid((VoidAnswer2<String, Future<Long>>) (c, future) -> future.complete(lastSeq)))
+            .when(channelRepository).getLastUowSeq(eq(channel), any(Future.class));
+  }
+
+  void selectAfter(Long uowSequence, List<ProjectionData> result) {
+    doAnswer(answerVoid((VoidAnswer3<Long, Integer, Future<List<ProjectionData>>>) (seq, max, future) ->
+            future.complete(result)))
+            .when(projectionRepository).selectAfterUowSequence(eq(uowSequence), anyInt(), any(Future.class));
+  }
+
+  static ProjectionData projectionData(Long uowSequence) {
+    val customerId = new CustomerId("customer#" + uowSequence);
+    return new ProjectionData(UUID.randomUUID().toString(), uowSequence, customerId.getStringValue(),
+            singletonList(new CustomerCreated(customerId, "customer")));
+  }
+
+}